@@ -11,25 +11,61 @@
 package jolinar;
 
 import jolinar.formulas.cpu.CPUFormulaDVFS;
+import jolinar.formulas.cpu.CPUFormulaPlatform;
 import jolinar.formulas.cpu.CPUFormulasInterface;
+import jolinar.formulas.cpu.CPUModelCalibrator;
 import jolinar.formulas.disk.DiskFormulasInterface;
 import jolinar.formulas.disk.DiskFormulasProc;
 import jolinar.formulas.memory.MemoryFormulaProc;
+import jolinar.formulas.memory.MemoryFormulaRAPL;
 import jolinar.formulas.memory.MemoryFormulasInterface;
+import jolinar.hardware.HardwareProfile;
+import jolinar.host.EnergyLedger;
+import jolinar.host.HostMonitor;
+import jolinar.host.HostProcessTable;
+import jolinar.host.TopView;
+import jolinar.process.AttachedProcessMonitor;
+import jolinar.process.CgroupMonitor;
+import jolinar.process.ChildProcessMonitor;
+import jolinar.process.HeavyHitters;
+import jolinar.process.ProcessExitAware;
+import jolinar.process.ProcessMonitorsInterface;
+import jolinar.process.ProcessTree;
+import jolinar.process.TreeCollector;
+import jolinar.scheduler.AdaptiveSamplingController;
+import jolinar.scheduler.MultiRateScheduler;
+import jolinar.scheduler.PowerChannel;
+import jolinar.scheduler.PowerSource;
+import jolinar.scheduler.SampleListener;
+import jolinar.scheduler.SamplingScheduler;
+import jolinar.sensors.cpu.CPUSensorCgroup;
 import jolinar.sensors.cpu.CPUSensorDVFS;
+import jolinar.sensors.cpu.CPUSensorSystem;
+import jolinar.sensors.cpu.CPUSensorTree;
 import jolinar.sensors.cpu.CPUSensorsInterface;
+import jolinar.sensors.cpu.FrequencyModel;
+import jolinar.sensors.cpu.ThreadGroups;
+import jolinar.sensors.disk.DiskSensorCgroup;
 import jolinar.sensors.disk.DiskSensorProc;
+import jolinar.sensors.disk.DiskSensorTree;
 import jolinar.sensors.disk.DiskSensorsInterface;
+import jolinar.sensors.memory.MemorySensorCgroup;
 import jolinar.sensors.memory.MemorySensorProc;
+import jolinar.sensors.memory.MemorySensorTree;
 import jolinar.sensors.memory.MemorySensorsInterface;
+import jolinar.sensors.platform.PlatformSensorBattery;
+import jolinar.sensors.platform.PlatformSensorHwmon;
+import jolinar.sensors.platform.PlatformSensorsInterface;
+import jolinar.sensors.proc.ProcFileCache;
+import jolinar.sensors.rapl.RAPLSensorPowercap;
 
 import java.io.*;
-import java.lang.reflect.Field;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
 
 public class Main {
 
@@ -59,7 +95,19 @@ public class Main {
 		String userDir = System.getProperty("user.dir");
 		int appPid = 0;
 		List<String> programToMonitor = new ArrayList<String>();
+		AttachedProcessMonitor.TargetType attachType = null;
+		String attachTarget = null;
+		boolean processTreeMode = false;
+		boolean cgroupMode = false;
+		boolean calibrate = false;
+		boolean topMode = false;
 		boolean generateLogs = true;
+		boolean launchSuspended = false;
+		long samplingInterval = 500;
+		String samplingMode = "fixed";
+		long samplingIntervalMin = 10, samplingIntervalMax = 5000;
+		Double samplingOverheadBudget = 1.0;
+		long cpuSamplingInterval, diskSamplingInterval, memorySamplingInterval;
 
 		// Sensors and formulas
 		CPUSensorsInterface cpuSensor;
@@ -100,57 +148,45 @@ public class Main {
 			memoryReadPower = Double.valueOf(prop.getProperty("memory-read-power"));
 			memoryWritePower = Double.valueOf(prop.getProperty("memory-write-power"));
 			generateLogs = Boolean.valueOf(prop.getProperty("generate-logs"));
+			launchSuspended = Boolean.valueOf(prop.getProperty("launch-suspended", String.valueOf(launchSuspended)));
+			samplingInterval = Long.valueOf(prop.getProperty("sampling-interval", String.valueOf(samplingInterval)));
+			samplingMode = prop.getProperty("sampling-mode", samplingMode);
+			samplingIntervalMin = Long.valueOf(prop.getProperty("sampling-interval-min", String.valueOf(samplingIntervalMin)));
+			samplingIntervalMax = Long.valueOf(prop.getProperty("sampling-interval-max", String.valueOf(samplingIntervalMax)));
+			samplingOverheadBudget = Double.valueOf(prop.getProperty("sampling-overhead-budget", samplingOverheadBudget.toString()));
 		} catch (IOException e) {
-			// File not found, attempt to create one
+			// File not found, create one from the discovered hardware
 			Main.LOGGER.log(Level.WARNING, "No properties file found in home directory: " + configurationFile);
-			System.out.print("Create a new properties file? (Y/n) ");
-			Scanner input = new Scanner(System.in);
-			//String answer = input.next();
-			String answer = input.nextLine();
-			if (answer.equals("") || answer.equalsIgnoreCase("y")) {
-				// Create properties file
-				System.out.println("Jolinar requires some hardware related information. Please type in the required data:");
-				System.out.print("\nCPU TDP: ");
-				cpuTDP = input.nextDouble();
-				System.out.println("\nCPU frequencies and voltages (format: frequency;voltage;frequency;voltage): ");
-				cpuFrequenciesVoltages = input.next();
-				System.out.print("\nDisk read power in Watts: ");
-				diskReadPower = input.nextDouble();
-				System.out.print("\nDisk read rate in MB/s: ");
-				diskReadRate = input.nextDouble();
-				System.out.print("\nDisk write power in Watts: ");
-				diskWritePower = input.nextDouble();
-				System.out.print("\nDisk write rate in MB/s: ");
-				diskWriteRate = input.nextDouble();
-				System.out.print("\nMemory read power in Watts: ");
-				memoryReadPower = input.nextDouble();
-				System.out.print("\nMemory write power in Watts: ");
-				memoryWritePower = input.nextDouble();
-				System.out.print("\nGenerate logs? (true, false): ");
-				generateLogs = input.nextBoolean();
-				System.out.println();
-
-				prop.setProperty("cpu-tdp", cpuTDP.toString());
-				prop.setProperty("cpu-frequencies-voltages", cpuFrequenciesVoltages);
-				prop.setProperty("disk-read-power", diskReadPower.toString());
-				prop.setProperty("disk-read-rate", diskReadRate.toString());
-				prop.setProperty("disk-write-power", diskWritePower.toString());
-				prop.setProperty("disk-write-rate", diskWriteRate.toString());
-				prop.setProperty("memory-read-power", memoryReadPower.toString());
-				prop.setProperty("memory-write-power", memoryWritePower.toString());
-				prop.setProperty("generate-logs", String.valueOf(generateLogs));
-
-				File f = new File(configurationFile);
-				OutputStream out = null;
-				try {
-					out = new FileOutputStream(f);
-					prop.store(out, "# Jolinar 2 configuration file");
-				} catch (IOException e1) {
-					Main.LOGGER.log(Level.SEVERE, e1.getMessage());
-					System.exit(1);
-				}
-			} else {
-				Main.LOGGER.log(Level.SEVERE, "Jolinar requires a configuration file in order to run");
+			HardwareProfile hardware = HardwareProfile.discover();
+			Main.LOGGER.log(Level.INFO, "Creating properties file for " + hardware.describe());
+			hardware.store(prop);
+			for (String field : hardware.getUnresolved()) {
+				Main.LOGGER.log(Level.WARNING, "Unresolved " + field);
+			}
+			cpuTDP = Double.valueOf(prop.getProperty("cpu-tdp"));
+			cpuFrequenciesVoltages = prop.getProperty("cpu-frequencies-voltages");
+			diskReadPower = Double.valueOf(prop.getProperty("disk-read-power"));
+			diskReadRate = Double.valueOf(prop.getProperty("disk-read-rate"));
+			diskWritePower = Double.valueOf(prop.getProperty("disk-write-power"));
+			diskWriteRate = Double.valueOf(prop.getProperty("disk-write-rate"));
+			memoryReadPower = Double.valueOf(prop.getProperty("memory-read-power"));
+			memoryWritePower = Double.valueOf(prop.getProperty("memory-write-power"));
+
+			prop.setProperty("generate-logs", String.valueOf(generateLogs));
+			prop.setProperty("launch-suspended", String.valueOf(launchSuspended));
+			prop.setProperty("sampling-interval", String.valueOf(samplingInterval));
+			prop.setProperty("sampling-mode", samplingMode);
+			prop.setProperty("sampling-interval-min", String.valueOf(samplingIntervalMin));
+			prop.setProperty("sampling-interval-max", String.valueOf(samplingIntervalMax));
+			prop.setProperty("sampling-overhead-budget", samplingOverheadBudget.toString());
+
+			File f = new File(configurationFile);
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(f);
+				prop.store(out, "# Jolinar 2 configuration file");
+			} catch (IOException e1) {
+				Main.LOGGER.log(Level.SEVERE, e1.getMessage());
 				System.exit(1);
 			}
 		} finally {
@@ -162,9 +198,99 @@ public class Main {
 			}
 		}
 
+		// Sampling intervals of each subsystem, sampling-interval by default
+		cpuSamplingInterval = Long.valueOf(prop.getProperty("cpu-sampling-interval", String.valueOf(samplingInterval)));
+		diskSamplingInterval = Long.valueOf(prop.getProperty("disk-sampling-interval", String.valueOf(samplingInterval)));
+		memorySamplingInterval = Long.valueOf(prop.getProperty("memory-sampling-interval", String.valueOf(samplingInterval)));
+
+		// Groups of threads of the program, whose CPU energy is measured separately
+		ThreadGroups threadGroups = ThreadGroups.parse(prop.getProperty("thread-groups", ""));
+
+		// Frequency mix applied to the program, of the whole system or of the cores it ran on
+		String cpuAttribution = prop.getProperty("cpu-attribution", "system");
+
+		// Source of the CPU time of the program, schedstat (nanoseconds) or jiffies (clock ticks)
+		String cpuTimeSource = prop.getProperty("cpu-time-source", "schedstat");
+
+		// Source of CPU and memory power, model (hardware data), rapl, hwmon or battery (measured), or auto (first readable)
+		String powerSource = prop.getProperty("power-source", "model");
+		String[] platformPaths = {
+				prop.getProperty("powercap-path", RAPLSensorPowercap.DEFAULT_POWERCAP_PATH),
+				prop.getProperty("hwmon-path", PlatformSensorHwmon.DEFAULT_HWMON_PATH),
+				prop.getProperty("power-supply-path", PlatformSensorBattery.DEFAULT_POWER_SUPPLY_PATH) };
+		String hwmonChannels = prop.getProperty("hwmon-channels", "");
+
+		// Constant of the CPU power model fitted by calibration, used instead of the TDP heuristic,
+		// and fitted idle power, subtracted from measured power before it is apportioned to processes
+		String cpuModelConstant = prop.getProperty("cpu-model-constant");
+		// and source of the measured power it was fitted against, as the idle power of a package is not the one of a platform
+		double cpuIdlePower = Double.valueOf(prop.getProperty("cpu-idle-power", "0"));
+		String cpuIdlePowerSource = prop.getProperty("cpu-idle-power-source", "");
+		long calibrationDuration = Long.valueOf(prop.getProperty("calibration-duration", "60"));
+
+		// Refresh interval in milliseconds and number of processes of the host-wide view
+		long topInterval = Long.valueOf(prop.getProperty("top-interval", "1000"));
+		int topCount = Integer.valueOf(prop.getProperty("top-count", "20"));
+
+		// Number of most consuming commands tracked in host-wide and process tree modes, 0 to disable, by name or cmdline
+		int heavyHittersCapacity = Integer.valueOf(prop.getProperty("heavy-hitters", "0"));
+		boolean heavyHittersCommandLine = prop.getProperty("heavy-hitters-key", "name").equals("cmdline");
+
+		// Maximum number of exited processes of a tree kept with their own energy, the oldest ones being folded into a single total
+		int treeExitedProcesses = Integer.valueOf(prop.getProperty("tree-exited-processes", "10000"));
+
+		// Interval between two rollups of energy by user, command and cgroup of the host-wide view, in seconds, 0 to disable
+		long ledgerInterval = Long.valueOf(prop.getProperty("ledger-interval", "0"));
+
+		// Threads reading the processes of a tree in parallel when virtual threads are not available, 0 to read them one after another,
+		// and maximum time waited for the reads of a tick in milliseconds
+		int collectorThreads = Integer.valueOf(prop.getProperty("collector-threads", "0"));
+		long collectorDeadline = Long.valueOf(prop.getProperty("collector-deadline", "100"));
+
+		// Root of the cgroup v2 hierarchy, where cgroups to monitor are found
+		String cgroupRoot = prop.getProperty("cgroup-root", CgroupMonitor.DEFAULT_CGROUP_ROOT);
+
+		// Runtime options, given before the program to monitor
+		int programIndex = 0;
+		while (programIndex < args.length && args[programIndex].startsWith("--")) {
+			String option = args[programIndex++];
+			switch (option) {
+				case "--tree":
+					processTreeMode = true;
+					continue;
+				case "--calibrate":
+					calibrate = true;
+					continue;
+				case "--top":
+					topMode = true;
+					continue;
+				case "--pid":
+					attachType = AttachedProcessMonitor.TargetType.PID;
+					break;
+				case "--pidfile":
+					attachType = AttachedProcessMonitor.TargetType.PIDFILE;
+					break;
+				case "--name":
+					attachType = AttachedProcessMonitor.TargetType.NAME;
+					break;
+				case "--cgroup":
+					cgroupMode = true;
+					break;
+				default:
+					Main.LOGGER.log(Level.SEVERE, "Unknown option " + option + ", use -h to list available options");
+					System.exit(1);
+			}
+			// Attach to an already running process or cgroup
+			if (programIndex >= args.length) {
+				Main.LOGGER.log(Level.SEVERE, "Option " + option + " requires an argument");
+				System.exit(1);
+			}
+			attachTarget = args[programIndex++];
+		}
+
 		// Get program to monitor from argument
 		if (args.length >= 1) {
-			if (args[0].startsWith("-")) {
+			if (programIndex == 0 && args[0].startsWith("-")) {
 				Main.LOGGER.log(Level.INFO, "Jolinar configurator");
 				switch (args[0]) {
 					case "-l":
@@ -191,6 +317,57 @@ public class Main {
 					case "-mwp":
 						changeProperty(configurationFile, "disk-write-power", String.valueOf(args[1]));
 						break;
+					case "-ls":
+						changeProperty(configurationFile, "launch-suspended", String.valueOf(args[1]));
+						break;
+					case "-ca":
+						changeProperty(configurationFile, "cpu-attribution", String.valueOf(args[1]));
+						break;
+					case "-cts":
+						changeProperty(configurationFile, "cpu-time-source", String.valueOf(args[1]));
+						break;
+					case "-ps":
+						changeProperty(configurationFile, "power-source", String.valueOf(args[1]));
+						break;
+					case "-tg":
+						changeProperty(configurationFile, "thread-groups", String.valueOf(args[1]));
+						break;
+					case "-si":
+						changeProperty(configurationFile, "sampling-interval", String.valueOf(args[1]));
+						break;
+					case "-sm":
+						changeProperty(configurationFile, "sampling-mode", String.valueOf(args[1]));
+						break;
+					case "-simin":
+						changeProperty(configurationFile, "sampling-interval-min", String.valueOf(args[1]));
+						break;
+					case "-simax":
+						changeProperty(configurationFile, "sampling-interval-max", String.valueOf(args[1]));
+						break;
+					case "-sob":
+						changeProperty(configurationFile, "sampling-overhead-budget", String.valueOf(args[1]));
+						break;
+					case "-sicpu":
+						changeProperty(configurationFile, "cpu-sampling-interval", String.valueOf(args[1]));
+						break;
+					case "-sidisk":
+						changeProperty(configurationFile, "disk-sampling-interval", String.valueOf(args[1]));
+						break;
+					case "-simem":
+						changeProperty(configurationFile, "memory-sampling-interval", String.valueOf(args[1]));
+						break;
+					case "-hw":
+						HardwareProfile hardware = HardwareProfile.discover();
+						Main.LOGGER.log(Level.INFO, "Discovered " + hardware.describe());
+						Properties hardwareProp = new Properties();
+						hardware.store(hardwareProp);
+						for (String key : hardwareProp.stringPropertyNames()) {
+							changeProperty(configurationFile, key, hardwareProp.getProperty(key));
+						}
+						for (String field : hardware.getUnresolved()) {
+							Main.LOGGER.log(Level.WARNING, "Unresolved " + field);
+						}
+						break;
 					case "-h":
 						Main.LOGGER.log(Level.INFO, "Available options");
 						System.out.println("-l\tGenerated logs");
@@ -201,7 +378,28 @@ public class Main {
 						System.out.println("-dwr\tDisk write rate");
 						System.out.println("-mrp\tmemory read power");
 						System.out.println("-mwp\tmemory write power");
+						System.out.println("-ls\tLaunch program suspended until sensors are ready (true, false)");
+						System.out.println("-ca\tCPU frequency attribution (system, core)");
+						System.out.println("-cts\tCPU time source (schedstat, jiffies)");
+						System.out.println("-ps\tCPU and memory power source (model, rapl, hwmon, battery, auto)");
+						System.out.println("-tg\tThread groups, as name=pattern,pattern;name=pattern");
+						System.out.println("-si\tSampling interval in milliseconds");
+						System.out.println("-sm\tSampling mode (fixed, adaptive)");
+						System.out.println("-simin\tMinimum adaptive sampling interval in milliseconds");
+						System.out.println("-simax\tMaximum adaptive sampling interval in milliseconds");
+						System.out.println("-sob\tAdaptive sampling overhead budget in percent of one core");
+						System.out.println("-sicpu\tCPU sampling interval in milliseconds");
+						System.out.println("-sidisk\tDisk sampling interval in milliseconds");
+						System.out.println("-simem\tMemory sampling interval in milliseconds");
+						System.out.println("-hw\tDiscover hardware information and save it");
 						System.out.println("-h\tHelp");
+						System.out.println("--pid\tMonitor an already running process by its PID");
+						System.out.println("--pidfile\tMonitor an already running process by its pidfile");
+						System.out.println("--name\tMonitor an already running process whose command line matches a regular expression");
+						System.out.println("--cgroup\tMonitor a cgroup v2 by path, container ID or systemd unit name");
+						System.out.println("--tree\tMonitor the program and all its child processes");
+						System.out.println("--calibrate\tFit the CPU power model to measured power, with the whole system as workload");
+						System.out.println("--top\tShow the power of all processes of the host, refreshed until interrupted");
 						break;
 					default:
 						Main.LOGGER.log(Level.INFO, "Available options:");
@@ -213,65 +411,179 @@ public class Main {
 						System.out.println("-dwr\tDisk write rate");
 						System.out.println("-mrp\tmemory read power");
 						System.out.println("-mwp\tmemory write power");
+						System.out.println("-ls\tLaunch program suspended until sensors are ready (true, false)");
+						System.out.println("-ca\tCPU frequency attribution (system, core)");
+						System.out.println("-cts\tCPU time source (schedstat, jiffies)");
+						System.out.println("-ps\tCPU and memory power source (model, rapl, hwmon, battery, auto)");
+						System.out.println("-tg\tThread groups, as name=pattern,pattern;name=pattern");
+						System.out.println("-si\tSampling interval in milliseconds");
+						System.out.println("-sm\tSampling mode (fixed, adaptive)");
+						System.out.println("-simin\tMinimum adaptive sampling interval in milliseconds");
+						System.out.println("-simax\tMaximum adaptive sampling interval in milliseconds");
+						System.out.println("-sob\tAdaptive sampling overhead budget in percent of one core");
+						System.out.println("-sicpu\tCPU sampling interval in milliseconds");
+						System.out.println("-sidisk\tDisk sampling interval in milliseconds");
+						System.out.println("-simem\tMemory sampling interval in milliseconds");
+						System.out.println("-hw\tDiscover hardware information and save it");
 						System.out.println("-h\tHelp");
+						System.out.println("--pid\tMonitor an already running process by its PID");
+						System.out.println("--pidfile\tMonitor an already running process by its pidfile");
+						System.out.println("--name\tMonitor an already running process whose command line matches a regular expression");
+						System.out.println("--cgroup\tMonitor a cgroup v2 by path, container ID or systemd unit name");
+						System.out.println("--tree\tMonitor the program and all its child processes");
+						System.out.println("--calibrate\tFit the CPU power model to measured power, with the whole system as workload");
+						System.out.println("--top\tShow the power of all processes of the host, refreshed until interrupted");
 						break;
 				}
 				System.exit(0);
 			} else {
-				programToMonitor.add(args[0]);
-				if (args.length > 1) {
-					for (int i = 1; i < args.length; i++) {
-						programToMonitor.add(args[i]);
-					}
+				for (int i = programIndex; i < args.length; i++) {
+					programToMonitor.add(args[i]);
 				}
 			}
 		}
-		else {
+
+		if (calibrate) {
+			// Calibrate against the measured power source, the first available one unless configured
+			PlatformSensorsInterface platformSensor = platformSensor(powerSource.equals("model") ? "auto" : powerSource, platformPaths, hwmonChannels);
+			boolean calibrated = calibrate(configurationFile, FrequencyModel.parse(cpuFrequenciesVoltages), platformSensor, samplingInterval, calibrationDuration);
+			System.exit(calibrated ? 0 : 1);
+		}
+
+		if (topMode) {
+			// Share the measured power of the system between processes, or else the modelled power
+			FrequencyModel frequencyModel = FrequencyModel.parse(cpuFrequenciesVoltages);
+			CPUSensorSystem systemSensor = new CPUSensorSystem(frequencyModel);
+			CPUFormulasInterface systemCPUFormula;
+			PlatformSensorsInterface platformSensor = platformSensor(powerSource, platformPaths, hwmonChannels);
+			if (platformSensor != null)
+				systemCPUFormula = new CPUFormulaPlatform(systemSensor, new CPUSensorSystem(frequencyModel), platformSensor,
+						Main.idlePower(platformSensor, cpuIdlePower, cpuIdlePowerSource));
+			else if (cpuModelConstant != null)
+				systemCPUFormula = new CPUFormulaDVFS(Double.valueOf(cpuModelConstant), systemSensor, frequencyModel);
+			else
+				systemCPUFormula = new CPUFormulaDVFS(cpuTDP, cpuTDPFactor, systemSensor, frequencyModel);
+			HostMonitor hostMonitor = new HostMonitor(new HostProcessTable(), systemCPUFormula,
+					new DiskFormulasProc(diskReadPower, diskReadRate, diskWritePower, diskWriteRate), new MemoryFormulaProc(memoryReadPower, memoryWritePower));
+			if (heavyHittersCapacity > 0)
+				hostMonitor.setHeavyHitters(new HeavyHitters(heavyHittersCapacity), heavyHittersCommandLine);
+			String ledgerFile = null, rollupsFile = null;
+			if (ledgerInterval > 0) {
+				hostMonitor.setLedger(new EnergyLedger());
+				if (generateLogs) {
+					ledgerFile = userDir + "/host-ledger.csv";
+					rollupsFile = userDir + "/host-rollups.csv";
+					Main.appendToFile(rollupsFile, "", false);
+					Main.startRollups(hostMonitor.getLedger(), ledgerInterval, rollupsFile);
+				}
+			}
+			top(hostMonitor, new TopView(topCount), topInterval, topCount, ledgerFile, rollupsFile);
+			return;
+		}
+
+		if (attachTarget == null && programToMonitor.isEmpty()) {
 			Main.LOGGER.log(Level.SEVERE, "Jolinar requires to set the program to monitor as argument");
 			System.exit(1);
+		} else if (attachTarget != null && !programToMonitor.isEmpty()) {
+			Main.LOGGER.log(Level.SEVERE, "Jolinar either attaches to a running program or launches one, not both");
+			System.exit(1);
+		} else if (attachType != null && cgroupMode) {
+			Main.LOGGER.log(Level.SEVERE, "Jolinar either attaches to a running program or to a cgroup, not both");
+			System.exit(1);
 		}
 
-		// Fill frequencies and voltages map
-		String[] cpuFrequenciesVoltagesArray = cpuFrequenciesVoltages.split(";");
-		Map<Double, Double> frequenciesVoltages = new HashMap<>();
-		Map<Double, Double> frequenciesMap = new HashMap<>();
-		int iArray = 0;
-		while (iArray < cpuFrequenciesVoltagesArray.length) {
-			Double frequency = Double.valueOf(cpuFrequenciesVoltagesArray[iArray]);
-			Double voltage = Double.valueOf(cpuFrequenciesVoltagesArray[iArray+1]);
-			frequenciesVoltages.put(frequency, voltage);
-			frequenciesMap.put(frequency, 0.0);
-			iArray += 2;
-		}
+		// Compile frequencies and voltages model
+		FrequencyModel frequencyModel = FrequencyModel.parse(cpuFrequenciesVoltages);
 
-		// Launch program to monitor from command line
-		Process process = null;
-		try {
-			ProcessBuilder pb = new ProcessBuilder(programToMonitor);
-			// Redirect error stream to output stream
-			pb.redirectErrorStream(true);
-			// Redirect output stream to standard output
-			pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
-			// Start the process
-			process = pb.start();
-
-			if(process.getClass().getName().equals("java.lang.UNIXProcess")) {
-  				/* get the PID on unix/linux systems */
-				try {
-					Field f = process.getClass().getDeclaredField("pid");
-					f.setAccessible(true);
-					appPid = f.getInt(process);
-				} catch (Exception e) {
-					Main.LOGGER.log(Level.WARNING, e.getMessage());
+		final ProcessMonitorsInterface processMonitor;
+		ChildProcessMonitor suspendedMonitor = null;
+		CgroupMonitor cgroupMonitor = null;
+		if (cgroupMode) {
+			// Wait for the cgroup to monitor, checking it at most every 100 ms
+			String cgroupHierarchy = CgroupMonitor.findRoot(cgroupRoot);
+			if (cgroupHierarchy == null) {
+				Main.LOGGER.log(Level.SEVERE, "No cgroup v2 hierarchy found in " + cgroupRoot);
+				System.exit(1);
+			}
+			try {
+				cgroupMonitor = new CgroupMonitor(cgroupHierarchy, attachTarget, Math.min(samplingInterval, 100));
+				cgroupMonitor.awaitTarget();
+				processMonitor = cgroupMonitor;
+			} catch (InterruptedException e) {
+				Main.LOGGER.log(Level.SEVERE, "Interrupted while waiting for cgroup to monitor");
+				System.exit(1);
+				return;
+			}
+		} else if (attachType != null) {
+			// Wait for the process to attach to, checking it at most every 100 ms
+			try {
+				AttachedProcessMonitor attachedMonitor = new AttachedProcessMonitor(attachType, attachTarget, Math.min(samplingInterval, 100));
+				attachedMonitor.awaitTarget();
+				processMonitor = attachedMonitor;
+			} catch (PatternSyntaxException | NumberFormatException e) {
+				Main.LOGGER.log(Level.SEVERE, "Invalid process to attach to: " + e.getMessage());
+				System.exit(1);
+				return;
+			} catch (InterruptedException e) {
+				Main.LOGGER.log(Level.SEVERE, "Interrupted while waiting for process to attach to");
+				System.exit(1);
+				return;
+			}
+		} else {
+			// Launch program to monitor from command line
+			try {
+				// In suspended mode, the program is held before it executes until sensors take their baseline
+				ProcessBuilder pb = new ProcessBuilder(launchSuspended ? ChildProcessMonitor.suspendedCommand(programToMonitor) : programToMonitor);
+				// Redirect error stream to output stream
+				pb.redirectErrorStream(true);
+				// Redirect output stream to standard output
+				pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+				// Start the process
+				ChildProcessMonitor childMonitor = new ChildProcessMonitor(pb.start());
+				if (launchSuspended) {
+					if (!childMonitor.awaitSuspended()) {
+						Main.LOGGER.log(Level.SEVERE, "Cannot launch program to monitor suspended");
+						childMonitor.destroy();
+						System.exit(1);
+					}
+					suspendedMonitor = childMonitor;
 				}
+				processMonitor = childMonitor;
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.SEVERE, "Cannot launch program to monitor: " + e.getMessage());
+				System.exit(1);
+				return;
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		appPid = processMonitor.getPid();
 
+		// Name of the monitored program in log files, its PID or the name of its cgroup
+		String appName = cgroupMonitor != null ? cgroupMonitor.getName() : String.valueOf(appPid);
+
+		if (appPid <= 0 && cgroupMonitor == null) {
+			Main.LOGGER.log(Level.SEVERE, "Cannot get PID of monitored program");
+			// A launched program would otherwise run unmonitored
+			if (processMonitor instanceof ChildProcessMonitor)
+				((ChildProcessMonitor) processMonitor).destroy();
+			System.exit(1);
+		}
 
 		// Run sensors and formulas
 		Main.LOGGER.log(Level.INFO, "Loading energy modules");
+		List<ProcessExitAware> exitAwareSensors = new ArrayList<>();
+
+		// In process tree mode, sensors monitor the program and all its descendants
+		// A cgroup already holds all its processes and their descendants
+		final ProcessTree processTree = processTreeMode && cgroupMonitor == null ? new ProcessTree(appPid) : null;
+		CPUSensorDVFS threadsSensor = null;
+		if (threadGroups != null && (processTree != null || cgroupMonitor != null)) {
+			Main.LOGGER.log(Level.WARNING, "Thread groups are not measured in process tree and cgroup modes");
+			threadGroups = null;
+		}
+		if (cpuAttribution.equals("core") && (processTree != null || cgroupMonitor != null)) {
+			Main.LOGGER.log(Level.WARNING, "Per-core CPU attribution is not available in process tree and cgroup modes, using system attribution");
+			cpuAttribution = "system";
+		}
 
 		if (! OSValidator.isUnix()) {
 			// Only Linux-based systems are supported
@@ -280,72 +592,197 @@ public class Main {
 			// Linux-based systems
 
 			// Run CPU monitoring
-			cpuSensor = new CPUSensorDVFS(appPid, frequenciesMap);
-			cpuFormula = new CPUFormulaDVFS(cpuTDP, cpuTDPFactor, cpuSensor, frequenciesVoltages);
+			if (cgroupMonitor != null) {
+				cpuSensor = new CPUSensorCgroup(cgroupMonitor.getPath(), frequencyModel);
+			} else if (processTree != null) {
+				cpuSensor = new CPUSensorTree(processTree, frequencyModel);
+			} else {
+				CPUSensorDVFS cpuSensorDVFS = new CPUSensorDVFS(appPid, frequencyModel);
+				exitAwareSensors.add(cpuSensorDVFS);
+				cpuSensor = cpuSensorDVFS;
+				if (threadGroups != null) {
+					cpuSensorDVFS.setThreadGroups(threadGroups);
+					threadsSensor = cpuSensorDVFS;
+				}
+				if (cpuAttribution.equals("core"))
+					cpuSensorDVFS.setCoreAttribution();
+				if (cpuTimeSource.equals("schedstat") && !cpuSensorDVFS.useSchedstat())
+					Main.LOGGER.log(Level.CONFIG, "schedstat files unavailable, measuring CPU time in clock ticks");
+			}
+			PlatformSensorsInterface platformSensor = platformSensor(powerSource, platformPaths, hwmonChannels);
+			if (platformSensor != null)
+				cpuFormula = new CPUFormulaPlatform(cpuSensor, new CPUSensorSystem(frequencyModel), platformSensor,
+						Main.idlePower(platformSensor, cpuIdlePower, cpuIdlePowerSource));
+			else if (cpuModelConstant != null)
+				cpuFormula = new CPUFormulaDVFS(Double.valueOf(cpuModelConstant), cpuSensor, frequencyModel);
+			else
+				cpuFormula = new CPUFormulaDVFS(cpuTDP, cpuTDPFactor, cpuSensor, frequencyModel);
 			Main.LOGGER.log(Level.INFO, "CPU...OK");
 
 			// Run disk monitoring
-			diskSensor = new DiskSensorProc(appPid);
+			if (cgroupMonitor != null) {
+				diskSensor = new DiskSensorCgroup(cgroupMonitor.getPath());
+			} else if (processTree != null) {
+				diskSensor = new DiskSensorTree(processTree);
+			} else {
+				DiskSensorProc diskSensorProc = new DiskSensorProc(appPid);
+				exitAwareSensors.add(diskSensorProc);
+				diskSensor = diskSensorProc;
+			}
 			diskFormula = new DiskFormulasProc(diskReadPower, diskReadRate, diskWritePower, diskWriteRate, diskSensor);
 			Main.LOGGER.log(Level.INFO, "Disk...OK");
 
 			// Run memory monitoring
-			memorySensor = new MemorySensorProc(appPid);
-			memoryFormula = new MemoryFormulaProc(memoryReadPower, memoryWritePower, memorySensor);
+			if (cgroupMonitor != null) {
+				memorySensor = new MemorySensorCgroup(cgroupMonitor.getPath());
+			} else if (processTree != null) {
+				memorySensor = new MemorySensorTree(processTree);
+			} else {
+				MemorySensorProc memorySensorProc = new MemorySensorProc(appPid);
+				exitAwareSensors.add(memorySensorProc);
+				memorySensor = memorySensorProc;
+			}
+			RAPLSensorPowercap dramSensor = raplSensor(powerSource, platformPaths[0], RAPLSensorPowercap.DRAM);
+			if (dramSensor != null)
+				memoryFormula = new MemoryFormulaRAPL(memorySensor, dramSensor);
+			else
+				memoryFormula = new MemoryFormulaProc(memoryReadPower, memoryWritePower, memorySensor);
 			Main.LOGGER.log(Level.INFO, "Memory...OK");
 		}
 
 
 		// Start runtime monitoring of application
-		Main.LOGGER.log(Level.INFO, "Started monitoring application with PID " + appPid);
+		if (cgroupMonitor != null)
+			Main.LOGGER.log(Level.INFO, "Started monitoring cgroup " + cgroupMonitor.getPath());
+		else
+			Main.LOGGER.log(Level.INFO, "Started monitoring application with PID " + appPid);
 
-		// Check if monitored program process still exists
-		boolean hasExisted = false;
-		Field fe = null;
-		try {
-			fe = process.getClass().getDeclaredField("hasExited");
-			fe.setAccessible(true);
-			hasExisted = fe.getBoolean(process);
-		} catch (Exception e) {
-			Main.LOGGER.log(Level.WARNING, e.getMessage());
+		// Each subsystem is sampled at its own rate
+		MultiRateScheduler scheduler = new MultiRateScheduler();
+		PowerChannel cpuChannel = null, diskChannel = null, memoryChannel = null;
+		if (cpuFormula != null) {
+			cpuChannel = new PowerChannel("CPU", Main.cpuPowerSource(cpuFormula), cpuSamplingInterval * 1000000L);
+			scheduler.addChannel(cpuChannel);
+		}
+		if (diskFormula != null) {
+			diskChannel = new PowerChannel("Disk", Main.diskPowerSource(diskFormula), diskSamplingInterval * 1000000L);
+			scheduler.addChannel(diskChannel);
+		}
+		if (memoryFormula != null) {
+			memoryChannel = new PowerChannel("Memory", Main.memoryPowerSource(memoryFormula), memorySamplingInterval * 1000000L);
+			scheduler.addChannel(memoryChannel);
 		}
 
-		Double processCPUEnergy = 0.0, processDiskEnergy = 0.0, processMemoryEnergy = 0.0;
-		while (!hasExisted) { // While loop for application cycle
-			Double processCPUPower = 0.0, processDiskPower = 0.0, processMemoryPower = 0.0;
-			processCPUPower = cpuFormula.getCPUPower();
-
-			if (OSValidator.isUnix()) {
-				processDiskPower = diskFormula.getDiskPower();
-				processMemoryPower = memoryFormula.getMemoryPower();
-			}
-			else {
-				processDiskPower = 0.0;
-				processMemoryPower = 0.0;
+		// Adapt sampling period of CPU and disk to the variation of their power and to Jolinar's overhead
+		if (samplingMode.equals("adaptive")) {
+			for (PowerChannel channel : new PowerChannel[] { cpuChannel, diskChannel }) {
+				if (channel != null)
+					channel.setAdaptiveController(new AdaptiveSamplingController(samplingIntervalMin * 1000000L, samplingIntervalMax * 1000000L, samplingOverheadBudget / 100));
 			}
+			Main.LOGGER.log(Level.INFO, "Adaptive sampling between " + samplingIntervalMin + " and " + samplingIntervalMax + " ms, within " + samplingOverheadBudget + "% of one core");
+		}
 
-			// Write power data to file
-			if (generateLogs) {
-				powerData = processCPUPower + ";" + processDiskPower + ";" + processMemoryPower + "\n";
-				Main.appendToFile(userDir + "/" + appPid + "-power.csv", powerData, true);
+		// Discover new child processes before each set of samples, and attribute energy of samples to processes
+		if (processTree != null) {
+			if (heavyHittersCapacity > 0)
+				processTree.setHeavyHitters(new HeavyHitters(heavyHittersCapacity), heavyHittersCommandLine);
+			processTree.setMaxExited(treeExitedProcesses);
+			if (collectorThreads > 0) {
+				TreeCollector collector = new TreeCollector(collectorThreads, collectorDeadline,
+						cpuChannel != null, diskChannel != null, memoryChannel != null);
+				processTree.setCollector(collector);
+				Main.LOGGER.log(Level.INFO, "Reading processes of the tree in parallel on " + collector.describe() + ", within " + collectorDeadline + " ms per tick");
 			}
+			scheduler.setTickListener(new Runnable() {
+				@Override
+				public void run() {
+					processTree.update();
+				}
+			});
+			if (cpuChannel != null)
+				cpuChannel.setSampleListener(Main.treeSampleListener(processTree, ProcessTree.CPU));
+			if (diskChannel != null)
+				diskChannel.setSampleListener(Main.treeSampleListener(processTree, ProcessTree.DISK));
+			if (memoryChannel != null)
+				memoryChannel.setSampleListener(Main.treeSampleListener(processTree, ProcessTree.MEMORY));
+		}
+
+		// Split CPU power of each sample between thread groups
+		double[] threadGroupEnergies = null;
+		if (threadsSensor != null && cpuChannel != null) {
+			threadGroupEnergies = new double[threadGroups.size()];
+			cpuChannel.setSampleListener(Main.threadGroupsSampleListener(threadsSensor, threadGroupEnergies, generateLogs, userDir + "/" + appName + "-threads.csv"));
+		}
 
-			// Calculate energy consumption for each cycle (0.5 seconds)
-			processCPUEnergy += (processCPUPower * 0.5);
-			processDiskEnergy += (processDiskPower * 0.5);
-			processMemoryEnergy += (processMemoryPower * 0.5);
+		// First read of sensors, giving the baseline of the first sampling interval
+		scheduler.start();
 
+		// Release the suspended program, the first interval covers its whole lifetime
+		if (suspendedMonitor != null) {
 			try {
-				Thread.sleep(500); // Sleep for 500 ms
-			} catch (InterruptedException e) {
-				Main.LOGGER.log(Level.WARNING, e.getMessage());
+				suspendedMonitor.resume();
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.SEVERE, e.getMessage());
+				System.exit(1);
 			}
+		}
 
-			try {
-				hasExisted = fe.getBoolean(process);
-			} catch (Exception e) {
-				Main.LOGGER.log(Level.WARNING, e.getMessage());
+		// Wake up the monitoring loop as soon as the monitored program exits
+		final MultiRateScheduler exitScheduler = scheduler;
+		processMonitor.setExitListener(new Runnable() {
+			@Override
+			public void run() {
+				exitScheduler.wakeUp();
 			}
+		});
+		processMonitor.start();
+
+		while (!processMonitor.hasExited()) { // While loop for application cycle
+			// Wait for next due samples, and measure the real interval since previous ones in seconds
+			long intervalNanos = scheduler.awaitNextSamples();
+			if (intervalNanos == 0)
+				continue; // Woken up early, no subsystem sampled
+			double interval = intervalNanos / 1000000000.0;
+
+			// Write power data to file, holding the last power of subsystems not sampled in this interval
+			if (generateLogs) {
+				powerData = getPower(cpuChannel) + ";" + getPower(diskChannel) + ";" + getPower(memoryChannel) + ";" + interval + "\n";
+				Main.appendToFile(userDir + "/" + appName + "-power.csv", powerData, true);
+			}
+
+		}
+
+		// Close the current interval of all subsystems with the final counters of the program
+		for (ProcessExitAware sensor : exitAwareSensors) {
+			sensor.processExited(processMonitor);
+		}
+		double lastInterval = scheduler.sampleAll() / 1000000000.0;
+		ProcFileCache.getDefault().invalidateAll(cgroupMonitor != null ? cgroupMonitor.getPath() + "/" : "/proc/" + appPid + "/");
+		if (generateLogs) {
+			powerData = getPower(cpuChannel) + ";" + getPower(diskChannel) + ";" + getPower(memoryChannel) + ";" + lastInterval + "\n";
+			Main.appendToFile(userDir + "/" + appName + "-power.csv", powerData, true);
+		}
+		if (processMonitor instanceof ChildProcessMonitor)
+			Main.LOGGER.log(Level.INFO, "Application with PID " + appPid + " exited with value " + ((ChildProcessMonitor) processMonitor).getExitValue());
+		else if (cgroupMonitor != null)
+			Main.LOGGER.log(Level.INFO, "Cgroup " + cgroupMonitor.getPath() + " removed");
+		else
+			Main.LOGGER.log(Level.INFO, "Application with PID " + appPid + " exited");
+
+		// Energy integrated by each subsystem over its own measured intervals
+		Double processCPUEnergy = getEnergy(cpuChannel), processDiskEnergy = getEnergy(diskChannel), processMemoryEnergy = getEnergy(memoryChannel);
+
+		DecimalFormat odf = new DecimalFormat("0.00");
+		for (PowerChannel channel : scheduler.getChannels()) {
+			SamplingScheduler channelScheduler = channel.getScheduler();
+			if (channel.getAdaptiveController() != null)
+				Main.LOGGER.log(Level.INFO, channel.getName() + ": " + channelScheduler.getSamples() + " samples, last interval " + (channelScheduler.getPeriod() / 1000000) + " ms, Jolinar overhead " + odf.format(channel.getAdaptiveController().getOverhead() * 100) + "% of one core");
+			else
+				Main.LOGGER.log(Level.INFO, channel.getName() + ": " + channelScheduler.getSamples() + " samples every " + (channelScheduler.getPeriod() / 1000000) + " ms, " + channelScheduler.getMissedTicks() + " missed ticks in " + channelScheduler.getOverruns() + " overruns");
+		}
+		if (processTree != null && processTree.getCollector() != null) {
+			processTree.getCollector().close();
+			Main.LOGGER.log(Level.INFO, "Tree: " + processTree.getCollector().getTicks() + " ticks, " + processTree.getCollector().getStaleReads() + " stale process reads");
 		}
 
 		// Generate energy values and write to file
@@ -353,21 +790,428 @@ public class Main {
 
 		if (generateLogs) {
 			String energyData = processCPUEnergy + ";" + processDiskEnergy + ";" + processMemoryEnergy + "\n";
-			Main.appendToFile(userDir + "/" + appPid + "-energy.csv", energyData, true);
-			Main.LOGGER.log(Level.INFO, "Power and energy data written to files " + appPid + "-power.csv and " + appPid + "-energy.csv in " + userDir);
+			Main.appendToFile(userDir + "/" + appName + "-energy.csv", energyData, true);
+			Main.LOGGER.log(Level.INFO, "Power and energy data written to files " + appName + "-power.csv and " + appName + "-energy.csv in " + userDir);
 		}
 
 		Main.LOGGER.log(Level.INFO, "Estimated energy consumption... CPU: " + df.format(processCPUEnergy) + " joules -- Disk: " + df.format(processDiskEnergy) + " joules -- Memory: " + df.format(processMemoryEnergy) + " joules");
+		Main.printEnergyTable("Estimated energy consumption (Joules):", processCPUEnergy, processDiskEnergy, processMemoryEnergy);
+
+		if (processTree != null)
+			Main.reportProcessTree(processTree, generateLogs, userDir + "/" + appName + "-tree.csv");
+
+		if (threadGroupEnergies != null) {
+			System.out.println("Estimated CPU energy consumption per thread group (Joules):");
+			for (int i = 0; i < threadGroupEnergies.length; i++) {
+				System.out.println(threadGroups.getName(i) + "\t" + df.format(threadGroupEnergies[i]));
+			}
+			System.out.println();
+			if (generateLogs)
+				Main.LOGGER.log(Level.INFO, "CPU power per thread group written to file " + appName + "-threads.csv in " + userDir);
+		}
+	}
+
+	/**
+	 * Print energy consumption by subsystem as a table
+	 * @param title Title of the table
+	 * @param cpuEnergy CPU energy, in joules
+	 * @param diskEnergy Disk energy, in joules
+	 * @param memoryEnergy Memory energy, in joules
+	 */
+	private static void printEnergyTable(String title, double cpuEnergy, double diskEnergy, double memoryEnergy) {
+		DecimalFormat df = new DecimalFormat("0.00");
 		System.out.println();
-		System.out.println("Estimated energy consumption (Joules):");
+		System.out.println(title);
 		System.out.println("----------------------------");
 		System.out.println("|  " + ANSI_BOLD + "CPU" + ANSI_RESET + "   |  " + ANSI_BOLD + "Disk" + ANSI_RESET + "  | " + ANSI_BOLD + "Memory" + ANSI_RESET + " |");
 		System.out.println("----------------------------");
-		System.out.println("|  " + ANSI_BOLD + ANSI_YELLOW + df.format(processCPUEnergy) + ANSI_RESET + "  |  " + ANSI_BOLD + ANSI_YELLOW + df.format(processDiskEnergy) + ANSI_RESET + "  |  " + ANSI_BOLD + ANSI_YELLOW + df.format(processMemoryEnergy) + ANSI_RESET + "  |");
+		System.out.println("|  " + ANSI_BOLD + ANSI_YELLOW + df.format(cpuEnergy) + ANSI_RESET + "  |  " + ANSI_BOLD + ANSI_YELLOW + df.format(diskEnergy) + ANSI_RESET + "  |  " + ANSI_BOLD + ANSI_YELLOW + df.format(memoryEnergy) + ANSI_RESET + "  |");
 		System.out.println("----------------------------");
 		System.out.println();
 	}
 
+	/**
+	 * Show the power of all processes of the host, refreshed until Jolinar is interrupted
+	 * The energy of all processes is reported on exit
+	 * @param hostMonitor Monitor of the processes of the host
+	 * @param view Terminal view of the processes
+	 * @param interval Refresh interval, in milliseconds
+	 * @param count Number of most consuming commands, users and cgroups reported on exit
+	 * @param ledgerFile File to write the energy by user, command and cgroup to on exit, or null if none
+	 * @param rollupsFile File to append the rollup of the last partial interval to on exit, or null if none
+	 */
+	private static void top(final HostMonitor hostMonitor, TopView view, long interval, final int count, final String ledgerFile, final String rollupsFile) {
+		Main.LOGGER.log(Level.INFO, "Reading all processes of the host every " + interval + " ms, interrupt to stop");
+		final SamplingScheduler scheduler = new SamplingScheduler(interval * 1000000L);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// Loggers are already closed by their own shutdown hook
+				Main.printEnergyTable("Estimated energy consumption of all processes (Joules):", hostMonitor.getEnergy(ProcessTree.CPU),
+						hostMonitor.getEnergy(ProcessTree.DISK), hostMonitor.getEnergy(ProcessTree.MEMORY));
+				if (hostMonitor.getHeavyHitters() != null)
+					Main.printHeavyHitters(hostMonitor.getHeavyHitters(), count);
+				if (hostMonitor.getLedger() != null) {
+					Main.printLedger(hostMonitor.getLedger(), count);
+					// Energy since the last periodic rollup would be missing from rollups otherwise
+					if (rollupsFile != null)
+						Main.appendToFile(rollupsFile, hostMonitor.getLedger().rollup(System.currentTimeMillis()), true);
+					if (ledgerFile != null) {
+						Main.appendToFile(ledgerFile, hostMonitor.getLedger().ledger(), false);
+						System.out.println("Energy by user, command and cgroup written to file " + ledgerFile);
+					}
+				}
+			}
+		}));
+
+		hostMonitor.update();
+		while (true) {
+			scheduler.awaitNextSample();
+			hostMonitor.update();
+			view.render(hostMonitor, System.out);
+		}
+	}
+
+	/**
+	 * Calibrate the CPU power model against measured power, with the whole system as workload
+	 * The fitted constant and idle power are saved to the configuration file, for the power model and the measured power
+	 * @param configurationFile Path of the configuration file
+	 * @param frequencyModel Model of CPU frequencies and their voltage
+	 * @param platformSensor Sensor of the measured power, or null if none is available
+	 * @param samplingInterval Sampling interval, in milliseconds
+	 * @param duration Duration of the calibration, in seconds
+	 * @return true if the model was calibrated
+	 */
+	private static boolean calibrate(String configurationFile, FrequencyModel frequencyModel, PlatformSensorsInterface platformSensor, long samplingInterval, long duration) {
+		if (platformSensor == null) {
+			Main.LOGGER.log(Level.SEVERE, "Calibration requires readable RAPL counters, hwmon channels or a discharging battery");
+			return false;
+		}
+
+		// Power of the formula with a constant of 1, for the frequency mix and CPU usage of the whole system
+		CPUFormulaDVFS loadFormula = new CPUFormulaDVFS(1.0, new CPUSensorSystem(frequencyModel), frequencyModel);
+		CPUModelCalibrator calibrator = new CPUModelCalibrator();
+
+		Main.LOGGER.log(Level.INFO, "Calibrating CPU power model for " + duration + " seconds, run workloads of varying intensity meanwhile");
+		loadFormula.getCPUPower();
+		platformSensor.getEnergy();
+		long previousTime = System.nanoTime();
+		long end = previousTime + duration * 1000000000L;
+		try {
+			while (previousTime < end) {
+				Thread.sleep(samplingInterval);
+				double load = loadFormula.getCPUPower();
+				double energy = platformSensor.getEnergy();
+				long time = System.nanoTime();
+				calibrator.addSample(load, energy / ((time - previousTime) / 1000000000.0));
+				previousTime = time;
+			}
+		} catch (InterruptedException e) {
+			Main.LOGGER.log(Level.SEVERE, "Calibration interrupted");
+			return false;
+		}
+
+		if (!calibrator.isFitted() || calibrator.getConstant() <= 0) {
+			Main.LOGGER.log(Level.SEVERE, "CPU load did not vary during calibration, or CPU frequencies are not available");
+			return false;
+		}
+
+		DecimalFormat df = new DecimalFormat("#.##");
+		Main.LOGGER.log(Level.INFO, "Fitted CPU power model over " + calibrator.size() + " samples: idle power " + df.format(calibrator.getIdlePower())
+				+ " W, R squared " + df.format(calibrator.getRSquared()));
+		changeProperty(configurationFile, "cpu-model-constant", String.valueOf(calibrator.getConstant()));
+		changeProperty(configurationFile, "cpu-idle-power", String.valueOf(calibrator.getIdlePower()));
+		changeProperty(configurationFile, "cpu-idle-power-source", platformSourceName(platformSensor));
+		return true;
+	}
+
+	/**
+	 * Create the sensor of the measured CPU power, the first available one allowed by the power source
+	 * In auto mode, RAPL counters are preferred to hwmon channels, and hwmon channels to batteries
+	 * @param powerSource Power source (model, rapl, hwmon, battery or auto)
+	 * @param paths Paths of the powercap, hwmon and power_supply sysfs trees
+	 * @param hwmonChannels hwmon channels to use, or empty to select them automatically
+	 * @return the platform sensor, or null if the power model is used
+	 */
+	private static PlatformSensorsInterface platformSensor(String powerSource, String[] paths, String hwmonChannels) {
+		boolean auto = powerSource.equals("auto");
+		if (powerSource.equals("model"))
+			return null;
+
+		if (auto || powerSource.equals("rapl")) {
+			RAPLSensorPowercap sensor = raplSensor(powerSource, paths[0], RAPLSensorPowercap.PACKAGE);
+			if (sensor != null)
+				return sensor;
+		}
+
+		if (auto || powerSource.equals("hwmon")) {
+			PlatformSensorHwmon sensor = new PlatformSensorHwmon(paths[1], hwmonChannels);
+			if (sensor.isAvailable()) {
+				Main.LOGGER.log(Level.CONFIG, "Measuring CPU power with hwmon channels");
+				return sensor;
+			}
+			Main.LOGGER.log(auto ? Level.CONFIG : Level.WARNING, "No readable hwmon power or energy channel");
+		}
+
+		if (auto || powerSource.equals("battery")) {
+			PlatformSensorBattery sensor = new PlatformSensorBattery(paths[2]);
+			if (sensor.isAvailable()) {
+				Main.LOGGER.log(Level.CONFIG, "Measuring CPU power with the battery discharge of the whole system");
+				return sensor;
+			}
+			Main.LOGGER.log(auto ? Level.CONFIG : Level.WARNING, "No discharging battery");
+		}
+
+		Main.LOGGER.log(auto ? Level.CONFIG : Level.WARNING, "Using the CPU power model");
+		return null;
+	}
+
+	/**
+	 * @param sensor Sensor of the measured power
+	 * @return the power source of the sensor (rapl, hwmon or battery)
+	 */
+	private static String platformSourceName(PlatformSensorsInterface sensor) {
+		if (sensor instanceof RAPLSensorPowercap)
+			return "rapl";
+		return sensor instanceof PlatformSensorHwmon ? "hwmon" : "battery";
+	}
+
+	/**
+	 * Get the idle power subtracted from the measured power of a sensor
+	 * The fitted idle power only applies to the power source it was fitted against
+	 * @param sensor Sensor of the measured power
+	 * @param idlePower Idle power fitted by calibration, in watts
+	 * @param idlePowerSource Power source the idle power was fitted against, empty if unknown
+	 * @return the idle power, or 0 if it was fitted against another power source
+	 */
+	private static double idlePower(PlatformSensorsInterface sensor, double idlePower, String idlePowerSource) {
+		if (idlePower == 0 || idlePowerSource.equals(platformSourceName(sensor)))
+			return idlePower;
+		Main.LOGGER.log(Level.CONFIG, "Idle power not subtracted, as it was fitted against "
+				+ (idlePowerSource.isEmpty() ? "an unknown power source" : "the " + idlePowerSource + " power source"));
+		return 0;
+	}
+
+	/**
+	 * Create the RAPL sensor of a domain if the power source allows it
+	 * @param powerSource Power source (model, rapl, hwmon, battery or auto)
+	 * @param powercapPath Path of the powercap sysfs tree
+	 * @param domain Name of the RAPL domain
+	 * @return the RAPL sensor, or null if the domain is not measured by RAPL
+	 */
+	private static RAPLSensorPowercap raplSensor(String powerSource, String powercapPath, String domain) {
+		if (!powerSource.equals("rapl") && !powerSource.equals("auto"))
+			return null;
+
+		RAPLSensorPowercap sensor = new RAPLSensorPowercap(powercapPath, domain);
+		if (!sensor.isAvailable()) {
+			Main.LOGGER.log(powerSource.equals("rapl") ? Level.WARNING : Level.CONFIG, "RAPL " + domain + " counters unavailable");
+			return null;
+		}
+		Main.LOGGER.log(Level.CONFIG, "Measuring " + domain + " power with RAPL counters");
+		return sensor;
+	}
+
+	/**
+	 * @param sensor CPU sensor measuring thread groups
+	 * @param energies Array to which the energy of each thread group is added
+	 * @param generateLogs Check if logs are enabled
+	 * @param fileName File to write the power of each thread group to, with the interval of each sample
+	 * @return a listener splitting the CPU power of each sample between thread groups
+	 */
+	private static SampleListener threadGroupsSampleListener(final CPUSensorDVFS sensor, final double[] energies, final boolean generateLogs, final String fileName) {
+		return new SampleListener() {
+			@Override
+			public void sampled(PowerChannel channel, double energy, long interval) {
+				double[] shares = sensor.getThreadGroupShares();
+				StringBuilder threadsData = new StringBuilder();
+				for (int i = 0; i < energies.length; i++) {
+					energies[i] += energy * shares[i];
+					threadsData.append(channel.getPower() * shares[i]).append(';');
+				}
+				if (generateLogs) {
+					threadsData.append(interval / 1000000000.0).append('\n');
+					Main.appendToFile(fileName, threadsData.toString(), true);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Report the energy consumption of each process of a tree
+	 * The most consuming processes are displayed, and all processes are written to file if logs are enabled
+	 * @param tree Tree of processes
+	 * @param generateLogs Check if logs are enabled
+	 * @param fileName File to write the energy consumption of all processes to
+	 */
+	private static void reportProcessTree(ProcessTree tree, boolean generateLogs, String fileName) {
+		List<ProcessTree.Member> members = tree.getMembersByEnergy();
+		DecimalFormat df = new DecimalFormat("0.00");
+
+		System.out.println("Estimated energy consumption per process (Joules), " + (members.size() + tree.getFoldedCount()) + " processes:");
+		System.out.println("PID\tCPU\tDisk\tMemory\tCommand");
+		for (int i = 0; i < Math.min(members.size(), 10); i++) {
+			ProcessTree.Member member = members.get(i);
+			System.out.println(member.getPid() + "\t" + df.format(member.getEnergy(ProcessTree.CPU)) + "\t" + df.format(member.getEnergy(ProcessTree.DISK)) + "\t" + df.format(member.getEnergy(ProcessTree.MEMORY)) + "\t" + member.getName());
+		}
+		if (members.size() > 10)
+			System.out.println("... " + (members.size() - 10) + " more processes");
+		if (tree.getFoldedCount() > 0)
+			System.out.println("-\t" + df.format(tree.getFoldedEnergy(ProcessTree.CPU)) + "\t" + df.format(tree.getFoldedEnergy(ProcessTree.DISK)) + "\t" + df.format(tree.getFoldedEnergy(ProcessTree.MEMORY)) + "\t" + tree.getFoldedCount() + " exited processes, folded");
+		System.out.println();
+
+		if (generateLogs) {
+			StringBuilder treeData = new StringBuilder();
+			for (ProcessTree.Member member : members) {
+				treeData.append(member.getPid()).append(';').append(member.getParentPid()).append(';').append(member.getName()).append(';')
+						.append(member.getEnergy(ProcessTree.CPU)).append(';').append(member.getEnergy(ProcessTree.DISK)).append(';').append(member.getEnergy(ProcessTree.MEMORY)).append('\n');
+			}
+			// Folded processes are written with PID 0
+			if (tree.getFoldedCount() > 0)
+				treeData.append(0).append(';').append(0).append(';').append(tree.getFoldedCount()).append(" exited processes, folded").append(';')
+						.append(tree.getFoldedEnergy(ProcessTree.CPU)).append(';').append(tree.getFoldedEnergy(ProcessTree.DISK)).append(';').append(tree.getFoldedEnergy(ProcessTree.MEMORY)).append('\n');
+			Main.appendToFile(fileName, treeData.toString(), false);
+			Main.LOGGER.log(Level.INFO, "Energy data per process written to file " + fileName);
+		}
+
+		if (tree.getHeavyHitters() != null)
+			Main.printHeavyHitters(tree.getHeavyHitters(), 10);
+	}
+
+	/**
+	 * Write the energy of each user, command and cgroup since the previous rollup to a file, periodically
+	 * @param ledger Energy by user, command and cgroup
+	 * @param interval Interval between two rollups, in seconds
+	 * @param fileName File to append rollups to
+	 */
+	private static void startRollups(final EnergyLedger ledger, final long interval, final String fileName) {
+		Thread rollups = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(interval * 1000);
+					} catch (InterruptedException e) {
+						return;
+					}
+					Main.appendToFile(fileName, ledger.rollup(System.currentTimeMillis()), true);
+				}
+			}
+		}, "jolinar-rollups");
+		rollups.setDaemon(true);
+		rollups.start();
+		Main.LOGGER.log(Level.INFO, "Energy by user, command and cgroup written to file " + fileName + " every " + interval + " seconds");
+	}
+
+	/**
+	 * Print the energy of the most consuming users, commands and cgroups
+	 * @param ledger Energy by user, command and cgroup
+	 * @param count Maximum number of users, commands and cgroups printed
+	 */
+	private static void printLedger(EnergyLedger ledger, int count) {
+		DecimalFormat df = new DecimalFormat("0.00");
+		for (int dimension : new int[] { EnergyLedger.USER, EnergyLedger.COMMAND, EnergyLedger.CGROUP }) {
+			List<EnergyLedger.Account> accounts = ledger.getAccounts(dimension);
+			if (accounts.isEmpty())
+				continue;
+			System.out.println("Estimated energy consumption per " + EnergyLedger.getDimensionName(dimension) + " (Joules), " + accounts.size() + " " + EnergyLedger.getDimensionName(dimension) + "s:");
+			System.out.println("CPU\tDisk\tMemory\tTotal\t" + EnergyLedger.getDimensionName(dimension));
+			for (int i = 0; i < Math.min(accounts.size(), count); i++) {
+				EnergyLedger.Account account = accounts.get(i);
+				System.out.println(df.format(account.getEnergy(ProcessTree.CPU)) + "\t" + df.format(account.getEnergy(ProcessTree.DISK)) + "\t"
+						+ df.format(account.getEnergy(ProcessTree.MEMORY)) + "\t" + df.format(account.getTotalEnergy()) + "\t" + account.getKey());
+			}
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Print the approximate energy of the most consuming commands, with its error
+	 * The true energy of a command is between its energy minus its error and its energy
+	 * @param heavyHitters Approximate energy of the most consuming commands
+	 * @param count Maximum number of commands printed
+	 */
+	private static void printHeavyHitters(HeavyHitters heavyHitters, int count) {
+		DecimalFormat df = new DecimalFormat("0.00");
+		System.out.println("Most consuming commands (Joules), out of " + df.format(heavyHitters.getTotalEnergy()) + " joules:");
+		System.out.println("Energy\tError\tCommand");
+		for (HeavyHitters.Counter counter : heavyHitters.getTop(count)) {
+			System.out.println(df.format(counter.getEnergy()) + "\t" + df.format(counter.getError()) + "\t" + counter.getKey());
+		}
+		if (heavyHitters.getMaxUncountedEnergy() > 0)
+			System.out.println("Commands not tracked consumed at most " + df.format(heavyHitters.getMaxUncountedEnergy()) + " joules each");
+		System.out.println();
+	}
+
+	/**
+	 * @param tree Tree of processes
+	 * @param subsystem Subsystem of the channel (ProcessTree.CPU, DISK or MEMORY)
+	 * @return a listener attributing the energy of each sample of the channel to the processes of tree
+	 */
+	private static SampleListener treeSampleListener(final ProcessTree tree, final int subsystem) {
+		return new SampleListener() {
+			@Override
+			public void sampled(PowerChannel channel, double energy, long interval) {
+				tree.attributeEnergy(subsystem, energy);
+			}
+		};
+	}
+
+	/**
+	 * @param formula CPU formula
+	 * @return a power source reading the CPU power of formula
+	 */
+	private static PowerSource cpuPowerSource(final CPUFormulasInterface formula) {
+		return new PowerSource() {
+			@Override
+			public double getPower() {
+				return formula.getCPUPower();
+			}
+		};
+	}
+
+	/**
+	 * @param formula Disk formula
+	 * @return a power source reading the disk power of formula
+	 */
+	private static PowerSource diskPowerSource(final DiskFormulasInterface formula) {
+		return new PowerSource() {
+			@Override
+			public double getPower() {
+				return formula.getDiskPower();
+			}
+		};
+	}
+
+	/**
+	 * @param formula Memory formula
+	 * @return a power source reading the memory power of formula
+	 */
+	private static PowerSource memoryPowerSource(final MemoryFormulasInterface formula) {
+		return new PowerSource() {
+			@Override
+			public double getPower() {
+				return formula.getMemoryPower();
+			}
+		};
+	}
+
+	/**
+	 * @param channel Power channel, or null if the subsystem is not monitored
+	 * @return the last power of channel, 0 if not monitored
+	 */
+	private static double getPower(PowerChannel channel) {
+		return channel == null ? 0.0 : channel.getPower();
+	}
+
+	/**
+	 * @param channel Power channel, or null if the subsystem is not monitored
+	 * @return the energy of channel, 0 if not monitored
+	 */
+	private static double getEnergy(PowerChannel channel) {
+		return channel == null ? 0.0 : channel.getEnergy();
+	}
+
 	/**
 	 * Append string to file
 	 * @param fileName filename to add string to
@@ -11,9 +11,7 @@
 package jolinar.formulas.cpu;
 
 import jolinar.sensors.cpu.CPUSensorsInterface;
-
-import java.util.HashMap;
-import java.util.Map;
+import jolinar.sensors.cpu.FrequencyModel;
 
 public class CPUFormulaDVFS implements CPUFormulasInterface {
 
@@ -34,94 +32,78 @@ public class CPUFormulaDVFS implements CPUFormulasInterface {
 	private CPUSensorsInterface cpuSensor;
 
 	/**
-	 * The map of CPU frequencies and the corresponding CPU voltage
-	 * <Frequency, Voltage>
+	 * The model of CPU frequencies and their corresponding CPU voltage
 	 */
-	private Map<Double, Double> frequenciesVoltages;
+	private FrequencyModel frequencyModel;
 
 	/**
-	 * Array with the maximum frequency and voltage supported by CPU
+	 * The power consumption of each CPU frequency, by frequency ordinal
+	 * Computed once, as the frequencies and voltages never change
 	 */
-	private Double[] frequencyVoltageMax;
-
-	/**
-	 * The map of CPU frequencies and their relevant CPU time
-	 */
-	private Map<Double, Double> frequenciesTimes;
-
-	/**
-	 * The map of CPU frequencies and their power consumption
-	 */
-	private Map<Double, Double> frequenciesPower;
+	private double[] frequenciesPower;
 
 	/**
 	 * Constructor
 	 * @param TDP The TDP of the CPU
 	 * @param TDPFactor The TDP factor of the CMOS formula
 	 * @param cpuSensor The CPU sensor
-	 * @param frequenciesVoltages Map of CPU frequencies and their voltage
+	 * @param frequencyModel Model of CPU frequencies and their voltage
 	 */
-	public CPUFormulaDVFS(double TDP, double TDPFactor, CPUSensorsInterface cpuSensor, Map<Double, Double> frequenciesVoltages) {
+	public CPUFormulaDVFS(double TDP, double TDPFactor, CPUSensorsInterface cpuSensor, FrequencyModel frequencyModel) {
 		this.TDP = TDP;
 		this.TDPFactor = TDPFactor;
 		this.cpuSensor = cpuSensor;
-		this.frequenciesVoltages = frequenciesVoltages;
-		this.frequenciesTimes = new HashMap<Double, Double>();
-		this.frequenciesPower = new HashMap<Double, Double>();
-		this.compute();
+		this.frequencyModel = frequencyModel;
+		this.frequenciesPower = new double[frequencyModel.size()];
+
+		int max = this.frequencyModel.getMaxOrdinal();
+		if (max >= 0) {
+			// (TDP * TDPFactor) / (FrequencyMax * VoltageMax^2)
+			this.compute((this.TDP * this.TDPFactor) / (this.frequencyModel.getFrequency(max) * Math.pow(this.frequencyModel.getVoltage(max), 2)));
+		}
 	}
 
-	private void compute() {
-		this.frequencyVoltageMax = this.getMaxFrequencyVoltage();
+	/**
+	 * Constructor with a calibrated constant of the CMOS formula, instead of the TDP heuristic
+	 * @param constant Power of the CPU at full usage per unit of frequency times voltage squared
+	 * @param cpuSensor The CPU sensor
+	 * @param frequencyModel Model of CPU frequencies and their voltage
+	 */
+	public CPUFormulaDVFS(double constant, CPUSensorsInterface cpuSensor, FrequencyModel frequencyModel) {
+		this.cpuSensor = cpuSensor;
+		this.frequencyModel = frequencyModel;
+		this.frequenciesPower = new double[frequencyModel.size()];
+		this.compute(constant);
 	}
 
 	/**
-	 * Calculate the maximum frenquency and voltage of the CPU
-	 * @return an array with 0 the maximum frequency and 1 the maximum voltage
+	 * Calculate the power consumption of each frequency with the CMOS formula
+	 * @param constant Power per unit of frequency times voltage squared
 	 */
-	private Double[] getMaxFrequencyVoltage() {
-		Double frequency = 0.0, voltage = 0.0;
-		Double[] result = new Double[2];
-		for (Map.Entry<Double, Double> entry : this.frequenciesVoltages.entrySet()) {
-			if (entry.getKey() > frequency) {
-				frequency = entry.getKey();
-				voltage = entry.getValue();
-			}
+	private void compute(double constant) {
+		for (int i = 0; i <= this.frequencyModel.getMaxOrdinal(); i++) {
+			this.frequenciesPower[i] = constant * this.frequencyModel.getFrequency(i) * Math.pow(this.frequencyModel.getVoltage(i), 2);
 		}
-		result[0] = frequency;
-		result[1] = voltage;
-		return result;
 	}
 
 	@Override
 	public double getCPUPower() {
-		// (TDP * TDPFactor) / (FrequencyMax * VoltageMax^2)
-		double constant = (this.TDP * this.TDPFactor) / (this.frequencyVoltageMax[0] * Math.pow(this.frequencyVoltageMax[1], 2));
-
-		Double powerFrequency;
-		for (Map.Entry<Double, Double> entry : this.frequenciesVoltages.entrySet()) {
-			powerFrequency = constant * entry.getKey() * (Math.pow(entry.getValue(), 2));
-			this.frequenciesPower.put(entry.getKey(), powerFrequency);
-		}
-
-		// Fill or get from sensors the frequencies times
-		this.frequenciesTimes= this.cpuSensor.getTimeInFrequencies();
-		double totalTimes = 0.0;
-		for (Map.Entry<Double, Double> entry : this.frequenciesTimes.entrySet()) {
-			totalTimes += entry.getValue();
-		}
-
-		// Total power
-		double totalPower = 0.0;
-		for (Map.Entry<Double, Double> entry : this.frequenciesPower.entrySet()) {
-			totalPower += entry.getValue() * this.frequenciesTimes.get(entry.getKey());
+		// Get from sensors the process usage, then the frequencies times of the cores it used
+		double processUsage = this.cpuSensor.getProcessCPUUsagePercentage();
+		double[] frequenciesTimes = this.cpuSensor.getTimeInFrequencies();
+
+		// Total power, as a dot product of frequencies power and times
+		double totalTimes = 0.0, totalPower = 0.0;
+		for (int i = 0; i < this.frequenciesPower.length; i++) {
+			totalTimes += frequenciesTimes[i];
+			totalPower += this.frequenciesPower[i] * frequenciesTimes[i];
 		}
 
 		// Power CPU
 		if (totalPower == 0)
 			return 0;
 		else
-			return (totalPower / totalTimes) * this.cpuSensor.getProcessCPUUsagePercentage();
+			return (totalPower / totalTimes) * processUsage;
 	}
 
-}
\ No newline at end of file
+}
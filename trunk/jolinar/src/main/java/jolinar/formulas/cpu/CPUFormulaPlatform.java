@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.formulas.cpu;
+
+import jolinar.sensors.cpu.CPUSensorsInterface;
+import jolinar.sensors.platform.PlatformSensorsInterface;
+
+/**
+ * CPU power measured by a platform sensor, such as RAPL package counters, hwmon channels or a battery
+ * The measured power above the idle power of the CPU is apportioned to the process by its share of the CPU time
+ * used by all processes, so that a process alone on the machine gets all of the power drawn by its usage
+ */
+public class CPUFormulaPlatform implements CPUFormulasInterface {
+
+	/**
+	 * The CPU sensor used to collect the process usage
+	 */
+	private CPUSensorsInterface cpuSensor;
+
+	/**
+	 * The sensor of the measured power
+	 */
+	private PlatformSensorsInterface platformSensor;
+
+	/**
+	 * The CPU sensor of the whole system, used to apportion power
+	 */
+	private CPUSensorsInterface systemSensor;
+
+	/**
+	 * Power of the CPU at no load, in watts, not apportioned to processes
+	 */
+	private double idlePower;
+
+	/**
+	 * Time of the previous call, in nanoseconds
+	 */
+	private long previousTime;
+
+	/**
+	 * Check if power has already been computed or not
+	 */
+	private boolean firstRun;
+
+	/**
+	 * Constructor
+	 * @param cpuSensor The CPU sensor
+	 * @param systemSensor The CPU sensor of the whole system
+	 * @param platformSensor The sensor of the measured power
+	 * @param idlePower Power of the CPU at no load, in watts, as fitted by calibration, or 0 to apportion all of the measured power
+	 */
+	public CPUFormulaPlatform(CPUSensorsInterface cpuSensor, CPUSensorsInterface systemSensor, PlatformSensorsInterface platformSensor, double idlePower) {
+		this.cpuSensor = cpuSensor;
+		this.systemSensor = systemSensor;
+		this.platformSensor = platformSensor;
+		this.idlePower = Math.max(idlePower, 0);
+		this.firstRun = true;
+	}
+
+	@Override
+	public double getCPUPower() {
+		double processUsage = this.cpuSensor.getProcessCPUUsagePercentage();
+		double energy = this.platformSensor.getEnergy();
+		long time = System.nanoTime();
+
+		double systemUsage = this.systemSensor.getProcessCPUUsagePercentage();
+		long timeDiff = time - this.previousTime;
+		this.previousTime = time;
+
+		if (this.firstRun) {
+			this.firstRun = false;
+			return 0;
+		}
+		if (systemUsage <= 0 || timeDiff <= 0)
+			return 0;
+
+		// Share of the process in the CPU usage of the system, both relative to all cores
+		double share = Math.min(processUsage / systemUsage, 1.0);
+		return Math.max(energy / (timeDiff / 1000000000.0) - this.idlePower, 0) * share;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.formulas.cpu;
+
+/**
+ * Calibrator of the CMOS formula of CPUFormulaDVFS against measured CPU power
+ * Fits power = idle + constant * load by least squares, where load is the power of the formula with a constant of 1,
+ * that is the frequency times voltage squared of the frequency mix times the CPU usage of the system
+ * The fit is incremental: samples update running means and co-moments, and are not kept
+ */
+public class CPUModelCalibrator {
+
+	/**
+	 * Number of samples
+	 */
+	private long count;
+
+	/**
+	 * Running means of load and power
+	 */
+	private double meanLoad, meanPower;
+
+	/**
+	 * Running sums of squared deviations of load and power, and of their products
+	 */
+	private double loadDeviations, powerDeviations, coDeviations;
+
+	/**
+	 * Add a sample
+	 * @param load Load of the sample, the power of the formula with a constant of 1
+	 * @param power Measured CPU power of the sample, in watts
+	 */
+	public void addSample(double load, double power) {
+		this.count++;
+		double loadDeviation = load - this.meanLoad;
+		double powerDeviation = power - this.meanPower;
+		this.meanLoad += loadDeviation / this.count;
+		this.meanPower += powerDeviation / this.count;
+
+		// Deviations from the previous and the updated means, as in Welford's algorithm
+		this.loadDeviations += loadDeviation * (load - this.meanLoad);
+		this.powerDeviations += powerDeviation * (power - this.meanPower);
+		this.coDeviations += loadDeviation * (power - this.meanPower);
+	}
+
+	/**
+	 * @return the number of samples
+	 */
+	public long size() {
+		return this.count;
+	}
+
+	/**
+	 * @return true if the load varied across samples, so that the constant can be fitted
+	 */
+	public boolean isFitted() {
+		return this.count >= 2 && this.loadDeviations > 0;
+	}
+
+	/**
+	 * @return the fitted constant of the formula, in watts per unit of load
+	 */
+	public double getConstant() {
+		return this.isFitted() ? this.coDeviations / this.loadDeviations : 0.0;
+	}
+
+	/**
+	 * @return the fitted power at no load, in watts
+	 */
+	public double getIdlePower() {
+		return this.isFitted() ? this.meanPower - this.getConstant() * this.meanLoad : this.meanPower;
+	}
+
+	/**
+	 * @return the coefficient of determination of the fit, between 0 and 1
+	 */
+	public double getRSquared() {
+		if (!this.isFitted() || this.powerDeviations <= 0)
+			return 0.0;
+		return (this.coDeviations * this.coDeviations) / (this.loadDeviations * this.powerDeviations);
+	}
+
+}
@@ -30,6 +30,12 @@ public class DiskFormulasProc implements DiskFormulasInterface {
 	 */
 	private DiskSensorsInterface diskSensor;
 
+	/**
+	 * Time of the previous sensor read, in System.nanoTime() time
+	 * 0 before the first read
+	 */
+	private long previousTime;
+
 	/**
 	 * Constructor
 	 * @param diskReadPower Disk read power
@@ -44,15 +50,46 @@ public class DiskFormulasProc implements DiskFormulasInterface {
 		this.diskWritePower = diskWritePower;
 		this.diskWriteRate = diskWriteRate;
 		this.diskSensor = diskSensor;
+		this.powerPerReadByte = diskReadPower / (diskReadRate * 1000000);
+		this.powerPerWriteByte = diskWritePower / (diskWriteRate * 1000000);
+	}
+
+	/**
+	 * Constructor of a formula applied to bytes read by other means than a disk sensor
+	 * @param diskReadPower Disk read power
+	 * @param diskReadRate Disk read rate
+	 * @param diskWritePower Disk write power
+	 * @param diskWriteRate Disk write rate
+	 */
+	public DiskFormulasProc(Double diskReadPower, Double diskReadRate, Double diskWritePower, Double diskWriteRate) {
+		this(diskReadPower, diskReadRate, diskWritePower, diskWriteRate, null);
 	}
 
 	@Override
 	public double getDiskPower() {
-		this.powerPerReadByte = this.diskReadPower / (this.diskReadRate * 1000000);
-		this.powerPerWriteByte = this.diskWritePower / (this.diskWriteRate * 1000000);
-
 		Double[] readWriteBytes = this.diskSensor.getProcesDiskReadWriteBytes();
-		return (readWriteBytes[0] * this.powerPerReadByte) + (readWriteBytes[1] * this.powerPerWriteByte);
+		long now = System.nanoTime();
+		double interval = (now - this.previousTime) / 1000000000.0;
+		boolean firstRun = this.previousTime == 0;
+		this.previousTime = now;
+
+		if (firstRun)
+			return 0;
+		return this.getPower(readWriteBytes[0], readWriteBytes[1], interval);
+	}
+
+	/**
+	 * Calculate the disk power of bytes read and written during an interval
+	 * @param readBytes Bytes read during the interval
+	 * @param writeBytes Bytes written during the interval
+	 * @param interval Duration of the interval, in seconds
+	 * @return the disk power, in watts
+	 */
+	public double getPower(double readBytes, double writeBytes, double interval) {
+		// Bytes times power per byte rate is the energy spent during the interval
+		if (interval <= 0)
+			return 0;
+		return ((readBytes * this.powerPerReadByte) + (writeBytes * this.powerPerWriteByte)) / interval;
 	}
 
 }
\ No newline at end of file
@@ -38,9 +38,27 @@ public class MemoryFormulaProc implements MemoryFormulasInterface {
 		this.memorySensor = memorySensor;
 	}
 
+	/**
+	 * Constructor of a formula applied to memory percentages read by other means than a memory sensor
+	 * @param memoryReadPower Memory read power
+	 * @param memoryWritePower Memory write power
+	 */
+	public MemoryFormulaProc(Double memoryReadPower, Double memoryWritePower) {
+		this(memoryReadPower, memoryWritePower, null);
+	}
+
 	@Override
 	public double getMemoryPower() {
-		return (this.memoryPower * this.memorySensor.getProcesMemoryPercentage());
+		return this.getPower(this.memorySensor.getProcesMemoryPercentage());
+	}
+
+	/**
+	 * Calculate the memory power of a percentage of memory
+	 * @param memoryPercentage Percentage of memory, between 0 and 1
+	 * @return the memory power, in watts
+	 */
+	public double getPower(double memoryPercentage) {
+		return (this.memoryPower * memoryPercentage);
 	}
 
 }
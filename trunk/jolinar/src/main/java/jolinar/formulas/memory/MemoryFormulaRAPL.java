@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.formulas.memory;
+
+import jolinar.sensors.memory.MemorySensorsInterface;
+import jolinar.sensors.platform.PlatformSensorsInterface;
+
+/**
+ * Memory power measured by the RAPL DRAM counters
+ * The measured power is apportioned to the process by its share of physical memory
+ */
+public class MemoryFormulaRAPL implements MemoryFormulasInterface {
+
+	/**
+	 * Memory sensor
+	 */
+	private MemorySensorsInterface memorySensor;
+
+	/**
+	 * The RAPL sensor of the DRAM domain
+	 */
+	private PlatformSensorsInterface raplSensor;
+
+	/**
+	 * Time of the previous call, in nanoseconds, 0 before the first call
+	 */
+	private long previousTime;
+
+	/**
+	 * Constructor
+	 * @param memorySensor Memory sensor
+	 * @param raplSensor The RAPL sensor of the DRAM domain
+	 */
+	public MemoryFormulaRAPL(MemorySensorsInterface memorySensor, PlatformSensorsInterface raplSensor) {
+		this.memorySensor = memorySensor;
+		this.raplSensor = raplSensor;
+	}
+
+	@Override
+	public double getMemoryPower() {
+		double memoryShare = this.memorySensor.getProcesMemoryPercentage();
+		double energy = this.raplSensor.getEnergy();
+		long time = System.nanoTime();
+
+		long timeDiff = time - this.previousTime;
+		boolean firstRun = this.previousTime == 0;
+		this.previousTime = time;
+		if (firstRun || timeDiff <= 0)
+			return 0;
+
+		return energy / (timeDiff / 1000000000.0) * memoryShare;
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.hardware;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the bundled CPU profiles, by model number
+ * CPU model names are looked up by their groups of one to three words, longest first,
+ * so that e5-2680 v4 is found in "Intel(R) Xeon(R) CPU E5-2680 v4 @ 2.40GHz"
+ */
+public final class CPUProfileIndex {
+
+	/**
+	 * Resource of the bundled CPU profiles
+	 */
+	private static final String PROFILES_RESOURCE = "/jolinar/cpu-profiles.csv";
+
+	/**
+	 * Maximum number of words of a model number
+	 */
+	private static final int MAX_WORDS = 3;
+
+	/**
+	 * A CPU profile
+	 */
+	public static final class CPUProfile {
+
+		/**
+		 * Model number, in lower case
+		 */
+		private final String model;
+
+		/**
+		 * TDP of one package, in watts
+		 */
+		private final double tdp;
+
+		/**
+		 * Frequencies of the voltage curve in kHz, in ascending order, and their voltage
+		 */
+		private final long[] frequencies;
+		private final double[] voltages;
+
+		private CPUProfile(String model, double tdp, long[] frequencies, double[] voltages) {
+			this.model = model;
+			this.tdp = tdp;
+			this.frequencies = frequencies;
+			this.voltages = voltages;
+		}
+
+		/**
+		 * @return the model number, in lower case
+		 */
+		public String getModel() {
+			return this.model;
+		}
+
+		/**
+		 * @return the TDP of one package, in watts
+		 */
+		public double getTDP() {
+			return this.tdp;
+		}
+
+		/**
+		 * Get the voltage of a frequency, interpolated linearly on the voltage curve
+		 * and taken at the nearest end of the curve outside of it
+		 * @param frequency Frequency in kHz
+		 * @return the voltage of the frequency
+		 */
+		public double getVoltage(long frequency) {
+			int last = this.frequencies.length - 1;
+			if (frequency <= this.frequencies[0])
+				return this.voltages[0];
+			if (frequency >= this.frequencies[last])
+				return this.voltages[last];
+
+			int upper = 1;
+			while (this.frequencies[upper] < frequency) {
+				upper++;
+			}
+			double weight = (double) (frequency - this.frequencies[upper - 1]) / (this.frequencies[upper] - this.frequencies[upper - 1]);
+			return this.voltages[upper - 1] + weight * (this.voltages[upper] - this.voltages[upper - 1]);
+		}
+	}
+
+	/**
+	 * Profiles by model number
+	 */
+	private final Map<String, CPUProfile> profiles;
+
+	/**
+	 * Constructor
+	 * @param profiles Profiles by model number
+	 */
+	private CPUProfileIndex(Map<String, CPUProfile> profiles) {
+		this.profiles = profiles;
+	}
+
+	/**
+	 * Load the bundled CPU profiles
+	 * @return the index of the bundled profiles
+	 * @throws IOException if the profiles cannot be read or are malformed
+	 */
+	public static CPUProfileIndex load() throws IOException {
+		InputStream stream = CPUProfileIndex.class.getResourceAsStream(PROFILES_RESOURCE);
+		if (stream == null)
+			throw new IOException("Missing CPU profiles " + PROFILES_RESOURCE);
+		try {
+			return load(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Load CPU profiles
+	 * @param stream Profiles, one per line, in the format model;tdp;frequency:voltage,frequency:voltage
+	 * @return the index of the profiles
+	 * @throws IOException if the profiles cannot be read or are malformed
+	 */
+	public static CPUProfileIndex load(InputStream stream) throws IOException {
+		Map<String, CPUProfile> profiles = new HashMap<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+		String line;
+		int number = 0;
+		while ((line = reader.readLine()) != null) {
+			number++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			try {
+				String[] fields = line.split(";");
+				String[] points = fields[2].split(",");
+				long[] frequencies = new long[points.length];
+				double[] voltages = new double[points.length];
+				for (int i = 0; i < points.length; i++) {
+					String[] point = points[i].split(":");
+					frequencies[i] = Long.parseLong(point[0].trim());
+					voltages[i] = Double.parseDouble(point[1].trim());
+				}
+				String model = normalize(fields[0]);
+				profiles.put(model, new CPUProfile(model, Double.parseDouble(fields[1].trim()), frequencies, voltages));
+			} catch (RuntimeException e) {
+				throw new IOException("Malformed CPU profile at line " + number + ": " + line);
+			}
+		}
+		return new CPUProfileIndex(profiles);
+	}
+
+	/**
+	 * Look up the profile of a CPU
+	 * @param modelName Model name of the CPU, such as Intel(R) Core(TM) i7-8650U CPU @ 1.90GHz
+	 * @return the profile of the CPU, or null if it is not in the index
+	 */
+	public CPUProfile lookup(String modelName) {
+		String[] words = normalize(modelName).split(" ");
+		for (int length = Math.min(MAX_WORDS, words.length); length > 0; length--) {
+			for (int start = 0; start + length <= words.length; start++) {
+				StringBuilder key = new StringBuilder(words[start]);
+				for (int i = start + 1; i < start + length; i++) {
+					key.append(' ').append(words[i]);
+				}
+				CPUProfile profile = this.profiles.get(key.toString());
+				if (profile != null)
+					return profile;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param modelName Model name or model number
+	 * @return the name in lower case, without trademarks and clock speed, with words separated by single spaces
+	 */
+	private static String normalize(String modelName) {
+		String result = modelName.toLowerCase();
+		int at = result.indexOf('@');
+		if (at >= 0)
+			result = result.substring(0, at);
+		return result.replace("(r)", " ").replace("(tm)", " ").trim().replaceAll("\\s+", " ");
+	}
+
+	/**
+	 * @return the number of profiles
+	 */
+	public int size() {
+		return this.profiles.size();
+	}
+
+}
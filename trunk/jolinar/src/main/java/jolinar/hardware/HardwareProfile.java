@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.hardware;
+
+import jolinar.Main;
+import jolinar.sensors.cpu.TimeInStateReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+/**
+ * Hardware data of the machine, discovered from sysfs and procfs
+ * The CPU is looked up in the bundled CPU profiles for its TDP and voltage curve,
+ * its frequencies are read from cpufreq, the disk is the one holding the root file system,
+ * and memory power is estimated from the installed memory
+ * Fields that cannot be resolved get a default value and are listed, so that they can be set by hand
+ */
+public class HardwareProfile {
+
+	/**
+	 * Typical power in watts and rate in MB/s of reads and writes of each type of disk
+	 */
+	private static final double[] HDD = { 6.0, 150, 6.0, 140 };
+	private static final double[] SSD = { 2.5, 500, 3.0, 450 };
+	private static final double[] NVME = { 5.0, 2500, 6.0, 1800 };
+
+	/**
+	 * Typical power of memory per GB, in watts, for reads and writes
+	 */
+	private static final double MEMORY_POWER_PER_GB = 0.375;
+
+	/**
+	 * Step between frequencies when only the minimum and maximum frequencies are known, in kHz
+	 */
+	private static final long FREQUENCY_STEP = 100000;
+
+	/**
+	 * Voltage assumed for all frequencies when the CPU has no profile
+	 */
+	private static final double DEFAULT_VOLTAGE = 1.0;
+
+	/**
+	 * TDP per core assumed when the CPU has no profile, in watts
+	 */
+	private static final double DEFAULT_TDP_PER_CORE = 10.0;
+
+	/**
+	 * Frequency assumed when no frequency of the CPU is known, in kHz
+	 */
+	private static final long DEFAULT_FREQUENCY = 2000000;
+
+	/**
+	 * Discovered hardware data
+	 */
+	private String cpuModel;
+	private int packages, cores, threads;
+	private double cpuTDP;
+	private String cpuFrequenciesVoltages;
+	private String disk;
+	private double diskReadPower, diskReadRate, diskWritePower, diskWriteRate;
+	private double memoryReadPower, memoryWritePower;
+
+	/**
+	 * Fields that could not be resolved, with the reason
+	 */
+	private List<String> unresolved;
+
+	/**
+	 * Root of sysfs and procfs
+	 */
+	private String sysPath, procPath;
+
+	/**
+	 * Constructor
+	 * @param sysPath Root of sysfs, such as /sys
+	 * @param procPath Root of procfs, such as /proc
+	 */
+	private HardwareProfile(String sysPath, String procPath) {
+		this.sysPath = sysPath;
+		this.procPath = procPath;
+		this.unresolved = new ArrayList<>();
+	}
+
+	/**
+	 * Discover the hardware of the machine
+	 * @return the hardware profile
+	 */
+	public static HardwareProfile discover() {
+		return discover("/sys", "/proc");
+	}
+
+	/**
+	 * Discover the hardware of the machine
+	 * @param sysPath Root of sysfs, such as /sys
+	 * @param procPath Root of procfs, such as /proc
+	 * @return the hardware profile
+	 */
+	public static HardwareProfile discover(String sysPath, String procPath) {
+		HardwareProfile profile = new HardwareProfile(sysPath, procPath);
+		profile.discoverTopology();
+		profile.discoverCPU();
+		profile.discoverDisk();
+		profile.discoverMemory();
+		return profile;
+	}
+
+	/**
+	 * Count packages, cores and threads of online CPUs
+	 */
+	private void discoverTopology() {
+		String cpuPath = this.sysPath + "/devices/system/cpu";
+		List<Integer> cpus = TimeInStateReader.readCPUList(cpuPath + "/online");
+		Set<String> packageIds = new HashSet<>(), coreIds = new HashSet<>();
+		for (int cpu : cpus) {
+			String packageId = readString(cpuPath + "/cpu" + cpu + "/topology/physical_package_id");
+			String coreId = readString(cpuPath + "/cpu" + cpu + "/topology/core_id");
+			packageIds.add(packageId == null ? "0" : packageId);
+			coreIds.add((packageId == null ? "0" : packageId) + ":" + (coreId == null ? cpu : coreId));
+		}
+
+		this.threads = cpus.isEmpty() ? Runtime.getRuntime().availableProcessors() : cpus.size();
+		this.cores = coreIds.isEmpty() ? this.threads : coreIds.size();
+		this.packages = Math.max(packageIds.size(), 1);
+	}
+
+	/**
+	 * Discover the CPU model, its frequencies and their voltage, and its TDP
+	 */
+	private void discoverCPU() {
+		this.cpuModel = this.readCPUInfo("model name");
+		CPUProfileIndex.CPUProfile profile = null;
+		if (this.cpuModel != null) {
+			try {
+				profile = CPUProfileIndex.load().lookup(this.cpuModel);
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.WARNING, e.getMessage());
+			}
+		}
+		if (profile != null) {
+			this.cpuTDP = profile.getTDP() * this.packages;
+		} else {
+			// A TDP of zero would give no CPU power at all
+			this.cpuTDP = DEFAULT_TDP_PER_CORE * this.cores;
+			String reason = this.cpuModel == null ? "CPU model name not found in " + this.procPath + "/cpuinfo" : "CPU " + this.cpuModel + " is not in the bundled CPU profiles";
+			this.unresolved.add("cpu-tdp: " + reason + ", " + this.cpuTDP + " W assumed for " + this.cores + " cores, set it with -tdp");
+		}
+
+		List<Long> frequencies = this.readFrequencies();
+		if (frequencies.isEmpty()) {
+			// An empty frequency model would give no CPU power at all
+			long frequency = this.readCPUInfoFrequency();
+			frequencies.add(frequency > 0 ? frequency : DEFAULT_FREQUENCY);
+			this.unresolved.add("cpu-frequencies-voltages: CPU frequencies not found in cpufreq, "
+					+ (frequency > 0 ? "current frequency of " + this.procPath + "/cpuinfo" : DEFAULT_FREQUENCY + " kHz") + " used as the only frequency");
+		}
+		if (profile == null)
+			this.unresolved.add("cpu-frequencies-voltages: voltages unknown, " + DEFAULT_VOLTAGE + " V assumed for all frequencies");
+
+		StringBuilder result = new StringBuilder();
+		for (long frequency : frequencies) {
+			double voltage = profile == null ? DEFAULT_VOLTAGE : profile.getVoltage(frequency);
+			result.append(frequency).append(';').append(String.format(Locale.ROOT, "%.4f", voltage)).append(';');
+		}
+		this.cpuFrequenciesVoltages = result.toString();
+	}
+
+	/**
+	 * Read the frequencies of the first CPU, from its available frequencies
+	 * or else in steps between its minimum and maximum frequencies, as with intel_pstate
+	 * @return the frequencies in kHz, in ascending order, empty if unknown
+	 */
+	private List<Long> readFrequencies() {
+		String cpufreqPath = this.sysPath + "/devices/system/cpu/cpu0/cpufreq";
+		TreeSet<Long> result = new TreeSet<>();
+
+		String available = readString(cpufreqPath + "/scaling_available_frequencies");
+		if (available != null && !available.isEmpty()) {
+			for (String frequency : available.split("\\s+")) {
+				result.add(Long.valueOf(frequency));
+			}
+			return new ArrayList<>(result);
+		}
+
+		String min = readString(cpufreqPath + "/cpuinfo_min_freq");
+		String max = readString(cpufreqPath + "/cpuinfo_max_freq");
+		if (max != null) {
+			long maxFrequency = Long.parseLong(max);
+			for (long frequency = min == null ? maxFrequency : Long.parseLong(min); frequency < maxFrequency; frequency += FREQUENCY_STEP) {
+				result.add(frequency);
+			}
+			result.add(maxFrequency);
+		}
+		return new ArrayList<>(result);
+	}
+
+	/**
+	 * Read the current frequency of the first processor in cpuinfo
+	 * Example of line: cpu MHz		: 2394.454
+	 * @return the frequency in kHz, rounded to the MHz, or 0 if unknown
+	 */
+	private long readCPUInfoFrequency() {
+		String mhz = this.readCPUInfo("cpu MHz");
+		try {
+			return mhz == null ? 0 : Math.round(Double.parseDouble(mhz)) * 1000;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param key Key of a line of the first processor in cpuinfo, such as model name
+	 * @return the value of the line, or null if not found
+	 */
+	private String readCPUInfo(String key) {
+		try {
+			for (String line : Files.readAllLines(Paths.get(this.procPath + "/cpuinfo"), StandardCharsets.UTF_8)) {
+				int colon = line.indexOf(':');
+				if (colon > 0 && line.substring(0, colon).trim().equals(key))
+					return line.substring(colon + 1).trim();
+			}
+		} catch (IOException e) {
+			// No cpuinfo
+		}
+		return null;
+	}
+
+	/**
+	 * Discover the type of the disk holding the root file system, and take typical power and rates of its type
+	 */
+	private void discoverDisk() {
+		this.disk = this.findRootDisk();
+		double[] values;
+		if (this.disk == null) {
+			this.unresolved.add("disk-*: no physical disk found, typical SSD values used, set them with -drp, -drr, -dwp and -dwr");
+			values = SSD;
+		} else if (this.disk.startsWith("nvme")) {
+			values = NVME;
+		} else if (this.disk.startsWith("vd") || this.disk.startsWith("xvd")) {
+			this.unresolved.add("disk-*: " + this.disk + " is a virtual disk, typical SSD values used, set them with -drp, -drr, -dwp and -dwr");
+			values = SSD;
+		} else {
+			values = "1".equals(readString(this.sysPath + "/block/" + this.disk + "/queue/rotational")) ? HDD : SSD;
+		}
+		this.diskReadPower = values[0];
+		this.diskReadRate = values[1];
+		this.diskWritePower = values[2];
+		this.diskWriteRate = values[3];
+	}
+
+	/**
+	 * Find the disk holding the root file system, through partitions and device mapper or RAID devices
+	 * @return the name of the disk in /sys/block, or the first physical disk if the root disk is not found, or null
+	 */
+	private String findRootDisk() {
+		try {
+			// Example of line: 28 1 254:0 / / rw,relatime - ext4 /dev/vda rw
+			for (String line : Files.readAllLines(Paths.get(this.procPath + "/self/mountinfo"), StandardCharsets.UTF_8)) {
+				String[] fields = line.split(" ");
+				if (fields.length > 4 && fields[4].equals("/")) {
+					String disk = this.resolveDisk(new File(this.sysPath + "/dev/block/" + fields[2]));
+					if (disk != null)
+						return disk;
+				}
+			}
+		} catch (IOException e) {
+			// No mountinfo
+		}
+
+		String[] disks = new File(this.sysPath + "/block").list();
+		if (disks == null)
+			return null;
+		Arrays.sort(disks);
+		for (String disk : disks) {
+			if (!disk.matches("(loop|ram|zram|nbd|sr|dm-|md).*"))
+				return disk;
+		}
+		return null;
+	}
+
+	/**
+	 * @param device Device directory in sysfs
+	 * @return the name of the disk holding the device, or null if it is not a block device
+	 */
+	private String resolveDisk(File device) throws IOException {
+		if (!device.exists())
+			return null;
+		File directory = device.getCanonicalFile();
+		if (new File(directory, "partition").exists())
+			directory = directory.getParentFile();
+
+		// Device mapper and RAID devices are made of other devices
+		String[] slaves = new File(directory, "slaves").list();
+		if (slaves != null && slaves.length > 0) {
+			Arrays.sort(slaves);
+			return this.resolveDisk(new File(directory, "slaves/" + slaves[0]));
+		}
+		return directory.getName();
+	}
+
+	/**
+	 * Estimate memory power from the installed memory
+	 */
+	private void discoverMemory() {
+		double memoryGB = 0;
+		try {
+			for (String line : Files.readAllLines(Paths.get(this.procPath + "/meminfo"), StandardCharsets.US_ASCII)) {
+				// Example of line: MemTotal:        8043504 kB
+				if (line.startsWith("MemTotal:"))
+					memoryGB = Long.parseLong(line.replaceAll("[^0-9]", "")) / 1048576.0;
+			}
+		} catch (IOException | NumberFormatException e) {
+			// No meminfo
+		}
+
+		if (memoryGB <= 0) {
+			this.unresolved.add("memory-*: installed memory not found in " + this.procPath + "/meminfo, 8 GB assumed");
+			memoryGB = 8;
+		}
+		this.memoryReadPower = Math.round(memoryGB * MEMORY_POWER_PER_GB * 100) / 100.0;
+		this.memoryWritePower = this.memoryReadPower;
+	}
+
+	/**
+	 * @param path Path of a file
+	 * @return the trimmed content of the file, or null if it cannot be read
+	 */
+	private static String readString(String path) {
+		try {
+			return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Set the hardware data in configuration properties
+	 * @param prop Configuration properties
+	 */
+	public void store(Properties prop) {
+		prop.setProperty("cpu-tdp", String.valueOf(this.cpuTDP));
+		prop.setProperty("cpu-frequencies-voltages", this.cpuFrequenciesVoltages);
+		prop.setProperty("disk-read-power", String.valueOf(this.diskReadPower));
+		prop.setProperty("disk-read-rate", String.valueOf(this.diskReadRate));
+		prop.setProperty("disk-write-power", String.valueOf(this.diskWritePower));
+		prop.setProperty("disk-write-rate", String.valueOf(this.diskWriteRate));
+		prop.setProperty("memory-read-power", String.valueOf(this.memoryReadPower));
+		prop.setProperty("memory-write-power", String.valueOf(this.memoryWritePower));
+	}
+
+	/**
+	 * @return a one line description of the discovered hardware
+	 */
+	public String describe() {
+		return (this.cpuModel == null ? "Unknown CPU" : this.cpuModel) + ", " + this.packages + " package(s), " + this.cores + " cores, "
+				+ this.threads + " threads, disk " + (this.disk == null ? "unknown" : this.disk);
+	}
+
+	/**
+	 * @return the fields that could not be resolved, with the reason, empty if all were resolved
+	 */
+	public List<String> getUnresolved() {
+		return this.unresolved;
+	}
+
+}
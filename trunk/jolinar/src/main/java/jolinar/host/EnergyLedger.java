@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.host;
+
+import jolinar.process.ProcessTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Energy of the processes of the host, rolled up by user, by command name and by cgroup as it is measured
+ * Each account holds its energy since start and since the last rollup, in atomic accumulators updated without locks,
+ * so that rollups are read from another thread while processes are updated
+ * The cost of adding energy depends on the number of accounts, never on the number of samples
+ */
+public class EnergyLedger {
+
+	/**
+	 * Dimensions of accounts
+	 */
+	public static final int USER = 0;
+	public static final int COMMAND = 1;
+	public static final int CGROUP = 2;
+	private static final String[] DIMENSION_NAMES = { "user", "command", "cgroup" };
+
+	/**
+	 * Energy of a user, a command or a cgroup
+	 */
+	public static class Account {
+
+		/**
+		 * User name, command name or cgroup path
+		 */
+		private String key;
+
+		/**
+		 * Energy of each subsystem since start, in joules, as bits of doubles
+		 */
+		private AtomicLong[] energies;
+
+		/**
+		 * Energy of each subsystem since the last rollup, in joules, as bits of doubles
+		 */
+		private AtomicLong[] periodEnergies;
+
+		/**
+		 * Constructor
+		 * @param key User name, command name or cgroup path
+		 */
+		private Account(String key) {
+			this.key = key;
+			this.energies = new AtomicLong[3];
+			this.periodEnergies = new AtomicLong[3];
+			for (int i = 0; i < this.energies.length; i++) {
+				this.energies[i] = new AtomicLong();
+				this.periodEnergies[i] = new AtomicLong();
+			}
+		}
+
+		/**
+		 * Add energy to a subsystem
+		 * @param subsystem Subsystem (ProcessTree.CPU, DISK or MEMORY)
+		 * @param energy Energy, in joules
+		 */
+		private void add(int subsystem, double energy) {
+			if (energy == 0)
+				return;
+			EnergyLedger.addAtomically(this.energies[subsystem], energy);
+			EnergyLedger.addAtomically(this.periodEnergies[subsystem], energy);
+		}
+
+		/**
+		 * @return the user name, command name or cgroup path
+		 */
+		public String getKey() {
+			return this.key;
+		}
+
+		/**
+		 * @param subsystem Subsystem (ProcessTree.CPU, DISK or MEMORY)
+		 * @return the energy of the subsystem since start, in joules
+		 */
+		public double getEnergy(int subsystem) {
+			return Double.longBitsToDouble(this.energies[subsystem].get());
+		}
+
+		/**
+		 * @return the energy of all subsystems since start, in joules
+		 */
+		public double getTotalEnergy() {
+			return this.getEnergy(ProcessTree.CPU) + this.getEnergy(ProcessTree.DISK) + this.getEnergy(ProcessTree.MEMORY);
+		}
+	}
+
+	/**
+	 * Accounts of each dimension, by key
+	 */
+	private List<ConcurrentMap<String, Account>> accounts;
+
+	/**
+	 * User names, by UID
+	 */
+	private UserNames userNames;
+
+	/**
+	 * Constructor
+	 */
+	public EnergyLedger() {
+		this.accounts = new ArrayList<>();
+		for (int i = 0; i < DIMENSION_NAMES.length; i++) {
+			this.accounts.add(new ConcurrentHashMap<String, Account>());
+		}
+		this.userNames = new UserNames();
+	}
+
+	/**
+	 * Add the energy of a process in an update to the accounts of its user, command and cgroup
+	 * @param entry Process
+	 * @param cpuEnergy CPU energy, in joules
+	 * @param diskEnergy Disk energy, in joules
+	 * @param memoryEnergy Memory energy, in joules
+	 */
+	public void add(HostProcessTable.Entry entry, double cpuEnergy, double diskEnergy, double memoryEnergy) {
+		String[] keys = { this.userNames.get(entry.getUid()), entry.getName(), entry.getCgroup() };
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null)
+				continue;
+			Account account = this.getAccount(i, keys[i]);
+			account.add(ProcessTree.CPU, cpuEnergy);
+			account.add(ProcessTree.DISK, diskEnergy);
+			account.add(ProcessTree.MEMORY, memoryEnergy);
+		}
+	}
+
+	/**
+	 * @param dimension Dimension (USER, COMMAND or CGROUP)
+	 * @param key User name, command name or cgroup path
+	 * @return the account of the key, created if needed
+	 */
+	private Account getAccount(int dimension, String key) {
+		ConcurrentMap<String, Account> dimensionAccounts = this.accounts.get(dimension);
+		Account account = dimensionAccounts.get(key);
+		if (account == null) {
+			Account newAccount = new Account(key);
+			account = dimensionAccounts.putIfAbsent(key, newAccount);
+			if (account == null)
+				account = newAccount;
+		}
+		return account;
+	}
+
+	/**
+	 * @param dimension Dimension (USER, COMMAND or CGROUP)
+	 * @return the accounts of the dimension, by decreasing energy since start
+	 */
+	public List<Account> getAccounts(int dimension) {
+		List<Account> result = new ArrayList<>(this.accounts.get(dimension).values());
+		Collections.sort(result, new Comparator<Account>() {
+			@Override
+			public int compare(Account a1, Account a2) {
+				return Double.compare(a2.getTotalEnergy(), a1.getTotalEnergy());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @param dimension Dimension (USER, COMMAND or CGROUP)
+	 * @return the name of the dimension
+	 */
+	public static String getDimensionName(int dimension) {
+		return DIMENSION_NAMES[dimension];
+	}
+
+	/**
+	 * Take the energy of accounts since the last rollup, and start a new period
+	 * Energy added while the rollup is taken goes to this rollup or to the next one, but is never lost
+	 * @param time Time of the rollup, in milliseconds since epoch
+	 * @return lines of accounts with energy in the period, as: time;dimension;key;CPU;disk;memory, with keys quoted if needed
+	 */
+	public String rollup(long time) {
+		StringBuilder result = new StringBuilder();
+		double[] energies = new double[3];
+		for (int i = 0; i < DIMENSION_NAMES.length; i++) {
+			for (Account account : this.accounts.get(i).values()) {
+				boolean used = false;
+				for (int j = 0; j < energies.length; j++) {
+					energies[j] = Double.longBitsToDouble(account.periodEnergies[j].getAndSet(0));
+					used |= energies[j] != 0;
+				}
+				if (used)
+					result.append(time).append(';').append(DIMENSION_NAMES[i]).append(';').append(csvField(account.key)).append(';')
+							.append(energies[0]).append(';').append(energies[1]).append(';').append(energies[2]).append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return lines of all accounts with their energy since start, as: dimension;key;CPU;disk;memory, with keys quoted if needed
+	 */
+	public String ledger() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < DIMENSION_NAMES.length; i++) {
+			for (Account account : this.getAccounts(i)) {
+				result.append(DIMENSION_NAMES[i]).append(';').append(csvField(account.key)).append(';').append(account.getEnergy(ProcessTree.CPU)).append(';')
+						.append(account.getEnergy(ProcessTree.DISK)).append(';').append(account.getEnergy(ProcessTree.MEMORY)).append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Quote a key for a CSV line, as command names and cgroup paths may hold separators, quotes or line breaks
+	 * @param key User name, command name or cgroup path
+	 * @return the key, between double quotes with its quotes doubled if it holds any of these characters
+	 */
+	private static String csvField(String key) {
+		if (key.indexOf(';') < 0 && key.indexOf('"') < 0 && key.indexOf('\n') < 0 && key.indexOf('\r') < 0)
+			return key;
+		return '"' + key.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Add a value to a double stored as bits in an atomic long, retrying if another thread changed it meanwhile
+	 * @param accumulator Double stored as bits
+	 * @param value Value to add
+	 */
+	private static void addAtomically(AtomicLong accumulator, double value) {
+		while (true) {
+			long current = accumulator.get();
+			long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value);
+			if (accumulator.compareAndSet(current, next))
+				return;
+		}
+	}
+
+}
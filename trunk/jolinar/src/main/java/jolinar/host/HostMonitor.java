@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.host;
+
+import jolinar.formulas.cpu.CPUFormulasInterface;
+import jolinar.formulas.disk.DiskFormulasProc;
+import jolinar.formulas.memory.MemoryFormulaProc;
+import jolinar.process.HeavyHitters;
+import jolinar.process.ProcessTree;
+import jolinar.scheduler.AdaptiveSamplingController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Monitor of the power of all the processes of the host
+ * System-wide data, /proc/stat and CPU frequencies, is read once per update by a formula of the CPU power
+ * of the whole system, which is shared between processes by their CPU time
+ * Disk and memory formulas are applied in bulk to the counters of each process
+ */
+public class HostMonitor {
+
+	/**
+	 * Table of the processes of the host
+	 */
+	private HostProcessTable table;
+
+	/**
+	 * Formula of the CPU power of the whole system
+	 */
+	private CPUFormulasInterface systemCPUFormula;
+
+	/**
+	 * Formulas applied to the counters of each process
+	 */
+	private DiskFormulasProc diskFormula;
+	private MemoryFormulaProc memoryFormula;
+
+	/**
+	 * Power of each subsystem for all processes in the last update, in watts
+	 */
+	private double[] powers;
+
+	/**
+	 * Energy of each subsystem for all processes since the first update, in joules
+	 */
+	private double[] energies;
+
+	/**
+	 * Time of the previous update, in System.nanoTime() time, 0 before the first update
+	 */
+	private long previousTime;
+
+	/**
+	 * CPU time used by Jolinar at the previous update, in nanoseconds
+	 */
+	private long previousCPUTime;
+
+	/**
+	 * Share of one core used by Jolinar since the previous update, between 0 and 1
+	 */
+	private double overhead;
+
+	/**
+	 * Approximate energy of the most consuming commands, or null if not tracked
+	 */
+	private HeavyHitters heavyHitters;
+
+	/**
+	 * Check if commands are tracked by command line, or else by executable name
+	 */
+	private boolean commandLineKeys;
+
+	/**
+	 * Energy by user, command and cgroup, or null if not accounted
+	 */
+	private EnergyLedger ledger;
+
+	/**
+	 * Constructor
+	 * @param table Table of the processes of the host
+	 * @param systemCPUFormula Formula of the CPU power of the whole system
+	 * @param diskFormula Formula of the disk power of bytes read and written
+	 * @param memoryFormula Formula of the memory power of a share of memory
+	 */
+	public HostMonitor(HostProcessTable table, CPUFormulasInterface systemCPUFormula, DiskFormulasProc diskFormula, MemoryFormulaProc memoryFormula) {
+		this.table = table;
+		this.systemCPUFormula = systemCPUFormula;
+		this.diskFormula = diskFormula;
+		this.memoryFormula = memoryFormula;
+		this.powers = new double[3];
+		this.energies = new double[3];
+	}
+
+	/**
+	 * Read the counters of all processes and compute their power since the previous update
+	 * The first update gives the baseline of counters, with no power
+	 */
+	public void update() {
+		double systemCPUPower = this.systemCPUFormula.getCPUPower();
+		this.table.update();
+		long now = System.nanoTime();
+		long cpuTime = AdaptiveSamplingController.getCPUTime();
+		boolean firstRun = this.previousTime == 0;
+		double interval = (now - this.previousTime) / 1000000000.0;
+		this.overhead = firstRun ? 0 : (double) (cpuTime - this.previousCPUTime) / (now - this.previousTime);
+		this.previousTime = now;
+		this.previousCPUTime = cpuTime;
+		if (firstRun)
+			return;
+
+		List<HostProcessTable.Entry> entries = this.table.getLiveEntries();
+		long totalCPUDiff = 0;
+		for (HostProcessTable.Entry entry : entries) {
+			totalCPUDiff += entry.getCPUDiff();
+		}
+
+		// CPU power of the system is shared by the CPU time of processes, as processes exited since the previous update are not read
+		double cpuPowerPerTick = totalCPUDiff > 0 ? systemCPUPower / totalCPUDiff : 0;
+		double totalMemory = this.table.getTotalMemory();
+		double cpuPower = 0, diskPower = 0, memoryPower = 0;
+		for (HostProcessTable.Entry entry : entries) {
+			double pidCPUPower = entry.getCPUDiff() * cpuPowerPerTick;
+			double pidDiskPower = this.diskFormula.getPower(entry.getReadDiff(), entry.getWriteDiff(), interval);
+			double pidMemoryPower = totalMemory > 0 ? this.memoryFormula.getPower(entry.getMemory() / totalMemory) : 0;
+			entry.setPowers(pidCPUPower, pidDiskPower, pidMemoryPower, interval);
+			if (this.heavyHitters != null)
+				this.heavyHitters.add(this.commandLineKeys ? entry.getCommandLine() : entry.getName(), (pidCPUPower + pidDiskPower + pidMemoryPower) * interval);
+			if (this.ledger != null)
+				this.ledger.add(entry, pidCPUPower * interval, pidDiskPower * interval, pidMemoryPower * interval);
+			cpuPower += pidCPUPower;
+			diskPower += pidDiskPower;
+			memoryPower += pidMemoryPower;
+		}
+
+		this.powers[ProcessTree.CPU] = cpuPower;
+		this.powers[ProcessTree.DISK] = diskPower;
+		this.powers[ProcessTree.MEMORY] = memoryPower;
+		for (int i = 0; i < this.powers.length; i++) {
+			this.energies[i] += this.powers[i] * interval;
+		}
+	}
+
+	/**
+	 * Track the energy of the most consuming commands, which is kept once their processes exit
+	 * @param heavyHitters Approximate energy of the most consuming commands
+	 * @param commandLineKeys Check if commands are tracked by command line, or else by executable name
+	 */
+	public void setHeavyHitters(HeavyHitters heavyHitters, boolean commandLineKeys) {
+		this.heavyHitters = heavyHitters;
+		this.commandLineKeys = commandLineKeys;
+	}
+
+	/**
+	 * @return the approximate energy of the most consuming commands, or null if not tracked
+	 */
+	public HeavyHitters getHeavyHitters() {
+		return this.heavyHitters;
+	}
+
+	/**
+	 * Account the energy of processes by user, command and cgroup, to be set before the first update
+	 * @param ledger Energy by user, command and cgroup
+	 */
+	public void setLedger(EnergyLedger ledger) {
+		this.ledger = ledger;
+		this.table.setReadCgroups(true);
+	}
+
+	/**
+	 * @return the energy by user, command and cgroup, or null if not accounted
+	 */
+	public EnergyLedger getLedger() {
+		return this.ledger;
+	}
+
+	/**
+	 * @return the running processes, by decreasing power in the last update
+	 */
+	public List<HostProcessTable.Entry> getEntriesByPower() {
+		List<HostProcessTable.Entry> result = new ArrayList<>(this.table.getLiveEntries());
+		Collections.sort(result, new Comparator<HostProcessTable.Entry>() {
+			@Override
+			public int compare(HostProcessTable.Entry e1, HostProcessTable.Entry e2) {
+				return Double.compare(e2.getTotalPower(), e1.getTotalPower());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @param subsystem Subsystem (ProcessTree.CPU, DISK or MEMORY)
+	 * @return the power of the subsystem for all processes in the last update, in watts
+	 */
+	public double getPower(int subsystem) {
+		return this.powers[subsystem];
+	}
+
+	/**
+	 * @param subsystem Subsystem (ProcessTree.CPU, DISK or MEMORY)
+	 * @return the energy of the subsystem for all processes since the first update, in joules
+	 */
+	public double getEnergy(int subsystem) {
+		return this.energies[subsystem];
+	}
+
+	/**
+	 * @return the number of running processes
+	 */
+	public int size() {
+		return this.table.getLiveEntries().size();
+	}
+
+	/**
+	 * @return the share of one core used by Jolinar since the previous update, between 0 and 1
+	 */
+	public double getOverhead() {
+		return this.overhead;
+	}
+
+}
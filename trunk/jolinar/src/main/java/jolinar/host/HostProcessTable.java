@@ -0,0 +1,623 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.host;
+
+import jolinar.Main;
+import jolinar.process.HeavyHitters;
+import jolinar.process.ProcessTree;
+import jolinar.sensors.proc.ProcFileCache;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Table of all the processes of the host, with their CPU time, disk bytes and memory since the previous update
+ * Each update lists /proc and reads the stat file of processes, which gives their CPU time, resident set size
+ * and start time at once, and the io file of those that ran, when readable
+ * Sleeping processes are read in turns, a fraction of them on each update, which bounds the cost of hosts with many idle processes
+ * Processes are identified by their PID and start time, so a reused PID is taken for a new process,
+ * and only new processes have their command name and owner read
+ */
+public class HostProcessTable {
+
+	/**
+	 * Type of the entry of the auxiliary vector holding the size of memory pages
+	 */
+	private static final long AT_PAGESZ = 6;
+
+	/**
+	 * Period of the reads of the cgroup of running processes, in updates
+	 * A process moved to another cgroup is charged to its previous cgroup until its cgroup is read again
+	 */
+	private static final int CGROUP_READ_PERIOD = 8;
+
+	/**
+	 * Size of memory pages used when it cannot be read, in bytes
+	 */
+	private static final long DEFAULT_PAGE_SIZE = 4096;
+
+	/**
+	 * Prefix of the line of meminfo holding the total memory
+	 */
+	private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Prefix of the line of limits holding the limit of open files
+	 */
+	private static final String MAX_OPEN_FILES = "Max open files";
+
+	/**
+	 * Minimum number of file handles kept open between updates
+	 */
+	private static final int MIN_OPEN_FILES = 256;
+
+	/**
+	 * Number of file handles kept open per running process, for its stat and io files with room for new processes
+	 */
+	private static final int OPEN_FILES_PER_PROCESS = 3;
+
+	/**
+	 * Number of updates without CPU time after which a process is considered sleeping
+	 */
+	private static final int IDLE_UPDATES = 2;
+
+	/**
+	 * Sleeping processes are read once every this number of updates, in turns by PID
+	 */
+	private static final int IDLE_READ_PERIOD = 4;
+
+	/**
+	 * Number of power values kept in the history of each process
+	 */
+	public static final int HISTORY_SIZE = 16;
+
+	/**
+	 * A process of the host
+	 */
+	public static class Entry {
+
+		/**
+		 * PID and owner of the process
+		 */
+		private int pid, uid;
+
+		/**
+		 * Start time of the process, in clock ticks after boot
+		 */
+		private long startTime;
+
+		/**
+		 * Command name of the process
+		 */
+		private String name;
+
+		/**
+		 * Command line of the process, read on first use
+		 */
+		private String commandLine;
+
+		/**
+		 * Cgroup v2 path of the process, or null if not read
+		 */
+		private String cgroup;
+
+		/**
+		 * Check if the cgroup of the process was read again since it was found
+		 */
+		private boolean cgroupChecked;
+
+		/**
+		 * Last CPU time, in clock ticks, and last bytes read and written
+		 */
+		private long cpuTime, readBytes, writeBytes;
+
+		/**
+		 * CPU time, bytes read and bytes written since the previous update
+		 */
+		private long cpuDiff, readDiff, writeDiff;
+
+		/**
+		 * Resident set size, in bytes
+		 */
+		private long memory;
+
+		/**
+		 * Check if the io file of the process can be read, which requires to own the process
+		 */
+		private boolean ioReadable;
+
+		/**
+		 * Number of the last update in which the process was found
+		 */
+		private long generation;
+
+		/**
+		 * Number of consecutive updates in which the process used no CPU time
+		 */
+		private int idleUpdates;
+
+		/**
+		 * Power of each subsystem in the last update, in watts
+		 */
+		private double[] powers;
+
+		/**
+		 * Energy of all subsystems since the process was found, in joules
+		 */
+		private double energy;
+
+		/**
+		 * Last total powers, as a ring starting at historyIndex
+		 */
+		private double[] history;
+		private int historyIndex;
+
+		/**
+		 * Constructor
+		 * @param pid PID of the process
+		 * @param startTime Start time of the process
+		 */
+		private Entry(int pid, long startTime) {
+			this.pid = pid;
+			this.startTime = startTime;
+			this.ioReadable = true;
+			this.powers = new double[3];
+			this.history = new double[HISTORY_SIZE];
+		}
+
+		/**
+		 * Set the power of each subsystem in the last update, and integrate it into energy
+		 * @param cpuPower CPU power, in watts
+		 * @param diskPower Disk power, in watts
+		 * @param memoryPower Memory power, in watts
+		 * @param interval Duration of the update, in seconds
+		 */
+		void setPowers(double cpuPower, double diskPower, double memoryPower, double interval) {
+			this.powers[ProcessTree.CPU] = cpuPower;
+			this.powers[ProcessTree.DISK] = diskPower;
+			this.powers[ProcessTree.MEMORY] = memoryPower;
+			double power = cpuPower + diskPower + memoryPower;
+			this.energy += power * interval;
+			this.history[this.historyIndex] = power;
+			this.historyIndex = (this.historyIndex + 1) % HISTORY_SIZE;
+		}
+
+		/**
+		 * @return the PID of the process
+		 */
+		public int getPid() {
+			return this.pid;
+		}
+
+		/**
+		 * @return the UID of the owner of the process
+		 */
+		public int getUid() {
+			return this.uid;
+		}
+
+		/**
+		 * @return the command name of the process
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the command line of the process, or its command name if it has none
+		 */
+		public String getCommandLine() {
+			if (this.commandLine == null)
+				this.commandLine = HeavyHitters.readCommandLine(this.pid, this.name);
+			return this.commandLine;
+		}
+
+		/**
+		 * @return the cgroup v2 path of the process when it was last read, or null if cgroups are not read
+		 */
+		public String getCgroup() {
+			return this.cgroup;
+		}
+
+		/**
+		 * @return the CPU time since the previous update, in clock ticks
+		 */
+		public long getCPUDiff() {
+			return this.cpuDiff;
+		}
+
+		/**
+		 * @return the bytes read since the previous update
+		 */
+		public long getReadDiff() {
+			return this.readDiff;
+		}
+
+		/**
+		 * @return the bytes written since the previous update
+		 */
+		public long getWriteDiff() {
+			return this.writeDiff;
+		}
+
+		/**
+		 * @return the resident set size, in bytes
+		 */
+		public long getMemory() {
+			return this.memory;
+		}
+
+		/**
+		 * @param subsystem Subsystem (ProcessTree.CPU, DISK or MEMORY)
+		 * @return the power of the subsystem in the last update, in watts
+		 */
+		public double getPower(int subsystem) {
+			return this.powers[subsystem];
+		}
+
+		/**
+		 * @return the power of all subsystems in the last update, in watts
+		 */
+		public double getTotalPower() {
+			return this.powers[ProcessTree.CPU] + this.powers[ProcessTree.DISK] + this.powers[ProcessTree.MEMORY];
+		}
+
+		/**
+		 * @return the energy of all subsystems since the process was found, in joules
+		 */
+		public double getEnergy() {
+			return this.energy;
+		}
+
+		/**
+		 * @param history Array filled with the last total powers, from the oldest to the newest
+		 */
+		public void getHistory(double[] history) {
+			for (int i = 0; i < HISTORY_SIZE; i++) {
+				history[i] = this.history[(this.historyIndex + i) % HISTORY_SIZE];
+			}
+		}
+	}
+
+	/**
+	 * Root of procfs
+	 */
+	private String procPath;
+
+	/**
+	 * Running processes, by PID
+	 */
+	private Map<Integer, Entry> entries;
+
+	/**
+	 * Running processes, reused between updates
+	 */
+	private List<Entry> liveEntries;
+
+	/**
+	 * Number of updates
+	 */
+	private long generation;
+
+	/**
+	 * Total memory of the system, in bytes
+	 */
+	private long totalMemory;
+
+	/**
+	 * Own cache of file handles of the tokenizer
+	 */
+	private ProcFileCache cache;
+
+	/**
+	 * Maximum number of file handles the limit of open files of Jolinar leaves to processes
+	 */
+	private int maxOpenFiles;
+
+	/**
+	 * Tokenizer reused to parse stat and io files, reading through its own cache of file handles,
+	 * so that host-wide scans do not evict the handles of other sensors
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Bytes read and written by a process, reused between processes
+	 */
+	private long[] readWriteBytes;
+
+	/**
+	 * Check if the cgroup of new processes is read
+	 */
+	private boolean readCgroups;
+
+	/**
+	 * Size of memory pages, in bytes, in which resident set sizes of stat files are counted
+	 */
+	private long pageSize;
+
+	/**
+	 * Constructor
+	 */
+	public HostProcessTable() {
+		this("/proc");
+	}
+
+	/**
+	 * Constructor
+	 * @param procPath Root of procfs, such as /proc
+	 */
+	public HostProcessTable(String procPath) {
+		this.procPath = procPath;
+		this.entries = new HashMap<>();
+		this.liveEntries = new ArrayList<>();
+		this.maxOpenFiles = Math.max(openFilesLimit(procPath) / 2, MIN_OPEN_FILES);
+		this.cache = new ProcFileCache(this.maxOpenFiles);
+		this.tokenizer = new ProcTokenizer(512, this.cache);
+		this.readWriteBytes = new long[2];
+		this.pageSize = pageSize(procPath);
+
+		try {
+			// Line is similar to: MemTotal:        3923808 kB
+			this.tokenizer.load(procPath + "/meminfo");
+			if (this.tokenizer.seekLine(MEM_TOTAL))
+				this.totalMemory = this.tokenizer.nextLong() * 1024;
+		} catch (IOException e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+		}
+	}
+
+	/**
+	 * Read the limit of open files of Jolinar
+	 * Half of it is kept for the file handles of processes, the handles of processes beyond it are reopened on each update
+	 * @param procPath Root of procfs
+	 * @return the soft limit of open files, or 1024 if unknown
+	 */
+	private static int openFilesLimit(String procPath) {
+		try {
+			// Line is similar to: Max open files            1024                 524288               files
+			for (String line : Files.readAllLines(Paths.get(procPath + "/self/limits"), StandardCharsets.US_ASCII)) {
+				if (line.startsWith(MAX_OPEN_FILES)) {
+					String limit = line.substring(MAX_OPEN_FILES.length()).trim().split("\\s+")[0];
+					return limit.equals("unlimited") ? Integer.MAX_VALUE : (int) Math.min(Long.parseLong(limit), Integer.MAX_VALUE);
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Usual limit
+		}
+		return 1024;
+	}
+
+	/**
+	 * Read the size of memory pages from the auxiliary vector of Jolinar, as it is 16 or 64 kB on some ARM and POWER systems
+	 * The vector is made of pairs of native words, a type and a value, ended by a null type
+	 * @param procPath Root of procfs
+	 * @return the size of memory pages, in bytes, or 4096 if unknown
+	 */
+	private static long pageSize(String procPath) {
+		try {
+			ByteBuffer auxv = ByteBuffer.wrap(Files.readAllBytes(Paths.get(procPath + "/self/auxv"))).order(ByteOrder.nativeOrder());
+			boolean words64 = !"32".equals(System.getProperty("sun.arch.data.model"));
+			while (auxv.remaining() >= (words64 ? 16 : 8)) {
+				long type = words64 ? auxv.getLong() : auxv.getInt() & 0xFFFFFFFFL;
+				long value = words64 ? auxv.getLong() : auxv.getInt() & 0xFFFFFFFFL;
+				if (type == 0)
+					break;
+				if (type == AT_PAGESZ && value > 0)
+					return value;
+			}
+		} catch (IOException e) {
+			// Usual page size
+		}
+		return DEFAULT_PAGE_SIZE;
+	}
+
+	/**
+	 * Find new and exited processes, and read the counters of all running processes
+	 * Processes found by the first update are measured from then, later ones from their start
+	 */
+	public void update() {
+		String[] pids = new File(this.procPath).list();
+		if (pids == null)
+			return;
+
+		boolean initial = this.generation == 0;
+		this.generation++;
+		for (String name : pids) {
+			if (name.isEmpty() || !Character.isDigit(name.charAt(0)))
+				continue;
+			this.read(Integer.parseInt(name), initial);
+		}
+
+		// Remove exited processes, not found by this update, and close their file handles
+		this.liveEntries.clear();
+		Iterator<Entry> iterator = this.entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.generation != this.generation) {
+				iterator.remove();
+				this.cache.invalidate(this.procPath + "/" + entry.pid + "/stat");
+				this.cache.invalidate(this.procPath + "/" + entry.pid + "/io");
+			} else {
+				this.liveEntries.add(entry);
+			}
+		}
+
+		// The limit of open files is often far above the number of processes, handles are kept for running processes only
+		this.cache.setMaxOpenFiles((int) Math.min(Math.max((long) this.liveEntries.size() * OPEN_FILES_PER_PROCESS, MIN_OPEN_FILES), this.maxOpenFiles));
+	}
+
+	/**
+	 * Read the counters of a process, adding it if new
+	 * @param pid PID of the process
+	 * @param initial Check if the process was already running when the table was created
+	 */
+	private void read(int pid, boolean initial) {
+		// Sleeping processes are not read on every update, as most processes of a host sleep
+		// Their counters are cumulative, so the CPU time of a process waking up is counted when it is next read
+		Entry entry = this.entries.get(pid);
+		if (entry != null && entry.idleUpdates >= IDLE_UPDATES && (pid + this.generation) % IDLE_READ_PERIOD != 0) {
+			entry.generation = this.generation;
+			entry.cpuDiff = 0;
+			entry.readDiff = 0;
+			entry.writeDiff = 0;
+			return;
+		}
+
+		long cpuTime, startTime, memory;
+		try {
+			// Zombies have exited and hold no resources until reaped
+			this.tokenizer.load(this.procPath + "/" + pid + "/stat");
+			char state = this.tokenizer.statState();
+			if (state == 'Z' || state == 'X')
+				return;
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_UTIME);
+			cpuTime = this.tokenizer.nextLong() + this.tokenizer.nextLong();
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_STARTTIME);
+			startTime = this.tokenizer.nextLong();
+			this.tokenizer.skipToken();
+			memory = this.tokenizer.nextLong() * this.pageSize;
+		} catch (IOException e) {
+			// Process exited since /proc was listed
+			return;
+		}
+
+		boolean added = entry == null || entry.startTime != startTime;
+		if (added) {
+			entry = this.addEntry(pid, startTime);
+			if (initial) {
+				entry.cpuTime = cpuTime;
+				this.readIO(entry);
+			}
+		}
+
+		entry.generation = this.generation;
+		entry.cpuDiff = Math.max(cpuTime - entry.cpuTime, 0);
+		entry.cpuTime = Math.max(cpuTime, entry.cpuTime);
+		entry.idleUpdates = entry.cpuDiff > 0 ? 0 : entry.idleUpdates + 1;
+		entry.memory = memory;
+
+		// Most processes sleep, their io file is read once they run again, as its counters are cumulative
+		long readBytes = entry.readBytes, writeBytes = entry.writeBytes;
+		if (entry.cpuDiff > 0)
+			this.readIO(entry);
+		entry.readDiff = Math.max(entry.readBytes - readBytes, 0);
+		entry.writeDiff = Math.max(entry.writeBytes - writeBytes, 0);
+
+		// Processes are often moved to a scope or a container right after they fork, so the cgroup of running
+		// processes is read again on their next update, then periodically, in turns
+		if (this.readCgroups && !added && entry.cpuDiff > 0 && (!entry.cgroupChecked || (pid + this.generation) % CGROUP_READ_PERIOD == 0)) {
+			entry.cgroup = this.readCgroup(pid);
+			entry.cgroupChecked = true;
+		}
+	}
+
+	/**
+	 * Add a new process, reading its command name and owner
+	 * @param pid PID of the process
+	 * @param startTime Start time of the process
+	 * @return the new entry
+	 */
+	private Entry addEntry(int pid, long startTime) {
+		Entry entry = new Entry(pid, startTime);
+		try {
+			entry.name = this.tokenizer.statComm();
+		} catch (IOException e) {
+			entry.name = "";
+		}
+		try {
+			entry.uid = (Integer) Files.getAttribute(Paths.get(this.procPath + "/" + pid), "unix:uid");
+		} catch (IOException | UnsupportedOperationException e) {
+			entry.uid = -1;
+		}
+		if (this.readCgroups)
+			entry.cgroup = this.readCgroup(pid);
+		this.entries.put(pid, entry);
+		return entry;
+	}
+
+	/**
+	 * Read the cgroup v2 path of a process
+	 * On cgroup v1 systems, the path in the first hierarchy is used
+	 * @param pid PID of the process
+	 * @return the cgroup path of the process, or "?" if unknown
+	 */
+	private String readCgroup(int pid) {
+		String result = "?";
+		try {
+			// Lines are similar to: 0::/system.slice/nginx.service, or 4:memory:/user.slice on cgroup v1
+			for (String line : Files.readAllLines(Paths.get(this.procPath + "/" + pid + "/cgroup"), StandardCharsets.UTF_8)) {
+				int separator = line.indexOf(':', line.indexOf(':') + 1);
+				if (separator < 0)
+					continue;
+				if (line.startsWith("0::"))
+					return line.substring(separator + 1);
+				if (result.equals("?"))
+					result = line.substring(separator + 1);
+			}
+		} catch (IOException e) {
+			// Process exited
+		}
+		return result;
+	}
+
+	/**
+	 * Read the cgroup of processes when they are found and periodically while they run, to be set before the first update
+	 * @param readCgroups Check if the cgroup of new processes is read
+	 */
+	public void setReadCgroups(boolean readCgroups) {
+		this.readCgroups = readCgroups;
+	}
+
+	/**
+	 * Read the bytes read and written by a process, if its io file is readable
+	 * @param entry Process to read
+	 */
+	private void readIO(Entry entry) {
+		if (!entry.ioReadable)
+			return;
+		try {
+			this.tokenizer.load(this.procPath + "/" + entry.pid + "/io");
+			this.tokenizer.ioReadWriteBytes(this.readWriteBytes);
+			entry.readBytes = Math.max(this.readWriteBytes[0], entry.readBytes);
+			entry.writeBytes = Math.max(this.readWriteBytes[1], entry.writeBytes);
+		} catch (IOException e) {
+			// Processes of other users cannot be read without privileges, do not try again
+			entry.ioReadable = false;
+		}
+	}
+
+	/**
+	 * @return the running processes, as of the last update
+	 */
+	public List<Entry> getLiveEntries() {
+		return this.liveEntries;
+	}
+
+	/**
+	 * @return the total memory of the system, in bytes
+	 */
+	public long getTotalMemory() {
+		return this.totalMemory;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.host;
+
+import jolinar.Main;
+import jolinar.process.ProcessTree;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Terminal view of the processes of the host by decreasing power, refreshed in place
+ * Each process has a sparkline of its last total powers
+ */
+public class TopView {
+
+	/**
+	 * ANSI sequence moving the cursor home and clearing the screen
+	 */
+	private static final String CLEAR_SCREEN = "\u001B[H\u001B[2J";
+
+	/**
+	 * Characters of sparklines, from the lowest to the highest power
+	 */
+	private static final char[] SPARKS = { '\u2581', '\u2582', '\u2583', '\u2584', '\u2585', '\u2586', '\u2587', '\u2588' };
+
+	/**
+	 * Characters of sparklines on terminals without Unicode
+	 */
+	private static final char[] ASCII_SPARKS = { '_', '.', ',', ':', '-', '=', '+', '#' };
+
+	/**
+	 * Number of processes shown
+	 */
+	private int count;
+
+	/**
+	 * User names, by UID
+	 */
+	private UserNames userNames;
+
+	/**
+	 * Last total powers of a process, reused between processes
+	 */
+	private double[] history;
+
+	/**
+	 * Characters of sparklines
+	 */
+	private char[] sparks;
+
+	/**
+	 * Constructor
+	 * @param count Number of processes shown
+	 */
+	public TopView(int count) {
+		this.count = count;
+		this.history = new double[HostProcessTable.HISTORY_SIZE];
+		this.sparks = Charset.defaultCharset().newEncoder().canEncode(SPARKS[0]) ? SPARKS : ASCII_SPARKS;
+		this.userNames = new UserNames();
+	}
+
+	/**
+	 * Draw the view
+	 * @param monitor Monitor of the processes of the host
+	 * @param out Terminal to draw on
+	 */
+	public void render(HostMonitor monitor, PrintStream out) {
+		StringBuilder screen = new StringBuilder(CLEAR_SCREEN);
+		screen.append(Main.ANSI_BOLD).append(Main.ANSI_YELLOW).append("Jolinar top").append(Main.ANSI_RESET)
+				.append(String.format(Locale.ROOT, " - %d processes - CPU %.2f W - Disk %.2f W - Memory %.2f W - Jolinar %.2f%% of one core%n",
+						monitor.size(), monitor.getPower(ProcessTree.CPU), monitor.getPower(ProcessTree.DISK), monitor.getPower(ProcessTree.MEMORY), monitor.getOverhead() * 100));
+		screen.append(String.format(Locale.ROOT, "Energy since start - CPU %.2f J - Disk %.2f J - Memory %.2f J%n%n",
+				monitor.getEnergy(ProcessTree.CPU), monitor.getEnergy(ProcessTree.DISK), monitor.getEnergy(ProcessTree.MEMORY)));
+		screen.append(Main.ANSI_BOLD)
+				.append(String.format(Locale.ROOT, "%7s %-10s %8s %8s %8s %8s %10s  %-16s  %s", "PID", "USER", "CPU W", "DISK W", "MEM W", "TOTAL W", "ENERGY J", "HISTORY", "COMMAND"))
+				.append(Main.ANSI_RESET).append(String.format("%n"));
+
+		List<HostProcessTable.Entry> entries = monitor.getEntriesByPower();
+		for (int i = 0; i < Math.min(this.count, entries.size()); i++) {
+			HostProcessTable.Entry entry = entries.get(i);
+			screen.append(String.format(Locale.ROOT, "%7d %-10.10s %8.2f %8.2f %8.2f %8.2f %10.2f  %s  %s%n",
+					entry.getPid(), this.userNames.get(entry.getUid()), entry.getPower(ProcessTree.CPU), entry.getPower(ProcessTree.DISK),
+					entry.getPower(ProcessTree.MEMORY), entry.getTotalPower(), entry.getEnergy(), this.sparkline(entry), entry.getName()));
+		}
+		out.print(screen);
+		out.flush();
+	}
+
+	/**
+	 * @param entry Process
+	 * @return the sparkline of the last total powers of the process, scaled to its highest power
+	 */
+	private String sparkline(HostProcessTable.Entry entry) {
+		entry.getHistory(this.history);
+		double max = 0;
+		for (double power : this.history) {
+			max = Math.max(max, power);
+		}
+
+		char[] result = new char[this.history.length];
+		for (int i = 0; i < this.history.length; i++) {
+			int level = max > 0 ? (int) Math.round(this.history[i] / max * (this.sparks.length - 1)) : 0;
+			result[i] = this.sparks[level];
+		}
+		return new String(result);
+	}
+
+}
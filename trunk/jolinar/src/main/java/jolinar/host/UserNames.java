@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.host;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the users of the host, by UID, read once from /etc/passwd
+ */
+public class UserNames {
+
+	/**
+	 * User names, by UID
+	 */
+	private Map<Integer, String> names;
+
+	/**
+	 * Constructor
+	 */
+	public UserNames() {
+		this.names = new HashMap<>();
+		try {
+			// Line is similar to: root:x:0:0:root:/root:/bin/bash
+			for (String line : Files.readAllLines(Paths.get("/etc/passwd"), StandardCharsets.UTF_8)) {
+				String[] fields = line.split(":");
+				if (fields.length > 2)
+					this.names.put(Integer.valueOf(fields[2]), fields[0]);
+			}
+		} catch (IOException | NumberFormatException e) {
+			// UIDs are used instead of user names
+		}
+	}
+
+	/**
+	 * @param uid UID of a user
+	 * @return the name of the user, or its UID if unknown
+	 */
+	public String get(int uid) {
+		String name = this.names.get(uid);
+		return name != null ? name : String.valueOf(uid);
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Monitor of an already running process, not launched by Jolinar
+ * The target is a PID, a pidfile or a pattern matched against process command lines,
+ * and Jolinar waits for it to appear if it does not exist yet
+ * The process is identified by its PID and start time, so that a reused PID
+ * is never mistaken for the target, and exit is detected by a watcher thread polling its stat file
+ */
+public class AttachedProcessMonitor implements ProcessMonitorsInterface {
+
+	/**
+	 * Kinds of targets
+	 */
+	public enum TargetType { PID, PIDFILE, NAME }
+
+	/**
+	 * Kind of target
+	 */
+	private TargetType targetType;
+
+	/**
+	 * PID, pidfile path or command line pattern of the target
+	 */
+	private String target;
+
+	/**
+	 * Compiled command line pattern, for NAME targets
+	 */
+	private Pattern pattern;
+
+	/**
+	 * Interval between two checks of the process, in milliseconds
+	 */
+	private long pollInterval;
+
+	/**
+	 * PID of the monitored process
+	 */
+	private int pid;
+
+	/**
+	 * Start time of the monitored process, in clock ticks after boot
+	 */
+	private long startTime;
+
+	/**
+	 * Check if the monitored process has exited
+	 */
+	private volatile boolean exited;
+
+	/**
+	 * Listener notified on exit
+	 */
+	private volatile Runnable exitListener;
+
+	/**
+	 * Tokenizer used by the watcher thread to check the process
+	 * Stat files of candidates and ancestors are read once, so they are not kept open in the cache of sensors
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param targetType Kind of target
+	 * @param target PID, pidfile path or command line pattern (regular expression) of the target
+	 * @param pollInterval Interval between two checks of the process, in milliseconds
+	 */
+	public AttachedProcessMonitor(TargetType targetType, String target, long pollInterval) {
+		this.targetType = targetType;
+		this.target = target;
+		this.pollInterval = Math.max(pollInterval, 1);
+		this.tokenizer = new ProcTokenizer(512);
+		if (targetType == TargetType.NAME)
+			this.pattern = Pattern.compile(target);
+	}
+
+	/**
+	 * Wait for the target process to exist, then identify it by its PID and start time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitTarget() throws InterruptedException {
+		boolean logged = false;
+		while (true) {
+			int candidate = this.findTarget();
+			if (candidate > 0) {
+				long candidateStartTime = this.readStartTime(candidate);
+				if (candidateStartTime >= 0) {
+					this.pid = candidate;
+					this.startTime = candidateStartTime;
+					return;
+				}
+			}
+
+			if (!logged) {
+				Main.LOGGER.log(Level.INFO, "Waiting for process " + this.targetType.name().toLowerCase() + " " + this.target);
+				logged = true;
+			}
+			Thread.sleep(this.pollInterval);
+		}
+	}
+
+	/**
+	 * @return the PID of the target if it currently exists, 0 otherwise
+	 */
+	private int findTarget() {
+		switch (this.targetType) {
+			case PID:
+				return Integer.parseInt(this.target.trim());
+			case PIDFILE:
+				try {
+					return Integer.parseInt(new String(Files.readAllBytes(Paths.get(this.target)), StandardCharsets.US_ASCII).trim());
+				} catch (IOException | NumberFormatException e) {
+					return 0;
+				}
+			default:
+				return this.findByCommandLine();
+		}
+	}
+
+	/**
+	 * Find the oldest process whose command line matches the pattern, excluding Jolinar and its ancestors,
+	 * such as a sudo or sh -c wrapper whose command line holds the pattern too
+	 * @return the PID of the process, or 0 if none matches
+	 */
+	private int findByCommandLine() {
+		String[] entries = new File("/proc").list();
+		if (entries == null)
+			return 0;
+
+		Set<Integer> excluded = this.readAncestors(getSelfPid());
+		int result = 0;
+		long resultStartTime = Long.MAX_VALUE;
+		for (String entry : entries) {
+			if (entry.isEmpty() || !Character.isDigit(entry.charAt(0)))
+				continue;
+			int candidate = Integer.parseInt(entry);
+			if (excluded.contains(candidate))
+				continue;
+
+			String commandLine = readCommandLine(candidate);
+			if (commandLine == null || !this.pattern.matcher(commandLine).find())
+				continue;
+
+			long candidateStartTime = this.readStartTime(candidate);
+			if (candidateStartTime >= 0 && candidateStartTime < resultStartTime) {
+				result = candidate;
+				resultStartTime = candidateStartTime;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param pid PID of a process
+	 * @return the command line of the process with arguments separated by spaces, or null if it cannot be read
+	 */
+	public static String readCommandLine(int pid) {
+		try {
+			byte[] bytes = Files.readAllBytes(Paths.get("/proc/" + pid + "/cmdline"));
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] == 0)
+					bytes[i] = ' ';
+			}
+			return new String(bytes, StandardCharsets.UTF_8).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the PID of Jolinar
+	 */
+	private static int getSelfPid() {
+		try {
+			return Integer.parseInt(new File("/proc/self").getCanonicalFile().getName());
+		} catch (IOException | NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param pid PID of a process
+	 * @return the PIDs of the process and of its ancestors, up to the first process not readable
+	 */
+	private synchronized Set<Integer> readAncestors(int pid) {
+		Set<Integer> result = new HashSet<>();
+		// PIDs already seen stop the walk, in case a PID is reused while it is read
+		while (pid > 0 && result.add(pid)) {
+			try {
+				this.tokenizer.loadOnce("/proc/" + pid + "/stat");
+				this.tokenizer.seekStatField(ProcTokenizer.STAT_PPID);
+				pid = (int) this.tokenizer.nextLong();
+			} catch (IOException e) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param pid PID of a process
+	 * @return the start time of the process in clock ticks after boot, or -1 if it does not exist or is a zombie
+	 */
+	private synchronized long readStartTime(int pid) {
+		try {
+			this.tokenizer.loadOnce("/proc/" + pid + "/stat");
+			// A zombie has exited but is not reaped yet by its parent
+			char state = this.tokenizer.statState();
+			if (state == 'Z' || state == 'X')
+				return -1;
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_STARTTIME);
+			return this.tokenizer.nextLong();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public void start() {
+		Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "jolinar-exit-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Poll the process until it disappears or its PID is reused, then notify the listener
+	 */
+	private void watch() {
+		while (this.readStartTime(this.pid) == this.startTime) {
+			try {
+				Thread.sleep(this.pollInterval);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+
+		this.exited = true;
+		Runnable listener = this.exitListener;
+		if (listener != null)
+			listener.run();
+	}
+
+	@Override
+	public int getPid() {
+		return this.pid;
+	}
+
+	@Override
+	public boolean hasExited() {
+		return this.exited;
+	}
+
+	@Override
+	public void setExitListener(Runnable listener) {
+		this.exitListener = listener;
+	}
+
+	@Override
+	public long getFinalCPUTime() {
+		// Not a child of Jolinar, its final counters are not accounted to Jolinar
+		return -1;
+	}
+
+	@Override
+	public long[] getFinalReadWriteBytes() {
+		return null;
+	}
+
+}
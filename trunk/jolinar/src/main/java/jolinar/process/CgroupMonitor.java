@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+import jolinar.Main;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Monitor of a cgroup v2, such as a container or a systemd unit, with all the processes it holds
+ * The target is a cgroup path, a container ID or a systemd unit name,
+ * and Jolinar waits for it to appear if it does not exist yet
+ * The cgroup ends when its directory is removed, as when the container stops or the unit is stopped
+ */
+public class CgroupMonitor implements ProcessMonitorsInterface {
+
+	/**
+	 * Default mount point of the cgroup v2 hierarchy
+	 */
+	public static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+
+	/**
+	 * Systemd unit names, such as nginx.service or docker-2f1c.scope
+	 */
+	private static final Pattern UNIT_PATTERN = Pattern.compile(".+\\.(service|scope|slice|socket|mount|swap)");
+
+	/**
+	 * Container IDs, full or abbreviated
+	 */
+	private static final Pattern CONTAINER_ID_PATTERN = Pattern.compile("[0-9a-f]{12,64}");
+
+	/**
+	 * Root of the cgroup v2 hierarchy
+	 */
+	private String root;
+
+	/**
+	 * Cgroup path, container ID or unit name of the target
+	 */
+	private String target;
+
+	/**
+	 * Interval between two checks of the cgroup, in milliseconds
+	 */
+	private long pollInterval;
+
+	/**
+	 * Directory of the monitored cgroup
+	 */
+	private File directory;
+
+	/**
+	 * Check if the monitored cgroup has been removed
+	 */
+	private volatile boolean exited;
+
+	/**
+	 * Listener notified on exit
+	 */
+	private volatile Runnable exitListener;
+
+	/**
+	 * Constructor
+	 * @param root Root of the cgroup v2 hierarchy, such as /sys/fs/cgroup
+	 * @param target Cgroup path relative to the root, container ID or systemd unit name of the target
+	 * @param pollInterval Interval between two checks of the cgroup, in milliseconds
+	 */
+	public CgroupMonitor(String root, String target, long pollInterval) {
+		this.root = root;
+		this.target = target;
+		this.pollInterval = Math.max(pollInterval, 1);
+	}
+
+	/**
+	 * Find the root of the cgroup v2 hierarchy
+	 * On hybrid systems, the cgroup v2 hierarchy is mounted in the unified directory of the cgroup v1 root
+	 * @param root Configured root of the cgroup hierarchy
+	 * @return the root of the cgroup v2 hierarchy, or null if there is no cgroup v2 hierarchy
+	 */
+	public static String findRoot(String root) {
+		if (new File(root, "cgroup.controllers").exists())
+			return root;
+		if (new File(root, "unified/cgroup.controllers").exists())
+			return root + "/unified";
+		return null;
+	}
+
+	/**
+	 * Wait for the target cgroup to exist
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitTarget() throws InterruptedException {
+		boolean logged = false;
+		while (true) {
+			this.directory = this.findTarget();
+			if (this.directory != null)
+				return;
+
+			if (!logged) {
+				Main.LOGGER.log(Level.INFO, "Waiting for cgroup " + this.target);
+				logged = true;
+			}
+			Thread.sleep(this.pollInterval);
+		}
+	}
+
+	/**
+	 * @return the directory of the target if it currently exists, null otherwise
+	 */
+	private File findTarget() {
+		// Cgroup path, given relative to the root or as a full path
+		File directory = new File(this.target.startsWith(this.root + "/") ? this.target : this.root + "/" + this.target);
+		if (this.target.contains("/") && directory.isDirectory())
+			return directory;
+
+		if (UNIT_PATTERN.matcher(this.target).matches())
+			return this.search(this.target, true);
+		if (CONTAINER_ID_PATTERN.matcher(this.target).matches())
+			return this.search(this.target, false);
+		return directory.isDirectory() ? directory : null;
+	}
+
+	/**
+	 * Search the hierarchy, breadth first, for the cgroup of a unit or a container
+	 * Container runtimes name the cgroup of a container after its ID, such as docker-[id].scope,
+	 * cri-containerd-[id].scope, libpod-[id].scope or docker/[id]
+	 * @param name Unit name or container ID
+	 * @param exact Check if the cgroup is named after the unit, or else contains the container ID
+	 * @return the directory of the cgroup, or null if not found
+	 */
+	private File search(String name, boolean exact) {
+		Deque<File> queue = new ArrayDeque<>();
+		queue.add(new File(this.root));
+		while (!queue.isEmpty()) {
+			File[] children = queue.poll().listFiles();
+			if (children == null)
+				continue;
+			Arrays.sort(children);
+			for (File child : children) {
+				if (!child.isDirectory())
+					continue;
+				String childName = child.getName();
+				// Podman runs a conmon monitor in a cgroup also named after the container
+				if (exact ? childName.equals(name) : childName.contains(name) && !childName.contains("conmon"))
+					return child;
+				queue.add(child);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the directory of the monitored cgroup
+	 */
+	public String getPath() {
+		return this.directory.getPath();
+	}
+
+	/**
+	 * @return the name of the monitored cgroup, usable in file names
+	 */
+	public String getName() {
+		return this.directory.getName();
+	}
+
+	@Override
+	public void start() {
+		Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "jolinar-exit-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Poll the cgroup until its directory is removed, then notify the listener
+	 */
+	private void watch() {
+		while (this.directory.isDirectory()) {
+			try {
+				Thread.sleep(this.pollInterval);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+
+		this.exited = true;
+		Runnable listener = this.exitListener;
+		if (listener != null)
+			listener.run();
+	}
+
+	@Override
+	public int getPid() {
+		// A cgroup has no single process
+		return 0;
+	}
+
+	@Override
+	public boolean hasExited() {
+		return this.exited;
+	}
+
+	@Override
+	public void setExitListener(Runnable listener) {
+		this.exitListener = listener;
+	}
+
+	@Override
+	public long getFinalCPUTime() {
+		// Counters of a removed cgroup are gone
+		return -1;
+	}
+
+	@Override
+	public long[] getFinalReadWriteBytes() {
+		return null;
+	}
+
+}
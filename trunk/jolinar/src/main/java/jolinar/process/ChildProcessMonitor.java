@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Monitor of a process launched by Jolinar
+ * Exit is detected asynchronously by a watcher thread waiting on the process,
+ * which notifies the listener as soon as the process exits
+ * Once the process is reaped its procfs files are gone, but its final counters are added
+ * to Jolinar's own accounting of waited-for children (cutime, cstime and io),
+ * so they are read from /proc/self at exit, less the bytes read and written by Jolinar's own threads
+ * A process can be launched suspended, held by a shell before it executes the program,
+ * so that sensors take their baseline before the program runs
+ */
+public class ChildProcessMonitor implements ProcessMonitorsInterface {
+
+	/**
+	 * Path to Jolinar's own stat and io files
+	 */
+	private static final String SELF_STAT_PATH = "/proc/self/stat";
+	private static final String SELF_IO_PATH = "/proc/self/io";
+
+	/**
+	 * Path to the directory of Jolinar's threads
+	 */
+	private static final String SELF_TASK_PATH = "/proc/self/task/";
+
+	/**
+	 * Monitored process
+	 */
+	private Process process;
+
+	/**
+	 * PID of the monitored process
+	 */
+	private int pid;
+
+	/**
+	 * Check if the monitored process has exited
+	 */
+	private volatile boolean exited;
+
+	/**
+	 * Listener notified on exit
+	 */
+	private volatile Runnable exitListener;
+
+	/**
+	 * Jolinar's children CPU time and IO when the process started
+	 */
+	private long baselineCPUTime;
+	private long[] baselineReadWriteBytes;
+
+	/**
+	 * Final counters of the process, set on exit
+	 */
+	private volatile long finalCPUTime;
+	private volatile long[] finalReadWriteBytes;
+
+	/**
+	 * Tokenizer used to read Jolinar's own accounting
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * Must be called right after the process started, before other children of Jolinar exit
+	 * @param process Process launched by Jolinar
+	 */
+	public ChildProcessMonitor(Process process) {
+		this.process = process;
+		this.pid = getPid(process);
+		this.tokenizer = new ProcTokenizer(512);
+		this.finalCPUTime = -1;
+		this.baselineReadWriteBytes = new long[2];
+		this.baselineCPUTime = this.readChildrenCPUTime();
+		this.readChildrenReadWriteBytes(this.baselineReadWriteBytes);
+	}
+
+	/**
+	 * Wrap a command so that it waits before executing the program
+	 * The process is a shell that reads a line from its standard input, a pipe from Jolinar, then executes
+	 * the program in place, so the PID and counters of the process are those of the program
+	 * If Jolinar exits before releasing it, its standard input is closed and the shell exits without executing the program
+	 * @param command Program to launch and its arguments
+	 * @return the wrapped command
+	 */
+	public static List<String> suspendedCommand(List<String> command) {
+		List<String> result = new ArrayList<>();
+		result.add("/bin/sh");
+		result.add("-c");
+		result.add("read -r _ && exec \"$@\"");
+		result.add("jolinar");
+		result.addAll(command);
+		return result;
+	}
+
+	/**
+	 * Wait for a process launched with suspendedCommand to wait for its release
+	 * @return false if the process exited or cannot be checked
+	 */
+	public synchronized boolean awaitSuspended() {
+		while (true) {
+			try {
+				this.tokenizer.load("/proc/" + this.pid + "/stat");
+				char state = this.tokenizer.statState();
+				// Shell sleeps in read
+				if (state == 'S')
+					return true;
+				if (state == 'Z' || state == 'X')
+					return false;
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.WARNING, e.getMessage());
+				return false;
+			}
+
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Release a process launched with suspendedCommand, so that it executes the program
+	 * The baseline is taken while the program still waits, and releasing it starts no other child of Jolinar,
+	 * so that the counters of a short program are never part of the baseline
+	 * @throws IOException if the process cannot be released
+	 */
+	public void resume() throws IOException {
+		this.baselineCPUTime = this.readChildrenCPUTime();
+		this.readChildrenReadWriteBytes(this.baselineReadWriteBytes);
+
+		// Standard input of the program stays open, as when it is not launched suspended
+		OutputStream input = this.process.getOutputStream();
+		input.write('\n');
+		input.flush();
+	}
+
+	/**
+	 * Kill the process, when Jolinar cannot monitor it
+	 * A process still held by suspendedCommand is killed before it executes the program
+	 */
+	public void destroy() {
+		this.process.destroy();
+	}
+
+	@Override
+	public void start() {
+		Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				waitForExit();
+			}
+		}, "jolinar-exit-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Wait for the process to exit, then read its final counters and notify the listener
+	 */
+	private void waitForExit() {
+		while (true) {
+			try {
+				this.process.waitFor();
+				break;
+			} catch (InterruptedException e) {
+				// Keep waiting, the process is still running
+			}
+		}
+
+		// Process is reaped, its counters are now in Jolinar's children accounting
+		long cpuTime = this.readChildrenCPUTime();
+		if (cpuTime >= 0 && this.baselineCPUTime >= 0)
+			this.finalCPUTime = cpuTime - this.baselineCPUTime;
+
+		long[] readWriteBytes = new long[2];
+		if (this.readChildrenReadWriteBytes(readWriteBytes)) {
+			readWriteBytes[0] -= this.baselineReadWriteBytes[0];
+			readWriteBytes[1] -= this.baselineReadWriteBytes[1];
+			this.finalReadWriteBytes = readWriteBytes;
+		}
+
+		this.exited = true;
+		Runnable listener = this.exitListener;
+		if (listener != null)
+			listener.run();
+	}
+
+	/**
+	 * @return CPU time of the children waited for by Jolinar (cutime and cstime), or -1 if unknown
+	 */
+	private synchronized long readChildrenCPUTime() {
+		try {
+			this.tokenizer.load(SELF_STAT_PATH);
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_CUTIME);
+			return this.tokenizer.nextLong() + this.tokenizer.nextLong();
+		} catch (IOException e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Read the bytes read and written by the children Jolinar waited for
+	 * Jolinar's own io file also counts the bytes of its threads, such as the power and energy files it writes,
+	 * so the bytes of its running threads are subtracted. Bytes of its threads that already exited cannot be told
+	 * apart from those of children, and are charged to the process
+	 * @param readWriteBytes Array filled with the number of bytes read and written
+	 * @return false if the counters cannot be read
+	 */
+	private synchronized boolean readChildrenReadWriteBytes(long[] readWriteBytes) {
+		try {
+			this.tokenizer.load(SELF_IO_PATH);
+			this.tokenizer.ioReadWriteBytes(readWriteBytes);
+		} catch (IOException e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+			return false;
+		}
+
+		String[] threads = new File(SELF_TASK_PATH).list();
+		if (threads == null)
+			return true;
+		long[] threadReadWriteBytes = new long[2];
+		for (String thread : threads) {
+			try {
+				// Threads are too many and short-lived to keep their files open
+				this.tokenizer.loadOnce(SELF_TASK_PATH + thread + "/io");
+				this.tokenizer.ioReadWriteBytes(threadReadWriteBytes);
+				readWriteBytes[0] -= threadReadWriteBytes[0];
+				readWriteBytes[1] -= threadReadWriteBytes[1];
+			} catch (IOException e) {
+				// Thread exited, its bytes are now in the io file of Jolinar
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the PID of a process
+	 * Uses the public Process.pid() on Java 9 and later, and the private pid field of UNIXProcess before
+	 * @param process Process
+	 * @return the PID of the process, or 0 if unknown
+	 */
+	public static int getPid(Process process) {
+		try {
+			Method method = Process.class.getMethod("pid");
+			return ((Long) method.invoke(process)).intValue();
+		} catch (Exception e) {
+			// Java 8 and before
+		}
+
+		try {
+			Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(process);
+		} catch (Exception e) {
+			Main.LOGGER.log(Level.WARNING, "Cannot get PID of process: " + e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the exit value of the process, or -1 while it runs
+	 */
+	public int getExitValue() {
+		try {
+			return this.process.exitValue();
+		} catch (IllegalThreadStateException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public int getPid() {
+		return this.pid;
+	}
+
+	@Override
+	public boolean hasExited() {
+		return this.exited;
+	}
+
+	@Override
+	public void setExitListener(Runnable listener) {
+		this.exitListener = listener;
+	}
+
+	@Override
+	public long getFinalCPUTime() {
+		return this.finalCPUTime;
+	}
+
+	@Override
+	public long[] getFinalReadWriteBytes() {
+		return this.finalReadWriteBytes;
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate energy of the most consuming commands, in constant memory, with the weighted Space-Saving algorithm
+ * At most capacity commands are counted, in a min-heap by energy. The energy of a new command replaces the least
+ * consuming one, starting from its energy, which becomes the error of the new command
+ * The counted energy of a command is never below its true energy, and at most its error above it
+ * Any command whose true energy is above total energy / capacity is counted
+ */
+public class HeavyHitters {
+
+	/**
+	 * Energy counted for a command
+	 */
+	public static class Counter {
+
+		/**
+		 * Executable name or command line
+		 */
+		private String key;
+
+		/**
+		 * Counted energy, in joules, never below the true energy
+		 */
+		private double energy;
+
+		/**
+		 * Maximum overestimation of the energy, in joules
+		 */
+		private double error;
+
+		/**
+		 * Position in the heap
+		 */
+		private int index;
+
+		/**
+		 * Constructor
+		 * @param key Executable name or command line
+		 * @param energy Counted energy, in joules
+		 * @param error Maximum overestimation of the energy, in joules
+		 */
+		private Counter(String key, double energy, double error) {
+			this.key = key;
+			this.energy = energy;
+			this.error = error;
+		}
+
+		/**
+		 * @return the executable name or command line
+		 */
+		public String getKey() {
+			return this.key;
+		}
+
+		/**
+		 * @return the counted energy, an upper bound of the true energy, in joules
+		 */
+		public double getEnergy() {
+			return this.energy;
+		}
+
+		/**
+		 * @return the maximum overestimation of the energy, in joules
+		 */
+		public double getError() {
+			return this.error;
+		}
+
+		/**
+		 * @return the lower bound of the true energy, in joules
+		 */
+		public double getGuaranteedEnergy() {
+			return this.energy - this.error;
+		}
+	}
+
+	/**
+	 * Maximum number of counted commands
+	 */
+	private int capacity;
+
+	/**
+	 * Counters in a min-heap by energy
+	 */
+	private Counter[] heap;
+
+	/**
+	 * Number of counters in the heap
+	 */
+	private int size;
+
+	/**
+	 * Counters, by key
+	 */
+	private Map<String, Counter> counters;
+
+	/**
+	 * Energy of all commands, in joules
+	 */
+	private double totalEnergy;
+
+	/**
+	 * Constructor
+	 * @param capacity Maximum number of counted commands
+	 */
+	public HeavyHitters(int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.heap = new Counter[this.capacity];
+		this.counters = new HashMap<>(this.capacity * 2);
+	}
+
+	/**
+	 * Add energy to a command
+	 * @param key Executable name or command line
+	 * @param energy Energy, in joules
+	 */
+	public synchronized void add(String key, double energy) {
+		if (energy <= 0)
+			return;
+		this.totalEnergy += energy;
+
+		Counter counter = this.counters.get(key);
+		if (counter != null) {
+			counter.energy += energy;
+			this.siftDown(counter.index);
+		} else if (this.size < this.capacity) {
+			counter = new Counter(key, energy, 0);
+			this.counters.put(key, counter);
+			this.heap[this.size] = counter;
+			counter.index = this.size++;
+			this.siftUp(counter.index);
+		} else {
+			// Least consuming command is replaced, its counter is reused
+			counter = this.heap[0];
+			this.counters.remove(counter.key);
+			counter.key = key;
+			counter.error = counter.energy;
+			counter.energy += energy;
+			this.counters.put(key, counter);
+			this.siftDown(0);
+		}
+	}
+
+	/**
+	 * @param count Maximum number of commands
+	 * @return copies of the counters of the most consuming commands, by decreasing energy
+	 */
+	public synchronized List<Counter> getTop(int count) {
+		List<Counter> result = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			result.add(new Counter(this.heap[i].key, this.heap[i].energy, this.heap[i].error));
+		}
+		Collections.sort(result, new Comparator<Counter>() {
+			@Override
+			public int compare(Counter c1, Counter c2) {
+				return Double.compare(c2.energy, c1.energy);
+			}
+		});
+		return result.size() > count ? new ArrayList<>(result.subList(0, count)) : result;
+	}
+
+	/**
+	 * @return the upper bound of the true energy of any command not counted, in joules
+	 */
+	public synchronized double getMaxUncountedEnergy() {
+		return this.size < this.capacity ? 0 : this.heap[0].energy;
+	}
+
+	/**
+	 * @return the energy of all commands, in joules
+	 */
+	public synchronized double getTotalEnergy() {
+		return this.totalEnergy;
+	}
+
+	/**
+	 * @return the maximum number of counted commands
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Read the command line of a process, with arguments separated by spaces
+	 * @param pid PID of the process
+	 * @param name Command name of the process, returned for kernel threads and exited processes
+	 * @return the command line of the process
+	 */
+	public static String readCommandLine(int pid, String name) {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(Paths.get("/proc/" + pid + "/cmdline"));
+		} catch (IOException e) {
+			return name;
+		}
+
+		// Arguments are separated by null characters
+		int length = bytes.length;
+		while (length > 0 && bytes[length - 1] == 0) {
+			length--;
+		}
+		if (length == 0)
+			return name;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] == 0)
+				bytes[i] = ' ';
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Move a counter up the heap until its parent has a lower energy
+	 * @param index Position of the counter
+	 */
+	private void siftUp(int index) {
+		Counter counter = this.heap[index];
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (this.heap[parent].energy <= counter.energy)
+				break;
+			this.place(this.heap[parent], index);
+			index = parent;
+		}
+		this.place(counter, index);
+	}
+
+	/**
+	 * Move a counter down the heap until its children have a higher energy
+	 * @param index Position of the counter
+	 */
+	private void siftDown(int index) {
+		Counter counter = this.heap[index];
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= this.size)
+				break;
+			if (child + 1 < this.size && this.heap[child + 1].energy < this.heap[child].energy)
+				child++;
+			if (this.heap[child].energy >= counter.energy)
+				break;
+			this.place(this.heap[child], index);
+			index = child;
+		}
+		this.place(counter, index);
+	}
+
+	/**
+	 * @param counter Counter
+	 * @param index New position of the counter in the heap
+	 */
+	private void place(Counter counter, int index) {
+		this.heap[index] = counter;
+		counter.index = index;
+	}
+
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+public interface ProcessExitAware {
+
+	/**
+	 * Notify that the monitored process exited
+	 * Sensors stop reading the files of the process, and use its final counters when known
+	 * @param monitor Monitor of the exited process
+	 */
+	void processExited(ProcessMonitorsInterface monitor);
+
+}
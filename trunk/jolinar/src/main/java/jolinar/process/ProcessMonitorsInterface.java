@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+public interface ProcessMonitorsInterface {
+
+	/**
+	 * Get the PID of the monitored process
+	 * @return the PID of the monitored process
+	 */
+	int getPid();
+
+	/**
+	 * Check if the monitored process has exited
+	 * @return true if the monitored process has exited
+	 */
+	boolean hasExited();
+
+	/**
+	 * Start watching the monitored process for exit
+	 */
+	void start();
+
+	/**
+	 * Set the listener notified as soon as the monitored process exits
+	 * The listener is called from a watcher thread, after final counters are available
+	 * @param listener Listener notified on exit
+	 */
+	void setExitListener(Runnable listener);
+
+	/**
+	 * Get the total CPU time of the exited process, including the children it waited for
+	 * @return CPU time in clock ticks, or -1 if unknown
+	 */
+	long getFinalCPUTime();
+
+	/**
+	 * Get the total bytes read from and written to disk by the exited process
+	 * @return An array with number of bytes read and written, or null if unknown
+	 * long[0] = read
+	 * long[1] = write
+	 */
+	long[] getFinalReadWriteBytes();
+
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcFileCache;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Tree of processes made of a root process and all its descendants
+ * New children are discovered incrementally on each update, from the children files
+ * of the threads of known processes, without scanning all of /proc
+ * On kernels without children files, children are found by their parent PID in /proc
+ * Processes are identified by their PID and start time, so that a reused PID is never taken for a member
+ * Exited members are kept, with the energy attributed to them while they ran, up to a maximum number
+ * beyond which the oldest ones are folded into a single total of energy
+ * When the energy of the most consuming commands is tracked, exited members are all folded on each update,
+ * to bound memory on trees with many short-lived processes
+ */
+public class ProcessTree {
+
+	/**
+	 * Subsystems to which energy is attributed
+	 */
+	public static final int CPU = 0;
+	public static final int DISK = 1;
+	public static final int MEMORY = 2;
+	private static final int SUBSYSTEMS = 3;
+
+	/**
+	 * A process of the tree
+	 */
+	public static class Member {
+
+		/**
+		 * PID and parent PID of the process
+		 */
+		private int pid, parentPid;
+
+		/**
+		 * Start time of the process, in clock ticks after boot
+		 */
+		private long startTime;
+
+		/**
+		 * Command name of the process
+		 */
+		private String name;
+
+		/**
+		 * Command line of the process, read when the process is discovered if commands are tracked by command line
+		 */
+		private String commandLine;
+
+		/**
+		 * Check if the process was already running when the tree was created
+		 * Counters of these processes are measured from their first read, others from zero
+		 */
+		private boolean initial;
+
+		/**
+		 * Check if the process exited
+		 */
+		private boolean exited;
+
+		/**
+		 * Share of the last sample of each subsystem used by the process, between 0 and 1
+		 */
+		private double[] shares;
+
+		/**
+		 * Energy attributed to the process for each subsystem, in joules
+		 */
+		private double[] energies;
+
+		/**
+		 * Last snapshot of the counters of the process taken by a collector, null if none
+		 */
+		private long[] snapshot;
+
+		/**
+		 * Check if the process was not read by the collector in the last tick
+		 */
+		private boolean stale;
+
+		/**
+		 * Constructor
+		 * @param pid PID of the process
+		 * @param parentPid PID of the parent process
+		 * @param startTime Start time of the process
+		 * @param name Command name of the process
+		 * @param initial Check if the process was already running when the tree was created
+		 */
+		private Member(int pid, int parentPid, long startTime, String name, boolean initial) {
+			this.pid = pid;
+			this.parentPid = parentPid;
+			this.startTime = startTime;
+			this.name = name;
+			this.initial = initial;
+			this.shares = new double[SUBSYSTEMS];
+			this.energies = new double[SUBSYSTEMS];
+		}
+
+		/**
+		 * @return the PID of the process
+		 */
+		public int getPid() {
+			return this.pid;
+		}
+
+		/**
+		 * @return the PID of the parent process
+		 */
+		public int getParentPid() {
+			return this.parentPid;
+		}
+
+		/**
+		 * @return the command name of the process
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the command line of the process, or its command name if it has none
+		 */
+		public String getCommandLine() {
+			if (this.commandLine == null)
+				this.commandLine = HeavyHitters.readCommandLine(this.pid, this.name);
+			return this.commandLine;
+		}
+
+		/**
+		 * @return true if the process was already running when the tree was created
+		 */
+		public boolean isInitial() {
+			return this.initial;
+		}
+
+		/**
+		 * @return true if the process exited
+		 */
+		public boolean isExited() {
+			return this.exited;
+		}
+
+		/**
+		 * Set the share of the last sample of a subsystem used by the process
+		 * @param subsystem Subsystem (CPU, DISK or MEMORY)
+		 * @param share Share of the sample, between 0 and 1
+		 */
+		public void setShare(int subsystem, double share) {
+			this.shares[subsystem] = share;
+		}
+
+		/**
+		 * Set the snapshot of the counters of the process in the last tick
+		 * @param snapshot Fields of the snapshot, or null if the process was not read in the tick
+		 */
+		void setSnapshot(long[] snapshot) {
+			this.stale = snapshot == null;
+			if (snapshot != null)
+				this.snapshot = snapshot;
+		}
+
+		/**
+		 * @param field Field of the snapshot (TreeCollector.CPU_TIME, READ_BYTES, WRITE_BYTES or MEMORY)
+		 * @return the value of the field in the last tick, or -1 if it is stale or cannot be read
+		 */
+		public long getSnapshot(int field) {
+			return this.stale || this.snapshot == null ? -1 : this.snapshot[field];
+		}
+
+		/**
+		 * @param field Field of the snapshot (TreeCollector.CPU_TIME, READ_BYTES, WRITE_BYTES or MEMORY)
+		 * @return the value of the field in the last tick the process was read, or -1 if it was never read or cannot be read
+		 */
+		public long getLastSnapshot(int field) {
+			return this.snapshot == null ? -1 : this.snapshot[field];
+		}
+
+		/**
+		 * @param subsystem Subsystem (CPU, DISK or MEMORY)
+		 * @return the energy attributed to the process for the subsystem, in joules
+		 */
+		public double getEnergy(int subsystem) {
+			return this.energies[subsystem];
+		}
+
+		/**
+		 * @return the energy attributed to the process for all subsystems, in joules
+		 */
+		public double getTotalEnergy() {
+			double result = 0;
+			for (double energy : this.energies) {
+				result += energy;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * PID of the root process
+	 */
+	private int rootPid;
+
+	/**
+	 * All members, by PID, including exited ones until their PID is reused by a new member
+	 */
+	private Map<Integer, Member> members;
+
+	/**
+	 * All members in order of discovery, except folded ones
+	 */
+	private List<Member> history;
+
+	/**
+	 * Number of exited members in history
+	 */
+	private int exitedCount;
+
+	/**
+	 * Maximum number of exited members in history, beyond which the oldest ones are folded
+	 */
+	private int maxExited;
+
+	/**
+	 * Number of folded members, and energy attributed to them for each subsystem, in joules
+	 */
+	private int foldedCount;
+	private double[] foldedEnergies;
+
+	/**
+	 * Running members
+	 */
+	private List<Member> liveMembers;
+
+	/**
+	 * Check if children files are available, otherwise children are found by parent PID
+	 */
+	private boolean childrenFiles;
+
+	/**
+	 * Check if the tree has been updated at least once
+	 */
+	private boolean updated;
+
+	/**
+	 * Tokenizer reused to parse stat and children files
+	 * Files are read without the cache of open handles, as discovery reads the children file of each thread of members,
+	 * and the stat files of all processes on kernels without children files, which would evict the handles of sensors
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Approximate energy of the most consuming commands, or null if not tracked
+	 */
+	private HeavyHitters heavyHitters;
+
+	/**
+	 * Check if commands are tracked by command line, or else by executable name
+	 */
+	private boolean commandLineKeys;
+
+	/**
+	 * Parallel reader of the counters of running members on each update, or null if sensors read them
+	 */
+	private TreeCollector collector;
+
+	/**
+	 * Constructor
+	 * @param rootPid PID of the root process
+	 */
+	public ProcessTree(int rootPid) {
+		this.rootPid = rootPid;
+		this.members = new HashMap<>();
+		this.history = new ArrayList<>();
+		this.liveMembers = new ArrayList<>();
+		this.maxExited = Integer.MAX_VALUE;
+		this.foldedEnergies = new double[SUBSYSTEMS];
+		this.tokenizer = new ProcTokenizer(512);
+		this.childrenFiles = new File("/proc/" + rootPid + "/task/" + rootPid + "/children").exists();
+		if (!this.childrenFiles)
+			Main.LOGGER.log(Level.CONFIG, "Children files unavailable, finding child processes by parent PID");
+	}
+
+	/**
+	 * Remove exited members and add new children of running members
+	 * The first update discovers the processes already running
+	 * With a collector, the counters of running members are then read for the sensors
+	 */
+	public void update() {
+		boolean initial = !this.updated;
+		if (initial) {
+			this.updated = true;
+			long startTime = this.readStartTime(this.rootPid);
+			if (startTime < 0)
+				return;
+			this.addMember(this.rootPid, 0, startTime, true);
+		}
+
+		// Remove exited members, whose PID is gone or reused
+		for (int i = this.liveMembers.size() - 1; i >= 0; i--) {
+			Member member = this.liveMembers.get(i);
+			if (this.readStartTime(member.pid) != member.startTime) {
+				member.exited = true;
+				this.exitedCount++;
+				this.liveMembers.remove(i);
+				ProcFileCache.getDefault().invalidateAll("/proc/" + member.pid + "/");
+			}
+		}
+		// Energy of exited members is kept by heavy hitters only, and otherwise folded down to half the maximum,
+		// so that history is compacted once for many exits
+		if (this.heavyHitters != null && this.exitedCount > 0)
+			this.foldExited(0);
+		else if (this.exitedCount > this.maxExited)
+			this.foldExited(this.maxExited / 2);
+
+		if (this.childrenFiles)
+			this.discoverFromChildrenFiles(initial);
+		else
+			this.discoverFromParentPids(initial);
+
+		if (this.collector != null)
+			this.collector.collect(this.liveMembers);
+	}
+
+	/**
+	 * Add new children listed in the children files of the threads of running members
+	 * New members are searched for children too, so whole new subtrees are found in one update
+	 * @param initial Check if discovered processes were already running when the tree was created
+	 */
+	private void discoverFromChildrenFiles(boolean initial) {
+		Deque<Member> queue = new ArrayDeque<>(this.liveMembers);
+		while (!queue.isEmpty()) {
+			Member parent = queue.poll();
+			String[] tasks = new File("/proc/" + parent.pid + "/task").list();
+			if (tasks == null)
+				continue;
+
+			for (String task : tasks) {
+				try {
+					this.tokenizer.loadOnce("/proc/" + parent.pid + "/task/" + task + "/children");
+				} catch (IOException e) {
+					// Thread exited
+					continue;
+				}
+
+				// Children are separated by spaces, such as: 2843 2851
+				List<Integer> children = new ArrayList<>();
+				try {
+					while (!this.tokenizer.isAtEndOfLine()) {
+						children.add((int) this.tokenizer.nextLong());
+					}
+				} catch (IOException e) {
+					Main.LOGGER.log(Level.WARNING, e.getMessage());
+				}
+
+				for (int child : children) {
+					Member existing = this.members.get(child);
+					if (existing != null && !existing.exited)
+						continue;
+					long startTime = this.readStartTime(child);
+					if (startTime < 0 || (existing != null && existing.startTime == startTime))
+						continue;
+					queue.add(this.addMember(child, parent.pid, startTime, initial));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fold the oldest exited members into the total of folded members, in one pass over history
+	 * @param kept Number of exited members kept in history
+	 */
+	private void foldExited(int kept) {
+		int toFold = this.exitedCount - kept;
+		List<Member> remaining = new ArrayList<>(this.history.size() - toFold);
+		for (Member member : this.history) {
+			if (toFold > 0 && member.exited) {
+				for (int i = 0; i < SUBSYSTEMS; i++) {
+					this.foldedEnergies[i] += member.energies[i];
+				}
+				if (this.members.get(member.pid) == member)
+					this.members.remove(member.pid);
+				this.foldedCount++;
+				this.exitedCount--;
+				toFold--;
+			} else {
+				remaining.add(member);
+			}
+		}
+		this.history = remaining;
+	}
+
+	/**
+	 * Add new processes whose parent is a running member, found by scanning /proc
+	 * Used on kernels without children files
+	 * @param initial Check if discovered processes were already running when the tree was created
+	 */
+	private void discoverFromParentPids(boolean initial) {
+		String[] entries = new File("/proc").list();
+		if (entries == null)
+			return;
+
+		// Parent and start time of all processes not in the tree
+		List<long[]> candidates = new ArrayList<>();
+		for (String entry : entries) {
+			if (entry.isEmpty() || !Character.isDigit(entry.charAt(0)))
+				continue;
+			int pid = Integer.parseInt(entry);
+			Member existing = this.members.get(pid);
+			if (existing != null && !existing.exited)
+				continue;
+
+			try {
+				this.tokenizer.loadOnce("/proc/" + pid + "/stat");
+				this.tokenizer.seekStatField(ProcTokenizer.STAT_PPID);
+				long parentPid = this.tokenizer.nextLong();
+				this.tokenizer.seekStatField(ProcTokenizer.STAT_STARTTIME);
+				long startTime = this.tokenizer.nextLong();
+				if (existing == null || existing.startTime != startTime)
+					candidates.add(new long[] { pid, parentPid, startTime });
+			} catch (IOException e) {
+				// Process exited
+			}
+		}
+
+		// Add candidates until no more is a child of a member, as children may be listed before their parent
+		boolean added = true;
+		while (added) {
+			added = false;
+			for (int i = candidates.size() - 1; i >= 0; i--) {
+				long[] candidate = candidates.get(i);
+				Member parent = this.members.get((int) candidate[1]);
+				if (parent != null && !parent.exited) {
+					this.addMember((int) candidate[0], (int) candidate[1], candidate[2], initial);
+					candidates.remove(i);
+					added = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add a running process to the tree
+	 * @param pid PID of the process
+	 * @param parentPid PID of the parent process
+	 * @param startTime Start time of the process
+	 * @param initial Check if the process was already running when the tree was created
+	 * @return the new member
+	 */
+	private Member addMember(int pid, int parentPid, long startTime, boolean initial) {
+		String name = "";
+		try {
+			this.tokenizer.loadOnce("/proc/" + pid + "/stat");
+			name = this.tokenizer.statComm();
+		} catch (IOException e) {
+			// Process exited, it is removed on next update
+		}
+
+		Member member = new Member(pid, parentPid, startTime, name, initial);
+		// Processes started after the tree are read before they exit, others when energy is first attributed to them
+		if (this.heavyHitters != null && this.commandLineKeys && !initial)
+			member.getCommandLine();
+		this.members.put(pid, member);
+		this.history.add(member);
+		this.liveMembers.add(member);
+		return member;
+	}
+
+	/**
+	 * @param pid PID of a process
+	 * @return the start time of the process in clock ticks after boot, or -1 if it does not exist or is a zombie
+	 */
+	private long readStartTime(int pid) {
+		try {
+			this.tokenizer.loadOnce("/proc/" + pid + "/stat");
+			char state = this.tokenizer.statState();
+			if (state == 'Z' || state == 'X')
+				return -1;
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_STARTTIME);
+			return this.tokenizer.nextLong();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Attribute the energy of a sample of a subsystem to running members, by their share of the sample
+	 * @param subsystem Subsystem (CPU, DISK or MEMORY)
+	 * @param energy Energy of the sample, in joules
+	 */
+	public void attributeEnergy(int subsystem, double energy) {
+		for (Member member : this.liveMembers) {
+			member.energies[subsystem] += energy * member.shares[subsystem];
+			if (this.heavyHitters != null)
+				this.heavyHitters.add(this.commandLineKeys ? member.getCommandLine() : member.name, energy * member.shares[subsystem]);
+		}
+	}
+
+	/**
+	 * Track the energy of the most consuming commands, and fold exited members as they exit
+	 * @param heavyHitters Approximate energy of the most consuming commands
+	 * @param commandLineKeys Check if commands are tracked by command line, or else by executable name
+	 */
+	public void setHeavyHitters(HeavyHitters heavyHitters, boolean commandLineKeys) {
+		this.heavyHitters = heavyHitters;
+		this.commandLineKeys = commandLineKeys;
+	}
+
+	/**
+	 * @return the approximate energy of the most consuming commands, or null if not tracked
+	 */
+	public HeavyHitters getHeavyHitters() {
+		return this.heavyHitters;
+	}
+
+	/**
+	 * Bound the number of exited members kept with their own energy
+	 * @param maxExited Maximum number of exited members, beyond which the oldest ones are folded into a single total
+	 */
+	public void setMaxExited(int maxExited) {
+		this.maxExited = Math.max(maxExited, 0);
+	}
+
+	/**
+	 * Read the counters of running members in parallel on each update, instead of one after another in sensors
+	 * @param collector Parallel reader of the counters of running members
+	 */
+	public void setCollector(TreeCollector collector) {
+		this.collector = collector;
+	}
+
+	/**
+	 * @return the parallel reader of the counters of running members, or null if sensors read them
+	 */
+	public TreeCollector getCollector() {
+		return this.collector;
+	}
+
+	/**
+	 * @param pid PID of a process
+	 * @return the running member with this PID, or null if none
+	 */
+	public Member getLiveMember(int pid) {
+		Member member = this.members.get(pid);
+		return member == null || member.exited ? null : member;
+	}
+
+	/**
+	 * @return the running members, to be read by sensors
+	 */
+	public List<Member> getLiveMembers() {
+		return this.liveMembers;
+	}
+
+	/**
+	 * @return all members ever discovered except folded ones, only running members if heavy hitters are tracked, by decreasing energy
+	 */
+	public List<Member> getMembersByEnergy() {
+		List<Member> result = new ArrayList<>(this.history);
+		Collections.sort(result, new Comparator<Member>() {
+			@Override
+			public int compare(Member m1, Member m2) {
+				return Double.compare(m2.getTotalEnergy(), m1.getTotalEnergy());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the number of members ever discovered except folded ones, only running members if heavy hitters are tracked
+	 */
+	public int size() {
+		return this.history.size();
+	}
+
+	/**
+	 * @return the number of exited members folded into a single total
+	 */
+	public int getFoldedCount() {
+		return this.foldedCount;
+	}
+
+	/**
+	 * @param subsystem Subsystem (CPU, DISK or MEMORY)
+	 * @return the energy attributed to folded members for the subsystem, in joules
+	 */
+	public double getFoldedEnergy(int subsystem) {
+		return this.foldedEnergies[subsystem];
+	}
+
+}
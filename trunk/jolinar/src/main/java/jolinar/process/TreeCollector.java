@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.process;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+
+/**
+ * Parallel reader of the counters of the running members of a tree, gathered into one snapshot per tick
+ * The files of each member are read in their own task, on virtual threads when the JVM has them,
+ * or else on a bounded pool of threads, so that blocking procfs reads of many members overlap
+ * Members whose reads are not done by the deadline of the tick are stale for this tick:
+ * their counters are taken on a later tick, and a member still being read is not read again meanwhile,
+ * so that a process blocked in the kernel holds at most one thread
+ */
+public class TreeCollector {
+
+	/**
+	 * Fields of a snapshot of a member
+	 * CPU time of the process and the children it waited for in clock ticks, bytes read and written, and resident set size in kB
+	 */
+	public static final int CPU_TIME = 0;
+	public static final int READ_BYTES = 1;
+	public static final int WRITE_BYTES = 2;
+	public static final int MEMORY = 3;
+	private static final int FIELDS = 4;
+
+	/**
+	 * Prefix of the resident set size line of status files
+	 */
+	private static final byte[] VM_RSS = "VmRSS:".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Executor of the reads of members
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Check if reads run on virtual threads
+	 */
+	private boolean virtualThreads;
+
+	/**
+	 * Maximum time waited for the reads of a tick, in nanoseconds
+	 */
+	private long deadline;
+
+	/**
+	 * Check if stat, io and status files are read
+	 */
+	private boolean readCPU, readDisk, readMemory;
+
+	/**
+	 * Members being read, possibly from a previous tick
+	 */
+	private Set<ProcessTree.Member> inFlight;
+
+	/**
+	 * Number of ticks and of members found stale
+	 */
+	private long ticks, staleReads;
+
+	/**
+	 * Constructor
+	 * @param threads Number of threads reading members when virtual threads are not available
+	 * @param deadline Maximum time waited for the reads of a tick, in milliseconds
+	 * @param readCPU Check if the CPU time of members is read, from stat files
+	 * @param readDisk Check if the bytes read and written by members are read, from io files
+	 * @param readMemory Check if the resident set size of members is read, from status files
+	 */
+	public TreeCollector(int threads, long deadline, boolean readCPU, boolean readDisk, boolean readMemory) {
+		this.deadline = TimeUnit.MILLISECONDS.toNanos(Math.max(deadline, 1));
+		this.readCPU = readCPU;
+		this.readDisk = readDisk;
+		this.readMemory = readMemory;
+		this.inFlight = Collections.newSetFromMap(new ConcurrentHashMap<ProcessTree.Member, Boolean>());
+
+		this.executor = newVirtualThreadExecutor();
+		this.virtualThreads = this.executor != null;
+		if (this.executor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "jolinar-collector-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Create an executor starting a virtual thread per task, found by reflection as it needs Java 21 or later
+	 * @return the executor, or null if virtual threads are not available
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return a description of the threads reading members
+	 */
+	public String describe() {
+		return this.virtualThreads ? "virtual threads" : "a pool of threads";
+	}
+
+	/**
+	 * Read the running members and give each one its snapshot of the tick
+	 * Returns when all members are read, or at the deadline, leaving members not read yet stale
+	 * @param members Running members of the tree
+	 */
+	public void collect(List<ProcessTree.Member> members) {
+		int size = members.size();
+		// Results of a tick are never written once the tick is gathered, as late reads write in the results of their own tick
+		final AtomicReferenceArray<long[]> results = new AtomicReferenceArray<>(size);
+		final CountDownLatch latch = new CountDownLatch(size);
+		for (int i = 0; i < size; i++) {
+			final ProcessTree.Member member = members.get(i);
+			final int index = i;
+			if (!this.inFlight.add(member)) {
+				// Still being read since a previous tick
+				latch.countDown();
+				continue;
+			}
+
+			try {
+				this.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							results.set(index, read(member.getPid()));
+						} finally {
+							inFlight.remove(member);
+							latch.countDown();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				this.inFlight.remove(member);
+				latch.countDown();
+			}
+		}
+
+		try {
+			latch.await(this.deadline, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		int stale = 0;
+		for (int i = 0; i < size; i++) {
+			long[] result = results.get(i);
+			members.get(i).setSnapshot(result);
+			if (result == null)
+				stale++;
+		}
+		if (stale > 0 && this.staleReads == 0)
+			Main.LOGGER.log(Level.WARNING, stale + " processes not read within " + TimeUnit.NANOSECONDS.toMillis(this.deadline) + " ms, their counters are taken on later ticks");
+		this.staleReads += stale;
+		this.ticks++;
+	}
+
+	/**
+	 * Read the files of a process
+	 * Runs on the threads of the executor, with its own tokenizer
+	 * Files are opened for this read only: the shared cache of open handles would be too small for the files of
+	 * many members, and would make reads wait for each other on its lock
+	 * @param pid PID of the process
+	 * @return the fields of the snapshot of the process, -1 for fields that cannot be read
+	 */
+	private long[] read(int pid) {
+		long[] result = new long[FIELDS];
+		for (int i = 0; i < FIELDS; i++) {
+			result[i] = -1;
+		}
+
+		ProcTokenizer tokenizer = new ProcTokenizer(2048);
+		try {
+			if (this.readCPU) {
+				try {
+					tokenizer.loadOnce("/proc/" + pid + "/stat");
+					tokenizer.seekStatField(ProcTokenizer.STAT_UTIME);
+					result[CPU_TIME] = tokenizer.nextLong() + tokenizer.nextLong() + tokenizer.nextLong() + tokenizer.nextLong();
+				} catch (IOException e) {
+					// Process exited since the last update of the tree
+				}
+			}
+			if (this.readDisk) {
+				try {
+					long[] readWriteBytes = new long[2];
+					tokenizer.loadOnce("/proc/" + pid + "/io");
+					tokenizer.ioReadWriteBytes(readWriteBytes);
+					result[READ_BYTES] = readWriteBytes[0];
+					result[WRITE_BYTES] = readWriteBytes[1];
+				} catch (IOException e) {
+					// Process exited, or is not readable
+				}
+			}
+			if (this.readMemory) {
+				try {
+					// Line is similar to: VmRSS:	    6740 kB
+					tokenizer.loadOnce("/proc/" + pid + "/status");
+					result[MEMORY] = tokenizer.seekLine(VM_RSS) ? tokenizer.nextLong() : 0;
+				} catch (IOException e) {
+					// Process exited since the last update of the tree
+				}
+			}
+		} finally {
+			tokenizer.release();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of ticks collected
+	 */
+	public long getTicks() {
+		return this.ticks;
+	}
+
+	/**
+	 * @return the number of members found stale, over all ticks
+	 */
+	public long getStaleReads() {
+		return this.staleReads;
+	}
+
+	/**
+	 * Stop the threads reading members
+	 */
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Controller of the sampling period in adaptive sampling mode
+ * The period is shortened when consecutive power readings vary a lot, to catch short bursts,
+ * and lengthened when readings are flat, to save sampling work on idle phases
+ * The period never goes below what keeps Jolinar's own CPU time within a budget of one core
+ */
+public class AdaptiveSamplingController {
+
+	/**
+	 * Coefficient of variation of power above which the period is shortened
+	 */
+	private static final double HIGH_VARIATION = 0.25;
+
+	/**
+	 * Coefficient of variation of power below which the period is lengthened
+	 */
+	private static final double LOW_VARIATION = 0.05;
+
+	/**
+	 * Smoothing factor of the moving averages
+	 */
+	private static final double ALPHA = 0.3;
+
+	/**
+	 * Minimum and maximum sampling periods, in nanoseconds
+	 */
+	private long minPeriod, maxPeriod;
+
+	/**
+	 * Maximum share of one core that Jolinar may use, between 0 and 1
+	 */
+	private double overheadBudget;
+
+	/**
+	 * Moving average and variance of power readings
+	 */
+	private double meanPower, variancePower;
+
+	/**
+	 * Moving average of Jolinar's CPU time per sample, in nanoseconds
+	 */
+	private double samplingCost;
+
+	/**
+	 * Moving average of Jolinar's share of one core
+	 */
+	private double overhead;
+
+	/**
+	 * Jolinar's CPU time at the previous sample, in nanoseconds
+	 */
+	private long previousCPUTime;
+
+	/**
+	 * Check if the controller has received a sample
+	 */
+	private boolean firstRun;
+
+	/**
+	 * Constructor
+	 * @param minPeriod Minimum sampling period, in nanoseconds
+	 * @param maxPeriod Maximum sampling period, in nanoseconds
+	 * @param overheadBudget Maximum share of one core that Jolinar may use, between 0 and 1
+	 */
+	public AdaptiveSamplingController(long minPeriod, long maxPeriod, double overheadBudget) {
+		this.minPeriod = Math.max(minPeriod, SamplingScheduler.MIN_PERIOD);
+		this.maxPeriod = Math.max(maxPeriod, this.minPeriod);
+		this.overheadBudget = overheadBudget;
+		this.previousCPUTime = getCPUTime();
+		this.firstRun = true;
+	}
+
+	/**
+	 * Compute the next sampling period from the last sample
+	 * @param period Current sampling period, in nanoseconds
+	 * @param power Power reading of the last sample, in watts
+	 * @param interval Measured interval of the last sample, in nanoseconds
+	 * @return the next sampling period, in nanoseconds
+	 */
+	public long update(long period, double power, long interval) {
+		// Jolinar's own CPU time since previous sample
+		long cpuTime = getCPUTime();
+		long cost = cpuTime - this.previousCPUTime;
+		this.previousCPUTime = cpuTime;
+
+		if (this.firstRun) {
+			this.meanPower = power;
+			this.variancePower = 0;
+			this.samplingCost = cost;
+			this.overhead = interval > 0 ? (double) cost / interval : 0;
+			this.firstRun = false;
+			return this.clamp(period);
+		}
+
+		// Exponentially weighted mean and variance of power
+		double deviation = power - this.meanPower;
+		this.meanPower += ALPHA * deviation;
+		this.variancePower = (1 - ALPHA) * (this.variancePower + ALPHA * deviation * deviation);
+		this.samplingCost += ALPHA * (cost - this.samplingCost);
+		if (interval > 0)
+			this.overhead += ALPHA * ((double) cost / interval - this.overhead);
+
+		double variation = this.meanPower > 0 ? Math.sqrt(this.variancePower) / this.meanPower : 0;
+
+		long next = period;
+		if (this.overhead > this.overheadBudget)
+			next = period * 2;
+		else if (variation > HIGH_VARIATION)
+			next = period / 2;
+		else if (variation < LOW_VARIATION)
+			next = period + period / 2;
+
+		return this.clamp(next);
+	}
+
+	/**
+	 * @param period Sampling period, in nanoseconds
+	 * @return the period within the configured bounds and the overhead budget
+	 */
+	private long clamp(long period) {
+		// Shortest period for which the sampling cost stays within budget
+		long budgetPeriod = this.overheadBudget > 0 ? (long) (this.samplingCost / this.overheadBudget) : 0;
+		long min = Math.min(Math.max(this.minPeriod, budgetPeriod), this.maxPeriod);
+		return Math.max(min, Math.min(period, this.maxPeriod));
+	}
+
+	/**
+	 * @return Jolinar's share of one core, averaged over recent samples
+	 */
+	public double getOverhead() {
+		return this.overhead;
+	}
+
+	/**
+	 * Get the CPU time used by Jolinar
+	 * Uses the process CPU time when the JVM exposes it, otherwise the CPU time of the sampling thread
+	 * @return CPU time, in nanoseconds
+	 */
+	public static long getCPUTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			long time = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+			if (time >= 0)
+				return time;
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+}
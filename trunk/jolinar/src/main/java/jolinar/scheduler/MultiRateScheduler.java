@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scheduler of several power channels, each sampled at its own rate
+ * The scheduler sleeps until the earliest deadline of its channels, then samples all due channels
+ * It can be woken up early from another thread, for example when the monitored process exits
+ * A tick listener can run before each set of samples, for example to refresh the monitored processes
+ */
+public class MultiRateScheduler {
+
+	/**
+	 * Scheduled channels
+	 */
+	private List<PowerChannel> channels;
+
+	/**
+	 * Listener run before each set of samples, null if none
+	 */
+	private Runnable tickListener;
+
+	/**
+	 * Time of the last wake up, in System.nanoTime() time
+	 */
+	private long lastWakeTime;
+
+	/**
+	 * Thread waiting for the next deadline, null if none
+	 */
+	private volatile Thread waitingThread;
+
+	/**
+	 * Check if a wake up was requested
+	 */
+	private volatile boolean wakeUpRequested;
+
+	/**
+	 * Constructor
+	 */
+	public MultiRateScheduler() {
+		this.channels = new ArrayList<>();
+	}
+
+	/**
+	 * @param channel Channel to schedule
+	 */
+	public void addChannel(PowerChannel channel) {
+		this.channels.add(channel);
+	}
+
+	/**
+	 * @return the scheduled channels
+	 */
+	public List<PowerChannel> getChannels() {
+		return this.channels;
+	}
+
+	/**
+	 * @param tickListener Listener run before each set of samples, including the baseline read
+	 */
+	public void setTickListener(Runnable tickListener) {
+		this.tickListener = tickListener;
+	}
+
+	/**
+	 * Run the tick listener, if any
+	 */
+	private void tick() {
+		if (this.tickListener != null)
+			this.tickListener.run();
+	}
+
+	/**
+	 * Read the baseline of all channels and start their deadlines
+	 */
+	public void start() {
+		this.tick();
+		for (PowerChannel channel : this.channels) {
+			channel.prime();
+		}
+
+		// Channels share the same start, so that channels with the same period are sampled together
+		long now = System.nanoTime();
+		for (PowerChannel channel : this.channels) {
+			channel.start(now);
+		}
+		this.lastWakeTime = now;
+	}
+
+	/**
+	 * @return the earliest deadline of all channels, in System.nanoTime() time
+	 */
+	private long getNextDeadline() {
+		long result = Long.MAX_VALUE;
+		boolean first = true;
+		for (PowerChannel channel : this.channels) {
+			long deadline = channel.getScheduler().getNextDeadline();
+			if (first || deadline - result < 0) {
+				result = deadline;
+				first = false;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Wait for the earliest deadline, then sample all due channels
+	 * Returns early without sampling if a wake up is requested
+	 * @return the time elapsed since the previous wake up, in nanoseconds, or 0 if woken up early
+	 */
+	public long awaitNextSamples() {
+		long deadline = this.getNextDeadline();
+		long now = System.nanoTime();
+		this.waitingThread = Thread.currentThread();
+		while (now - deadline < 0 && !this.wakeUpRequested) {
+			LockSupport.parkNanos(this, deadline - now);
+			now = System.nanoTime();
+		}
+		this.waitingThread = null;
+
+		if (this.wakeUpRequested) {
+			this.wakeUpRequested = false;
+			return 0;
+		}
+
+		this.tick();
+		for (PowerChannel channel : this.channels) {
+			if (channel.getScheduler().isDue(now))
+				channel.sample(now);
+		}
+
+		long elapsed = now - this.lastWakeTime;
+		this.lastWakeTime = now;
+		return elapsed;
+	}
+
+	/**
+	 * Sample all channels now, whatever their deadlines
+	 * Used to close the current interval of all channels, for example when the monitored process exits
+	 * @return the time elapsed since the previous wake up, in nanoseconds
+	 */
+	public long sampleAll() {
+		this.tick();
+		long now = System.nanoTime();
+		for (PowerChannel channel : this.channels) {
+			channel.sample(now);
+		}
+
+		long elapsed = now - this.lastWakeTime;
+		this.lastWakeTime = now;
+		return elapsed;
+	}
+
+	/**
+	 * Wake up the thread waiting for the next deadline
+	 * Can be called from any thread
+	 */
+	public void wakeUp() {
+		this.wakeUpRequested = true;
+		Thread thread = this.waitingThread;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+}
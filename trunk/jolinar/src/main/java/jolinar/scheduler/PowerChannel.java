@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.scheduler;
+
+/**
+ * A subsystem (CPU, disk, memory) sampled at its own rate
+ * Each sample integrates power over the measured interval since the previous sample of the channel,
+ * and the last power is held until the next sample, so that series sampled at different rates
+ * can be combined at any time
+ */
+public class PowerChannel {
+
+	/**
+	 * Name of the subsystem
+	 */
+	private String name;
+
+	/**
+	 * Source of power readings
+	 */
+	private PowerSource source;
+
+	/**
+	 * Fixed-rate scheduler of the channel samples
+	 */
+	private SamplingScheduler scheduler;
+
+	/**
+	 * Controller of the sampling period in adaptive mode, null in fixed mode
+	 */
+	private AdaptiveSamplingController adaptiveController;
+
+	/**
+	 * Listener notified after each sample, null if none
+	 */
+	private SampleListener sampleListener;
+
+	/**
+	 * Power of the last sample, in watts
+	 */
+	private double power;
+
+	/**
+	 * Energy integrated over all samples, in joules
+	 */
+	private double energy;
+
+	/**
+	 * Constructor
+	 * @param name Name of the subsystem
+	 * @param source Source of power readings
+	 * @param period Sampling period, in nanoseconds
+	 */
+	public PowerChannel(String name, PowerSource source, long period) {
+		this.name = name;
+		this.source = source;
+		this.scheduler = new SamplingScheduler(period);
+	}
+
+	/**
+	 * Enable adaptive sampling for the channel
+	 * @param adaptiveController Controller of the sampling period
+	 */
+	public void setAdaptiveController(AdaptiveSamplingController adaptiveController) {
+		this.adaptiveController = adaptiveController;
+	}
+
+	/**
+	 * @param sampleListener Listener notified after each sample, with the energy of the sample
+	 */
+	public void setSampleListener(SampleListener sampleListener) {
+		this.sampleListener = sampleListener;
+	}
+
+	/**
+	 * First read of the source, giving the baseline of the first interval
+	 */
+	public void prime() {
+		this.source.getPower();
+	}
+
+	/**
+	 * Start the deadlines of the channel
+	 * @param now Current time, in System.nanoTime() time
+	 */
+	public void start(long now) {
+		this.scheduler.start(now);
+	}
+
+	/**
+	 * Sample the source and integrate its power over the measured interval
+	 * @param now Time of the sample, in System.nanoTime() time
+	 * @return the measured interval, in nanoseconds
+	 */
+	public long sample(long now) {
+		long interval = this.scheduler.sample(now);
+		this.power = this.source.getPower();
+		double sampleEnergy = this.power * interval / 1000000000.0;
+		this.energy += sampleEnergy;
+		if (this.sampleListener != null)
+			this.sampleListener.sampled(this, sampleEnergy, interval);
+
+		if (this.adaptiveController != null)
+			this.scheduler.setPeriod(this.adaptiveController.update(this.scheduler.getPeriod(), this.power, interval));
+
+		return interval;
+	}
+
+	/**
+	 * @return the name of the subsystem
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the fixed-rate scheduler of the channel
+	 */
+	public SamplingScheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * @return the power of the last sample, in watts
+	 */
+	public double getPower() {
+		return this.power;
+	}
+
+	/**
+	 * @return the energy integrated over all samples, in joules
+	 */
+	public double getEnergy() {
+		return this.energy;
+	}
+
+	/**
+	 * @return the controller of the sampling period, null in fixed mode
+	 */
+	public AdaptiveSamplingController getAdaptiveController() {
+		return this.adaptiveController;
+	}
+
+}
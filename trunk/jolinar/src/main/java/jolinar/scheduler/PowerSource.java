@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.scheduler;
+
+public interface PowerSource {
+
+	/**
+	 * Get the power of the monitored subsystem, averaged since the previous call
+	 * @return Power in watts
+	 */
+	double getPower();
+
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.scheduler;
+
+public interface SampleListener {
+
+	/**
+	 * Called after each sample of a channel
+	 * @param channel Sampled channel
+	 * @param energy Energy integrated over the sample, in joules
+	 * @param interval Measured interval of the sample, in nanoseconds
+	 */
+	void sampled(PowerChannel channel, double energy, long interval);
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.scheduler;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-rate sampling scheduler
+ * Samples are aligned on a fixed grid of deadlines (start + n * period), so that time spent
+ * in sensors does not make the sampling period drift
+ * The real time elapsed between two samples is measured with a monotonic clock,
+ * and should be used to integrate power into energy
+ */
+public class SamplingScheduler {
+
+	/**
+	 * Minimum sampling period, in nanoseconds (1 ms)
+	 */
+	public static final long MIN_PERIOD = 1000000L;
+
+	/**
+	 * Sampling period, in nanoseconds
+	 */
+	private long period;
+
+	/**
+	 * Deadline of the next sample, in System.nanoTime() time
+	 */
+	private long nextDeadline;
+
+	/**
+	 * Time of the last sample, in System.nanoTime() time
+	 */
+	private long lastSampleTime;
+
+	/**
+	 * Number of samples taken
+	 */
+	private long samples;
+
+	/**
+	 * Number of ticks skipped because a sample came too late
+	 */
+	private long missedTicks;
+
+	/**
+	 * Number of samples that came later than a full period after their deadline
+	 */
+	private long overruns;
+
+	/**
+	 * Constructor
+	 * @param period Sampling period, in nanoseconds
+	 */
+	public SamplingScheduler(long period) {
+		this.period = Math.max(period, MIN_PERIOD);
+		this.start(System.nanoTime());
+	}
+
+	/**
+	 * Start the grid of deadlines
+	 * @param now Current time, in System.nanoTime() time
+	 */
+	public void start(long now) {
+		this.lastSampleTime = now;
+		this.nextDeadline = now + this.period;
+	}
+
+	/**
+	 * Change the sampling period
+	 * The grid of deadlines is restarted from the last sample
+	 * @param period Sampling period, in nanoseconds
+	 */
+	public void setPeriod(long period) {
+		this.period = Math.max(period, MIN_PERIOD);
+		this.nextDeadline = this.lastSampleTime + this.period;
+	}
+
+	/**
+	 * @return the sampling period, in nanoseconds
+	 */
+	public long getPeriod() {
+		return this.period;
+	}
+
+	/**
+	 * @return the deadline of the next sample, in System.nanoTime() time
+	 */
+	public long getNextDeadline() {
+		return this.nextDeadline;
+	}
+
+	/**
+	 * @param now Current time, in System.nanoTime() time
+	 * @return true if the next sample is due
+	 */
+	public boolean isDue(long now) {
+		return now - this.nextDeadline >= 0;
+	}
+
+	/**
+	 * Wait for the deadline of the next sample, then record the sample
+	 * @return the time elapsed since the previous sample, in nanoseconds
+	 */
+	public long awaitNextSample() {
+		long now = System.nanoTime();
+		while (!this.isDue(now)) {
+			LockSupport.parkNanos(this.nextDeadline - now);
+			now = System.nanoTime();
+		}
+		return this.sample(now);
+	}
+
+	/**
+	 * Record a sample and move to the next deadline of the grid
+	 * Deadlines that already passed are counted as missed ticks
+	 * @param now Time of the sample, in System.nanoTime() time
+	 * @return the time elapsed since the previous sample, in nanoseconds
+	 */
+	public long sample(long now) {
+		long late = now - this.nextDeadline;
+		if (late >= this.period) {
+			long skipped = late / this.period;
+			this.missedTicks += skipped;
+			this.overruns++;
+			this.nextDeadline += skipped * this.period;
+		}
+		this.nextDeadline += this.period;
+
+		long elapsed = now - this.lastSampleTime;
+		this.lastSampleTime = now;
+		this.samples++;
+		return elapsed;
+	}
+
+	/**
+	 * @return the time of the last sample, in System.nanoTime() time
+	 */
+	public long getLastSampleTime() {
+		return this.lastSampleTime;
+	}
+
+	/**
+	 * @return the number of samples taken
+	 */
+	public long getSamples() {
+		return this.samples;
+	}
+
+	/**
+	 * @return the number of ticks skipped because a sample came too late
+	 */
+	public long getMissedTicks() {
+		return this.missedTicks;
+	}
+
+	/**
+	 * @return the number of samples that came later than a full period after their deadline
+	 */
+	public long getOverruns() {
+		return this.overruns;
+	}
+
+}
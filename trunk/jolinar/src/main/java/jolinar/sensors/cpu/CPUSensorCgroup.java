@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CPU sensor of a cgroup v2, such as a container or a systemd unit
+ * The CPU time of all processes of the cgroup and its descendants is read from cpu.stat,
+ * against the CPU time of all cores of the host from /proc/stat,
+ * so that the share does not depend on the CPU quota of the cgroup
+ */
+public class CPUSensorCgroup implements CPUSensorsInterface {
+
+	/**
+	 * Prefix of the line of cpu.stat holding the CPU time of the cgroup
+	 */
+	private static final byte[] USAGE_USEC = "usage_usec".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Microseconds per clock tick of /proc/stat, USER_HZ being 100 on Linux
+	 */
+	private static final long MICROS_PER_TICK = 10000L;
+
+	/**
+	 * Path to the cpu.stat file of the cgroup
+	 */
+	private String cpuStatPath;
+
+	/**
+	 * CPU time spent in each frequency since the previous cycle, by frequency ordinal
+	 * Reused between cycles
+	 */
+	private double[] timeInFrequencies;
+
+	/**
+	 * Reader of the time spent in each frequency, from the first available source of frequencies
+	 */
+	private FrequencyReadersInterface frequencyReader;
+
+	/**
+	 * Previous CPU total time, in clock ticks
+	 * Previous CPU time of the cgroup, in microseconds
+	 */
+	private long previousTotalTime, previousUsage;
+
+	/**
+	 * Check if monitoring has already started or not
+	 */
+	private boolean firstRun;
+
+	/**
+	 * Tokenizer reused to parse stat files on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param cgroupPath Directory of the cgroup
+	 * @param frequencyModel The model of CPU frequencies
+	 */
+	public CPUSensorCgroup(String cgroupPath, FrequencyModel frequencyModel) {
+		this.cpuStatPath = cgroupPath + "/cpu.stat";
+		this.timeInFrequencies = new double[frequencyModel.size()];
+		this.frequencyReader = FrequencyReaders.create(frequencyModel);
+		this.firstRun = true;
+		this.tokenizer = new ProcTokenizer();
+	}
+
+	@Override
+	public double getProcessCPUUsagePercentage() {
+		long totalTime = CPUSensorDVFS.readTotalTime(this.tokenizer);
+		long totalDiff = totalTime - this.previousTotalTime;
+		this.previousTotalTime = totalTime;
+
+		long usageDiff = 0;
+		try {
+			// Line is similar to: usage_usec 1942845
+			this.tokenizer.load(this.cpuStatPath);
+			if (this.tokenizer.seekLine(USAGE_USEC)) {
+				long usage = this.tokenizer.nextLong();
+				usageDiff = Math.max(usage - this.previousUsage, 0);
+				this.previousUsage = usage;
+			}
+		} catch (IOException e) {
+			// Cgroup removed
+		}
+
+		if (this.firstRun || totalDiff <= 0) {
+			this.firstRun = false;
+			return 0.0;
+		}
+		return Math.min(((double) usageDiff) / (totalDiff * MICROS_PER_TICK), 1.0);
+	}
+
+	@Override
+	public double[] getTimeInFrequencies() {
+		this.frequencyReader.read(this.timeInFrequencies);
+		return this.timeInFrequencies;
+	}
+
+}
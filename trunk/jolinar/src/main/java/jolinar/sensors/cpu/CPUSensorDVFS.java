@@ -11,36 +11,41 @@
 package jolinar.sensors.cpu;
 
 import jolinar.Main;
+import jolinar.process.ProcessExitAware;
+import jolinar.process.ProcessMonitorsInterface;
+import jolinar.sensors.proc.ProcTokenizer;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
 
-public class CPUSensorDVFS implements CPUSensorsInterface {
+public class CPUSensorDVFS implements CPUSensorsInterface, ProcessExitAware {
 
 	/**
-	 * Number of cores in CPU
+	 * Process PID to monitor
 	 */
-	private int numberOfCores;
+	private int pid;
 
 	/**
-	 * Process PID to monitor
+	 * CPU time spent in each frequency since the previous cycle, by frequency ordinal
+	 * Reused between cycles
 	 */
-	private int pid;
+	private double[] timeInFrequencies;
 
 	/**
-	 * Map of CPU frequencies and the CPU time they spend in each
+	 * Reader of the time spent in each frequency, from the first available source of frequencies
 	 */
-	private Map<Double, Double> timeInFrequencies;
+	private FrequencyReadersInterface frequencyReader;
 
 	/**
 	 * Previous CPU total time
 	 * Previous CPU PID time
 	 */
-	private Long previousTotalTime, previousPIDTime;
+	private long previousTotalTime, previousPIDTime;
 
 	/**
 	 * Check if monitoring has already started or not
@@ -49,42 +54,196 @@ public class CPUSensorDVFS implements CPUSensorsInterface {
 	private boolean firstRun;
 
 	/**
-	 * Path to the time_in_state file where CPU time data is stored
+	 * Path to the stat file where total CPU time is stored
 	 * Linux-systems only
 	 */
-	private String timeInStatePath = "/sys/devices/system/cpu/cpu%?/cpufreq/stats/time_in_state";
+	private static final String PROC_STAT_PATH = "/proc/stat";
+
+	/**
+	 * Path to the file listing online CPUs
+	 */
+	private static final String ONLINE_PATH = "/sys/devices/system/cpu/online";
+
+	/**
+	 * Nanoseconds per clock tick of stat files, USER_HZ being 100 on Linux
+	 */
+	private static final long NANOS_PER_TICK = 10000000L;
+
+	/**
+	 * Path to the stat file where process PID CPU time is stored
+	 * Linux-systems only
+	 */
+	private String pidStatPath;
+
+	/**
+	 * Tokenizer reused to parse stat files on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Final CPU PID time once the process exited, -1 while it runs
+	 */
+	private long finalPIDTime;
+
+	/**
+	 * Groups of threads whose CPU time is measured, null if threads are not monitored
+	 */
+	private ThreadGroups threadGroups;
+
+	/**
+	 * Path to the directory of the threads of the process
+	 */
+	private String taskPath;
+
+	/**
+	 * Start time, previous CPU time and cycle of the last read of each running thread, by thread ID
+	 */
+	private Map<Integer, long[]> previousThreadTimes;
+
+	/**
+	 * CPU time and share of the process CPU time of each thread group since the previous cycle
+	 * Reused between cycles
+	 */
+	private long[] threadGroupDiffs;
+	private double[] threadGroupShares;
+
+	/**
+	 * Number of cycles in which threads were read
+	 */
+	private long threadCycles;
+
+	/**
+	 * CPU time of the process on each core since the previous cycle, by CPU number
+	 * Null if the frequency mix of the whole system is used
+	 */
+	private long[] cpuDiffs;
+
+	/**
+	 * CPU time spent in each frequency by the cores used by the process, by frequency ordinal
+	 * Reused between cycles
+	 */
+	private double[] coreTimeInFrequencies;
+
+	/**
+	 * Run time in nanoseconds and cycle of the last read of each running thread, by thread ID
+	 * Null if CPU time is measured in clock ticks of stat files
+	 */
+	private Map<Integer, long[]> previousRunTimes;
+
+	/**
+	 * Number of cycles in which run times were read
+	 */
+	private long runTimeCycles;
+
+	/**
+	 * CPU time of the process since the first cycle, in nanoseconds, counted in clock ticks and measured from run times
+	 * Run times miss threads starting and exiting between two cycles, and the last slice of exiting threads,
+	 * which clock ticks of the process count, so the measured time never stays below the time in clock ticks
+	 */
+	private long tickRunTime, measuredRunTime;
+
+	/**
+	 * CPU time of the children waited for by the process, in clock ticks, at the last and previous cycles
+	 */
+	private long childrenPIDTime, previousChildrenPIDTime;
+
+	/**
+	 * Wall-clock time of the previous cycle, in nanoseconds
+	 */
+	private long previousWallTime;
+
+	/**
+	 * Number of online CPUs, and hash of the online CPUs file when they were counted
+	 */
+	private int onlineCPUs;
+	private long onlineHash;
 
 	/**
 	 * Constructor
 	 * @param pid Process PID to monitor
-	 * @param frequenciesMap The map of frequencies and voltage
+	 * @param frequencyModel The model of CPU frequencies
 	 */
-	public CPUSensorDVFS(int pid, Map<Double, Double> frequenciesMap) {
+	public CPUSensorDVFS(int pid, FrequencyModel frequencyModel) {
 		this.pid = pid;
-		this.timeInFrequencies = frequenciesMap;
-		this.numberOfCores = Runtime.getRuntime().availableProcessors();
-		this.previousPIDTime = 0L;
-		this.previousTotalTime = 0L;
+		this.timeInFrequencies = new double[frequencyModel.size()];
+		this.frequencyReader = FrequencyReaders.create(frequencyModel);
+		this.previousPIDTime = 0;
+		this.previousTotalTime = 0;
 		this.firstRun = true;
+		this.pidStatPath = "/proc/" + pid + "/stat";
+		this.taskPath = "/proc/" + pid + "/task";
+		this.tokenizer = new ProcTokenizer();
+		this.finalPIDTime = -1;
+	}
+
+	/**
+	 * Measure the CPU time of threads of the process, by group of threads
+	 * @param threadGroups Groups of threads
+	 */
+	public void setThreadGroups(ThreadGroups threadGroups) {
+		this.threadGroups = threadGroups;
+		this.threadGroupDiffs = new long[threadGroups.size()];
+		this.threadGroupShares = new double[threadGroups.size()];
+		this.monitorThreads();
+	}
+
+	/**
+	 * Use the frequency mix of the cores the process ran on, instead of the mix of the whole system
+	 * The core of each thread is the last one it ran on in each cycle
+	 */
+	public void setCoreAttribution() {
+		// Processors available to Jolinar can be fewer than the cores of the host, as in containers
+		this.cpuDiffs = new long[this.countOnlineCPUs()];
+		this.coreTimeInFrequencies = new double[this.timeInFrequencies.length];
+		this.monitorThreads();
+	}
+
+	/**
+	 * Start reading threads of the process on each cycle
+	 */
+	private void monitorThreads() {
+		if (this.previousThreadTimes == null)
+			this.previousThreadTimes = new HashMap<>();
+	}
+
+	/**
+	 * Measure the CPU time of the process in nanoseconds from the schedstat files of its threads,
+	 * against the wall-clock time of all online CPUs, instead of in clock ticks of stat files
+	 * Clock ticks are too coarse for short sampling periods, where usage jumps between zero and large values
+	 * @return true if schedstat files are available, false if clock ticks are still used
+	 */
+	public boolean useSchedstat() {
+		if (!new File("/proc/" + this.pid + "/schedstat").canRead())
+			return false;
+		this.previousRunTimes = new HashMap<>();
+		return true;
 	}
 
 	/**
 	 * Get CPU total time
 	 * @return CPU total time
 	 */
-	private Long getTotalTime() {
-		Long result = 0L;
+	private long getTotalTime() {
+		return readTotalTime(this.tokenizer);
+	}
 
-		try (BufferedReader br = new BufferedReader(new FileReader("/proc/stat"))) {
-			// Read first line where total cpu time is, and split it
+	/**
+	 * Read CPU total time, summed over all cores
+	 * @param tokenizer Tokenizer used to parse /proc/stat
+	 * @return CPU total time, or 0 if it cannot be read
+	 */
+	static long readTotalTime(ProcTokenizer tokenizer) {
+		long result = 0;
+
+		try {
+			// Read first line where total cpu time is
 			// Example of line: cpu  586994 19195 123650 2813135 107565 3 2017 0 0 0
-			String[] firstLine = br.readLine().split(" ");
+			tokenizer.load(PROC_STAT_PATH);
 
-			// Sum up all values, except first one which is "cpu" (index 0)
-			// Index 1 is another space, so start at index 2
-			for (int i=2; i<11; i++) {
-				result += Long.valueOf(firstLine[i]);
-			}
+			// Sum up the first 9 values, after "cpu"
+			// guest_nice is not summed as it is already accounted in nice
+			tokenizer.skipToken();
+			result = tokenizer.sumLine(9);
 		} catch (Exception e) {
 			Main.LOGGER.log(Level.WARNING, e.getMessage());
 		}
@@ -96,18 +255,26 @@ public class CPUSensorDVFS implements CPUSensorsInterface {
 	 * Get CPU PID time
 	 * @return CPU PID time
 	 */
-	private Long getPIDTime() {
-		Long result = 0L;
+	private long getPIDTime() {
+		// Keep previous time if the file cannot be read, so that no negative time is measured
+		long result = this.previousPIDTime;
 
-		try (BufferedReader br = new BufferedReader(new FileReader("/proc/" + this.pid + "/stat"))) {
-			// Read first line where cpu time is, and split it
-			// We only need utime and stime (user and system time)
-			// Example of line: 25152 (java) S 12564 1685 1685 0 -1 1077960704 155132 412 478 2 11617 1816 0 0 20 0 61 0 2001362 3813126144 99139 18446744073709551615 4194304 4196724 140736365379696 140736365362368 140056419567211 0 0 4096 16796879 18446744073709551615 0 0 17 2 0 0 3 0 0 6294960 6295616 13131776 140736365387745 140736365388341 140736365388341 140736365391821 0
-			String[] firstLine = br.readLine().split(" ");
+		// Process files are gone once it exited
+		if (this.finalPIDTime >= 0)
+			return this.finalPIDTime;
 
-			// Get utime and stime and sum them together
-			// utime is at index 13, stime at index 14
-			result = Long.valueOf(firstLine[13]) + Long.valueOf(firstLine[14]);
+		try {
+			// We need utime and stime (user and system time), and cutime and cstime of the children waited for,
+			// so that children exiting between two cycles are accounted
+			// Example of line: 25152 (java) S 12564 1685 1685 0 -1 1077960704 155132 412 478 2 11617 1816 0 0 20 0 61 0 2001362 3813126144 99139 18446744073709551615 4194304 4196724 140736365379696 140736365362368 140056419567211 0 0 4096 16796879 18446744073709551615 0 0 17 2 0 0 3 0 0 6294960 6295616 13131776 140736365387745 140736365388341 140736365388341 140736365391821 0
+			this.tokenizer.load(this.pidStatPath);
+
+			// Get utime, stime, cutime and cstime and sum them together
+			// Fields are counted after the command name, which can contain spaces and parentheses
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_UTIME);
+			long time = this.tokenizer.nextLong() + this.tokenizer.nextLong();
+			this.childrenPIDTime = this.tokenizer.nextLong() + this.tokenizer.nextLong();
+			result = time + this.childrenPIDTime;
 		} catch (Exception e) {
 			Main.LOGGER.log(Level.WARNING, e.getMessage());
 		}
@@ -117,71 +284,264 @@ public class CPUSensorDVFS implements CPUSensorsInterface {
 
 	@Override
 	public double getProcessCPUUsagePercentage() {
-		Long totalTime = this.getTotalTime();
-		Long pidTime = this.getPIDTime();
-
-		Long totalDiff = totalTime - this.previousTotalTime;
-		Long pidDiff = pidTime - this.previousPIDTime;
+		long pidTime = this.getPIDTime();
+		long pidDiff = pidTime - this.previousPIDTime;
 
 		double result = 0.0;
 
-		if (!this.firstRun)
-			result = ((double) pidDiff) / totalDiff; // / this.numberOfCores;
-		else
+		if (this.previousRunTimes != null) {
+			result = this.getRunTimeUsage(pidDiff);
+		} else {
+			long totalTime = this.getTotalTime();
+			long totalDiff = totalTime - this.previousTotalTime;
+			result = ((double) pidDiff) / totalDiff;
+			this.previousTotalTime = totalTime;
+		}
+
+		// Nothing is measured before the first cycle
+		if (this.firstRun) {
+			result = 0.0;
 			this.firstRun = false;
+		}
+
+		if (this.previousThreadTimes != null && this.finalPIDTime < 0)
+			this.readThreads(pidDiff);
 
 		this.previousPIDTime = pidTime;
-		this.previousTotalTime = totalTime;
 
 		return result;
 	}
 
-	@Override
-	public Map<Double, Double> getTimeInFrequencies() {
-		Map<Double, Double> timeInFrequenciesUpdated = new HashMap<Double, Double>();
-		Map<Double, Double> timeInFrequenciesNew = this.getTimeInFrequenciesFromPath();
-
-		for (Map.Entry<Double, Double> entry : this.timeInFrequencies.entrySet()) {
-			Double frequency = entry.getKey();
-			Double timeFreq = entry.getValue();
-			if (timeInFrequenciesNew.get(frequency) != null)
-				timeInFrequenciesUpdated.put(frequency, timeFreq - timeInFrequenciesNew.get(frequency));
-			else
-				timeInFrequenciesUpdated.put(frequency, timeFreq);
+	/**
+	 * Get the CPU usage of the process from the run time of its threads, in nanoseconds
+	 * Children waited for are only accounted in clock ticks, as their run time is not in schedstat files
+	 * The run time is never below the CPU time of the process in clock ticks, which includes threads exited between two cycles
+	 * @param pidDiff CPU time of the process since the previous cycle, in clock ticks
+	 * @return the run time of the process over the wall-clock time of all online CPUs, since the previous cycle
+	 */
+	private double getRunTimeUsage(long pidDiff) {
+		long wallTime = System.nanoTime();
+		long runDiff;
+		if (this.finalPIDTime >= 0) {
+			// Thread files are gone once the process exited, its remaining time is only known in clock ticks
+			runDiff = pidDiff * NANOS_PER_TICK;
+		} else {
+			runDiff = this.readRunTimes() + (this.childrenPIDTime - this.previousChildrenPIDTime) * NANOS_PER_TICK;
+			this.previousChildrenPIDTime = this.childrenPIDTime;
+		}
+
+		// Time of threads missed by run times is caught up from clock ticks, at most one tick late
+		if (this.firstRun) {
+			runDiff = 0;
+		} else {
+			this.tickRunTime += pidDiff * NANOS_PER_TICK;
+			runDiff = Math.max(runDiff, this.tickRunTime - this.measuredRunTime);
+			this.measuredRunTime += runDiff;
 		}
 
-		return timeInFrequenciesUpdated;
+		long wallDiff = wallTime - this.previousWallTime;
+		this.previousWallTime = wallTime;
+		int cpus = this.countOnlineCPUs();
+		return wallDiff > 0 ? (double) runDiff / ((double) wallDiff * cpus) : 0.0;
 	}
 
 	/**
-	 * Calculate CPU time for each frequency
-	 * This function only report the data contained in @timeInStatePath file
-	 * This means, this is an aggregated data since start of CPU monitoring by Linux (and not for monitoring cycle)
-	 * @return Map of CPU frequencies and the CPU time spend for each
+	 * Read the run time of each thread of the process
+	 * Time of threads exiting between two cycles is accounted up to their last read
+	 * @return the run time of the threads since the previous cycle, in nanoseconds
 	 */
-	private Map<Double, Double> getTimeInFrequenciesFromPath() {
-		Map<Double, Double> timeInFrequenciesCache = new HashMap<Double, Double>();
+	private long readRunTimes() {
+		String[] tasks = new File(this.taskPath).list();
+		if (tasks == null)
+			return 0; // Process exited
+
+		boolean firstCycle = this.runTimeCycles == 0;
+		this.runTimeCycles++;
+
+		long result = 0;
+		for (String task : tasks) {
+			long runTime;
+			try {
+				// Run time and wait time in nanoseconds, and number of time slices
+				// Example of line: 1753382 204519 12
+				// Threads may be too many to keep their files open without evicting the handles of other sensors
+				this.tokenizer.loadOnce(this.taskPath + "/" + task + "/schedstat");
+				runTime = this.tokenizer.nextLong();
+			} catch (IOException e) {
+				// Thread exited
+				continue;
+			}
+
+			// Threads started since the previous cycle are measured from zero
+			Integer tid = Integer.valueOf(task);
+			long[] previous = this.previousRunTimes.get(tid);
+			if (previous == null) {
+				previous = new long[] { firstCycle ? runTime : 0, 0 };
+				this.previousRunTimes.put(tid, previous);
+			}
+
+			// A lower run time is a new thread reusing the ID
+			result += runTime >= previous[0] ? runTime - previous[0] : runTime;
+			previous[0] = runTime;
+			previous[1] = this.runTimeCycles;
+		}
+
+		// Forget exited threads, so that thread churn does not grow memory
+		Iterator<long[]> iterator = this.previousRunTimes.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next()[1] != this.runTimeCycles)
+				iterator.remove();
+		}
 
-		for (int i = 0; i<this.numberOfCores; i++) {
-			String timeInStatePathReal = timeInStatePath.replace("%?", "" + i);
+		return result;
+	}
 
-			try (BufferedReader br = new BufferedReader(new FileReader(timeInStatePathReal))) {
-				String currentLine = "";
-				while ((currentLine = br.readLine()) != null) {
-					String[] freqAndtime = currentLine.split(" ");
-					Double frequency = Double.valueOf(freqAndtime[0]);
-					Double timeFreq = Double.valueOf(freqAndtime[1]);
+	/**
+	 * Count online CPUs, again only if the online CPUs file changed
+	 * @return the number of online CPUs
+	 */
+	private int countOnlineCPUs() {
+		long hash;
+		try {
+			this.tokenizer.load(ONLINE_PATH);
+			hash = this.tokenizer.contentHash();
+		} catch (IOException e) {
+			hash = 0;
+		}
 
-					if (timeInFrequenciesCache.containsKey(frequency))
-						timeInFrequenciesCache.put(frequency, timeInFrequenciesCache.get(frequency) + timeFreq);
-					else
-						timeInFrequenciesCache.put(frequency, timeFreq);
+		if (this.onlineCPUs == 0 || hash != this.onlineHash) {
+			this.onlineHash = hash;
+			this.onlineCPUs = TimeInStateReader.readCPUList(ONLINE_PATH).size();
+			if (this.onlineCPUs == 0)
+				this.onlineCPUs = Runtime.getRuntime().availableProcessors();
+		}
+		return this.onlineCPUs;
+	}
+
+	/**
+	 * Read the CPU time of each thread of the process, and compute the share of each thread group
+	 * and the CPU time on each core
+	 * Time of the process spent in no running thread, such as exited threads and children, goes to the last group
+	 * @param pidDiff CPU time of the process since the previous cycle
+	 */
+	private void readThreads(long pidDiff) {
+		String[] tasks = new File(this.taskPath).list();
+		if (tasks == null)
+			return; // Process exited, keep previous shares
+
+		boolean firstCycle = this.threadCycles == 0;
+		this.threadCycles++;
+		if (this.threadGroups != null)
+			Arrays.fill(this.threadGroupDiffs, 0);
+		if (this.cpuDiffs != null)
+			Arrays.fill(this.cpuDiffs, 0);
+
+		long threadsDiff = 0;
+		for (String task : tasks) {
+			String name = null;
+			long time, startTime;
+			int processor = -1;
+			try {
+				// Same format as the process stat file, with the thread name as command name
+				// Read without the cache of open handles, as for schedstat files
+				this.tokenizer.loadOnce(this.taskPath + "/" + task + "/stat");
+				if (this.threadGroups != null)
+					name = this.tokenizer.statComm();
+				this.tokenizer.seekStatField(ProcTokenizer.STAT_UTIME);
+				time = this.tokenizer.nextLong() + this.tokenizer.nextLong();
+				this.tokenizer.seekStatField(ProcTokenizer.STAT_STARTTIME);
+				startTime = this.tokenizer.nextLong();
+				if (this.cpuDiffs != null) {
+					this.tokenizer.seekStatField(ProcTokenizer.STAT_PROCESSOR);
+					processor = (int) this.tokenizer.nextLong();
 				}
 			} catch (IOException e) {
-				Main.LOGGER.log(Level.WARNING, e.getMessage());
+				// Thread exited
+				continue;
+			}
+
+			// Threads started since the previous cycle are measured from zero
+			Integer tid = Integer.valueOf(task);
+			long[] previous = this.previousThreadTimes.get(tid);
+			if (previous == null || previous[0] != startTime) {
+				previous = new long[] { startTime, firstCycle ? time : 0, 0 };
+				this.previousThreadTimes.put(tid, previous);
+			}
+
+			long diff = Math.max(time - previous[1], 0);
+			previous[1] = time;
+			previous[2] = this.threadCycles;
+			threadsDiff += diff;
+
+			if (this.threadGroups != null)
+				this.threadGroupDiffs[this.threadGroups.classify(name)] += diff;
+			if (processor >= 0) {
+				if (processor >= this.cpuDiffs.length)
+					this.cpuDiffs = Arrays.copyOf(this.cpuDiffs, processor + 1);
+				this.cpuDiffs[processor] += diff;
 			}
 		}
 
-		return timeInFrequenciesCache;
+		// Forget exited threads, so that thread churn does not grow memory
+		Iterator<long[]> iterator = this.previousThreadTimes.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next()[2] != this.threadCycles)
+				iterator.remove();
+		}
+
+		if (this.threadGroups != null) {
+			int other = this.threadGroups.size() - 1;
+			this.threadGroupDiffs[other] += Math.max(pidDiff - threadsDiff, 0);
+			long total = Math.max(pidDiff, threadsDiff);
+			for (int i = 0; i < this.threadGroupShares.length; i++) {
+				this.threadGroupShares[i] = total > 0 ? (double) this.threadGroupDiffs[i] / total : 0;
+			}
+		}
+	}
+
+	/**
+	 * Get the share of the process CPU usage of each thread group, in the last cycle
+	 * @return the share of each group, by group index, or null if threads are not monitored
+	 * Reused between cycles
+	 */
+	public double[] getThreadGroupShares() {
+		return this.threadGroupShares;
+	}
+
+	@Override
+	public double[] getTimeInFrequencies() {
+		this.frequencyReader.read(this.timeInFrequencies);
+		if (this.cpuDiffs == null)
+			return this.timeInFrequencies;
+
+		// Frequency mix of each core, weighted by the CPU time of the process on the core
+		Arrays.fill(this.coreTimeInFrequencies, 0);
+		boolean attributed = false;
+		for (int cpu = 0; cpu < this.cpuDiffs.length; cpu++) {
+			double[] cpuTimeInFrequencies = this.cpuDiffs[cpu] > 0 ? this.frequencyReader.getCPUTimeInFrequencies(cpu) : null;
+			if (cpuTimeInFrequencies == null)
+				continue;
+
+			double cpuTotalTime = 0;
+			for (double time : cpuTimeInFrequencies) {
+				cpuTotalTime += time;
+			}
+			if (cpuTotalTime <= 0)
+				continue;
+
+			for (int i = 0; i < cpuTimeInFrequencies.length; i++) {
+				this.coreTimeInFrequencies[i] += this.cpuDiffs[cpu] * cpuTimeInFrequencies[i] / cpuTotalTime;
+			}
+			attributed = true;
+		}
+
+		// Process did not run on a core with statistics in this cycle, use the mix of the whole system
+		return attributed ? this.coreTimeInFrequencies : this.timeInFrequencies;
+	}
+
+	@Override
+	public void processExited(ProcessMonitorsInterface monitor) {
+		// Final time can only grow from the last one read
+		this.finalPIDTime = Math.max(monitor.getFinalCPUTime(), this.previousPIDTime);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.util.logging.Level;
+
+/**
+ * Sensor of the CPU usage of the whole system, by all processes
+ * Idle and I/O wait time are not counted as usage
+ */
+public class CPUSensorSystem implements CPUSensorsInterface {
+
+	/**
+	 * Path to the stat file where total CPU time is stored
+	 */
+	private static final String PROC_STAT_PATH = "/proc/stat";
+
+	/**
+	 * Index of idle and iowait times in the cpu line of /proc/stat
+	 */
+	private static final int IDLE = 3, IOWAIT = 4;
+
+	/**
+	 * CPU time spent in each frequency since the previous cycle, by frequency ordinal
+	 * Reused between cycles
+	 */
+	private double[] timeInFrequencies;
+
+	/**
+	 * Reader of the time spent in each frequency, from the first available source of frequencies
+	 */
+	private FrequencyReadersInterface frequencyReader;
+
+	/**
+	 * Tokenizer reused to parse /proc/stat
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Previous busy and total CPU time, in clock ticks
+	 */
+	private long previousBusyTime, previousTotalTime;
+
+	/**
+	 * Check if monitoring has already started or not
+	 */
+	private boolean firstRun;
+
+	/**
+	 * Constructor
+	 * @param frequencyModel The model of CPU frequencies
+	 */
+	public CPUSensorSystem(FrequencyModel frequencyModel) {
+		this.timeInFrequencies = new double[frequencyModel.size()];
+		this.frequencyReader = FrequencyReaders.create(frequencyModel);
+		this.tokenizer = new ProcTokenizer();
+		this.firstRun = true;
+	}
+
+	/**
+	 * Calculate the CPU usage of all processes since the previous call
+	 * @return the busy CPU time over the total CPU time of all cores, between 0 and 1
+	 */
+	@Override
+	public double getProcessCPUUsagePercentage() {
+		long busyTime = 0, totalTime = 0;
+		try {
+			// Example of line: cpu  586994 19195 123650 2813135 107565 3 2017 0 0 0
+			// Sum user, nice, system, idle, iowait, irq, softirq and steal, guest times being already in user and nice
+			this.tokenizer.load(PROC_STAT_PATH);
+			this.tokenizer.skipToken();
+			for (int i = 0; i < 8; i++) {
+				long value = this.tokenizer.nextLong();
+				totalTime += value;
+				if (i != IDLE && i != IOWAIT)
+					busyTime += value;
+			}
+		} catch (Exception e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+			return 0.0;
+		}
+
+		long busyDiff = busyTime - this.previousBusyTime;
+		long totalDiff = totalTime - this.previousTotalTime;
+		this.previousBusyTime = busyTime;
+		this.previousTotalTime = totalTime;
+
+		if (this.firstRun) {
+			this.firstRun = false;
+			return 0.0;
+		}
+		return totalDiff > 0 ? (double) busyDiff / totalDiff : 0.0;
+	}
+
+	@Override
+	public double[] getTimeInFrequencies() {
+		this.frequencyReader.read(this.timeInFrequencies);
+		return this.timeInFrequencies;
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import jolinar.process.ProcessTree;
+import jolinar.process.TreeCollector;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CPU sensor of a tree of processes
+ * System-wide statistics are read once per cycle for the whole tree,
+ * and the CPU time of each running member is summed
+ * Each member's share of the tree CPU time is given to the tree, for the per-process breakdown
+ * The CPU time of a process includes the children it waited for, so that children exiting between
+ * two cycles are accounted, and the time already counted for an exited member is deducted from its parent
+ */
+public class CPUSensorTree implements CPUSensorsInterface {
+
+	/**
+	 * Tree of processes to monitor
+	 */
+	private ProcessTree tree;
+
+	/**
+	 * CPU time spent in each frequency since the previous cycle, by frequency ordinal
+	 * Reused between cycles
+	 */
+	private double[] timeInFrequencies;
+
+	/**
+	 * Reader of the time spent in each frequency, from the first available source of frequencies
+	 */
+	private FrequencyReadersInterface frequencyReader;
+
+	/**
+	 * Previous CPU total time
+	 */
+	private long previousTotalTime;
+
+	/**
+	 * Previous CPU time of each member,
+	 * followed by the CPU time of its exited children, to deduct from its CPU time
+	 */
+	private Map<ProcessTree.Member, long[]> previousPIDTimes;
+
+	/**
+	 * CPU time of each running member since the previous cycle, reused between cycles
+	 */
+	private long[] pidDiffs;
+
+	/**
+	 * Check if monitoring has already started or not
+	 */
+	private boolean firstRun;
+
+	/**
+	 * Tokenizer reused to parse stat files on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param tree Tree of processes to monitor
+	 * @param frequencyModel The model of CPU frequencies
+	 */
+	public CPUSensorTree(ProcessTree tree, FrequencyModel frequencyModel) {
+		this.tree = tree;
+		this.timeInFrequencies = new double[frequencyModel.size()];
+		this.frequencyReader = FrequencyReaders.create(frequencyModel);
+		this.previousPIDTimes = new HashMap<>();
+		this.pidDiffs = new long[16];
+		this.firstRun = true;
+		this.tokenizer = new ProcTokenizer();
+	}
+
+	/**
+	 * @param member Member of the tree
+	 * @return CPU time of the process and the children it waited for (utime, stime, cutime and cstime), or -1 if it cannot be read
+	 */
+	private long getPIDTime(ProcessTree.Member member) {
+		if (this.tree.getCollector() != null)
+			return member.getSnapshot(TreeCollector.CPU_TIME);
+		try {
+			this.tokenizer.load("/proc/" + member.getPid() + "/stat");
+			this.tokenizer.seekStatField(ProcTokenizer.STAT_UTIME);
+			return this.tokenizer.nextLong() + this.tokenizer.nextLong() + this.tokenizer.nextLong() + this.tokenizer.nextLong();
+		} catch (IOException e) {
+			// Process exited since the last update of the tree
+			return -1;
+		}
+	}
+
+	@Override
+	public double getProcessCPUUsagePercentage() {
+		long totalTime = CPUSensorDVFS.readTotalTime(this.tokenizer);
+		long totalDiff = totalTime - this.previousTotalTime;
+		this.previousTotalTime = totalTime;
+
+		List<ProcessTree.Member> members = this.tree.getLiveMembers();
+
+		// Forget exited members before reading times, as their time shows in the time of their parent once reaped
+		Iterator<Map.Entry<ProcessTree.Member, long[]>> iterator = this.previousPIDTimes.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<ProcessTree.Member, long[]> entry = iterator.next();
+			if (!entry.getKey().isExited())
+				continue;
+			iterator.remove();
+
+			long[] parent = this.previousPIDTimes.get(this.tree.getLiveMember(entry.getKey().getParentPid()));
+			if (parent != null)
+				parent[1] += entry.getValue()[0] + entry.getValue()[1];
+		}
+
+		if (this.pidDiffs.length < members.size())
+			this.pidDiffs = new long[members.size() * 2];
+
+		long treeDiff = 0;
+		for (int i = 0; i < members.size(); i++) {
+			ProcessTree.Member member = members.get(i);
+			long pidTime = this.getPIDTime(member);
+
+			// Processes started after the tree was created are measured from zero, others from their first read
+			long[] previous = this.previousPIDTimes.get(member);
+			if (previous == null && pidTime < 0 && member.isInitial()) {
+				this.pidDiffs[i] = 0;
+				continue;
+			}
+			if (previous == null) {
+				previous = new long[] { member.isInitial() ? Math.max(pidTime, 0) : 0, 0 };
+				this.previousPIDTimes.put(member, previous);
+			}
+
+			long diff = 0;
+			if (pidTime >= 0) {
+				// Time may drop below previous one until the parent reaps an exited child
+				pidTime -= previous[1];
+				diff = Math.max(pidTime - previous[0], 0);
+				previous[0] = Math.max(pidTime, previous[0]);
+			}
+			this.pidDiffs[i] = diff;
+			treeDiff += diff;
+		}
+
+		for (int i = 0; i < members.size(); i++) {
+			members.get(i).setShare(ProcessTree.CPU, treeDiff > 0 ? (double) this.pidDiffs[i] / treeDiff : 0);
+		}
+
+		if (this.firstRun || totalDiff <= 0) {
+			this.firstRun = false;
+			return 0.0;
+		}
+		return ((double) treeDiff) / totalDiff;
+	}
+
+	@Override
+	public double[] getTimeInFrequencies() {
+		this.frequencyReader.read(this.timeInFrequencies);
+		return this.timeInFrequencies;
+	}
+
+}
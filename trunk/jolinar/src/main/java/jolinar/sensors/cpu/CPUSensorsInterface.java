@@ -10,8 +10,6 @@
 
 package jolinar.sensors.cpu;
 
-import java.util.Map;
-
 public interface CPUSensorsInterface {
 
 	/**
@@ -22,9 +20,11 @@ public interface CPUSensorsInterface {
 	double getProcessCPUUsagePercentage();
 
 	/**
-	 * Calculate CPU time for each frequency
-	 * @return Map of CPU frequencies and the CPU time spend for each
+	 * Calculate CPU time spent in each frequency since the previous call
+	 * Called after getProcessCPUUsagePercentage in each cycle
+	 * @return Array of CPU time spent in each frequency, indexed by FrequencyModel ordinal
+	 * The array is reused between calls
 	 */
-	Map<Double, Double> getTimeInFrequencies();
+	double[] getTimeInFrequencies();
 
 }
\ No newline at end of file
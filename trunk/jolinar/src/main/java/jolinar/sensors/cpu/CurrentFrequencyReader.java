@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Reader of the CPU time spent in each frequency, built from the current frequency of each core
+ * sampled on each read, for systems without cpufreq statistics such as virtual machines and intel_pstate
+ * The frequency sampled at the end of an interval is taken for the whole interval
+ * Without any frequency data, each core is taken at the maximum frequency, so that power only depends on utilisation
+ * Linux-systems only
+ */
+public class CurrentFrequencyReader implements FrequencyReadersInterface {
+
+	/**
+	 * Sources of current frequencies
+	 * SCALING_CUR_FREQ: cpufreq scaling_cur_freq of each core, in kHz
+	 * CPUINFO: cpu MHz lines of /proc/cpuinfo
+	 * UTILISATION: no frequency data, each core at the maximum frequency
+	 */
+	public enum Source { SCALING_CUR_FREQ, CPUINFO, UTILISATION }
+
+	/**
+	 * Default path of the cpuinfo file
+	 */
+	public static final String DEFAULT_CPUINFO_PATH = "/proc/cpuinfo";
+
+	/**
+	 * Prefixes of the lines of /proc/cpuinfo
+	 */
+	private static final byte[] PROCESSOR = "processor".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CPU_MHZ = "cpu MHz".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Source of current frequencies
+	 */
+	private Source source;
+
+	/**
+	 * Sysfs directory of CPUs, and path to the file listing online CPUs
+	 */
+	private String cpuPath, onlinePath;
+
+	/**
+	 * Path of the cpuinfo file
+	 */
+	private String cpuinfoPath;
+
+	/**
+	 * Model of the CPU frequencies, giving the ordinal of each frequency
+	 */
+	private FrequencyModel frequencyModel;
+
+	/**
+	 * Path to the scaling_cur_freq file of each online CPU, by CPU number
+	 * Null for offline CPUs and CPUs whose file cannot be read
+	 */
+	private String[] curFreqPaths;
+
+	/**
+	 * Check if reading the cpuinfo file failed, so that it is not read again
+	 */
+	private boolean cpuinfoFailed;
+
+	/**
+	 * Current frequency of each CPU sampled in the last read, in kHz, by CPU number, 0 if unknown
+	 */
+	private long[] frequencies;
+
+	/**
+	 * Time spent in each frequency by each CPU in the last read, by CPU number then frequency ordinal
+	 */
+	private double[][] cpuDeltas;
+
+	/**
+	 * Hash of the online CPUs file when CPUs were discovered
+	 */
+	private long onlineHash;
+
+	/**
+	 * Check if CPUs have been discovered at least once
+	 */
+	private boolean discovered;
+
+	/**
+	 * Time of the previous read, in nanoseconds, 0 before the first read
+	 */
+	private long previousTime;
+
+	/**
+	 * Tokenizer reused to parse frequencies on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param cpuPath Sysfs directory of CPUs
+	 * @param cpuinfoPath Path of the cpuinfo file
+	 * @param source Source of current frequencies
+	 * @param frequencyModel The model of CPU frequencies
+	 */
+	public CurrentFrequencyReader(String cpuPath, String cpuinfoPath, Source source, FrequencyModel frequencyModel) {
+		this.source = source;
+		this.cpuPath = cpuPath;
+		this.onlinePath = cpuPath + "/online";
+		this.cpuinfoPath = cpuinfoPath;
+		this.frequencyModel = frequencyModel;
+		this.tokenizer = new ProcTokenizer(source == Source.CPUINFO ? 16384 : 64);
+		this.curFreqPaths = new String[0];
+		this.frequencies = new long[0];
+		this.cpuDeltas = new double[0][];
+	}
+
+	/**
+	 * Check if the source gives the frequency of at least one core
+	 * @return true if current frequencies can be read
+	 */
+	public boolean isAvailable() {
+		this.checkTopology();
+		if (this.source == Source.UTILISATION)
+			return this.frequencyModel.size() > 0;
+		if (this.source == Source.CPUINFO && !new File(this.cpuinfoPath).canRead())
+			return false;
+
+		this.sampleFrequencies();
+		for (long frequency : this.frequencies) {
+			if (frequency > 0)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void read(double[] timeInFrequencies) {
+		Arrays.fill(timeInFrequencies, 0);
+		this.checkTopology();
+		this.sampleFrequencies();
+
+		// Time since the previous read, in the 10 ms unit of time_in_state
+		long time = System.nanoTime();
+		double elapsed = this.previousTime == 0 ? 0 : (time - this.previousTime) / 10000000.0;
+		this.previousTime = time;
+
+		for (int cpu = 0; cpu < this.cpuDeltas.length; cpu++) {
+			if (this.cpuDeltas[cpu] == null)
+				continue;
+			Arrays.fill(this.cpuDeltas[cpu], 0);
+			if (this.frequencies[cpu] <= 0)
+				continue;
+
+			this.frequencyModel.distribute(this.frequencies[cpu], elapsed, this.cpuDeltas[cpu]);
+			for (int i = 0; i < timeInFrequencies.length; i++) {
+				timeInFrequencies[i] += this.cpuDeltas[cpu][i];
+			}
+		}
+	}
+
+	/**
+	 * Sample the current frequency of each online CPU
+	 */
+	private void sampleFrequencies() {
+		switch (this.source) {
+			case SCALING_CUR_FREQ:
+				for (int cpu = 0; cpu < this.curFreqPaths.length; cpu++) {
+					if (this.curFreqPaths[cpu] == null)
+						continue;
+					try {
+						// Example of line: 2601000
+						this.tokenizer.load(this.curFreqPaths[cpu]);
+						this.frequencies[cpu] = this.tokenizer.nextLong();
+					} catch (IOException e) {
+						// Not read again until CPUs are discovered again
+						Main.LOGGER.log(Level.INFO, "CPU frequency unavailable: " + this.curFreqPaths[cpu]);
+						this.curFreqPaths[cpu] = null;
+						this.frequencies[cpu] = 0;
+					}
+				}
+				break;
+			case CPUINFO:
+				if (this.cpuinfoFailed)
+					break;
+				try {
+					// Each processor has its block of lines, such as: processor	: 0 then cpu MHz		: 2601.000
+					this.tokenizer.load(this.cpuinfoPath);
+					while (this.tokenizer.seekLine(PROCESSOR)) {
+						this.tokenizer.skipToken();
+						int cpu = (int) this.tokenizer.nextLong();
+						if (!this.tokenizer.seekLine(CPU_MHZ))
+							break;
+						this.tokenizer.skipToken();
+						long frequency = this.tokenizer.nextLong() * 1000;
+						if (cpu >= 0 && cpu < this.frequencies.length && this.cpuDeltas[cpu] != null)
+							this.frequencies[cpu] = frequency;
+					}
+				} catch (IOException e) {
+					// Not read again, frequencies keep their last value
+					Main.LOGGER.log(Level.WARNING, "CPU frequencies unavailable: " + e.getMessage());
+					this.cpuinfoFailed = true;
+				}
+				break;
+			default:
+				// Each core at the maximum frequency
+				int max = this.frequencyModel.getMaxOrdinal();
+				for (int cpu = 0; cpu < this.frequencies.length; cpu++) {
+					this.frequencies[cpu] = this.cpuDeltas[cpu] != null && max >= 0 ? this.frequencyModel.getFrequency(max) : 0;
+				}
+		}
+	}
+
+	/**
+	 * Discover online CPUs again if they changed
+	 */
+	private void checkTopology() {
+		long hash;
+		try {
+			this.tokenizer.load(this.onlinePath);
+			hash = this.tokenizer.contentHash();
+		} catch (IOException e) {
+			hash = 0;
+		}
+
+		if (this.discovered && hash == this.onlineHash)
+			return;
+		this.onlineHash = hash;
+		this.discovered = true;
+
+		List<Integer> cpus = TimeInStateReader.readCPUList(this.onlinePath);
+		if (cpus.isEmpty()) {
+			// No sysfs, take all processors available to Jolinar
+			for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) {
+				cpus.add(cpu);
+			}
+		}
+
+		int size = 0;
+		for (int cpu : cpus) {
+			size = Math.max(size, cpu + 1);
+		}
+		this.curFreqPaths = new String[size];
+		this.frequencies = new long[size];
+		this.cpuDeltas = new double[size][];
+		for (int cpu : cpus) {
+			this.cpuDeltas[cpu] = new double[this.frequencyModel.size()];
+			String path = this.cpuPath + "/cpu" + cpu + "/cpufreq/scaling_cur_freq";
+			if (this.source == Source.SCALING_CUR_FREQ && new File(path).canRead())
+				this.curFreqPaths[cpu] = path;
+		}
+	}
+
+	@Override
+	public double[] getCPUTimeInFrequencies(int cpu) {
+		if (this.source == Source.UTILISATION || cpu < 0 || cpu >= this.cpuDeltas.length)
+			return null;
+		return this.cpuDeltas[cpu];
+	}
+
+}
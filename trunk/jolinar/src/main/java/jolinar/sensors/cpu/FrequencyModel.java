@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable model of the CPU frequencies and voltages
+ * Each configured frequency is mapped once to a dense ordinal, in ascending frequency order,
+ * so that sensors and formulas exchange per-frequency data as primitive arrays indexed by ordinal
+ */
+public final class FrequencyModel {
+
+	/**
+	 * Configured frequencies in kHz, in ascending order
+	 */
+	private final long[] frequencies;
+
+	/**
+	 * Voltage for each frequency, by ordinal
+	 */
+	private final double[] voltages;
+
+	/**
+	 * Constructor
+	 * @param frequenciesVoltages Map of CPU frequencies (in kHz) and their voltage
+	 */
+	public FrequencyModel(Map<Long, Double> frequenciesVoltages) {
+		TreeMap<Long, Double> sorted = new TreeMap<>(frequenciesVoltages);
+		this.frequencies = new long[sorted.size()];
+		this.voltages = new double[sorted.size()];
+		int i = 0;
+		for (Map.Entry<Long, Double> entry : sorted.entrySet()) {
+			this.frequencies[i] = entry.getKey();
+			this.voltages[i] = entry.getValue();
+			i++;
+		}
+	}
+
+	/**
+	 * Parse the cpu-frequencies-voltages configuration value
+	 * @param frequenciesVoltages Frequencies and voltages, in the format frequency;voltage;frequency;voltage
+	 * @return the frequency model
+	 */
+	public static FrequencyModel parse(String frequenciesVoltages) {
+		String[] values = frequenciesVoltages.split(";");
+		Map<Long, Double> result = new TreeMap<>();
+		for (int i = 0; i + 1 < values.length; i += 2) {
+			result.put(Long.valueOf(values[i].trim()), Double.valueOf(values[i + 1].trim()));
+		}
+		return new FrequencyModel(result);
+	}
+
+	/**
+	 * @return the number of configured frequencies
+	 */
+	public int size() {
+		return this.frequencies.length;
+	}
+
+	/**
+	 * @param ordinal Frequency ordinal
+	 * @return the frequency in kHz
+	 */
+	public long getFrequency(int ordinal) {
+		return this.frequencies[ordinal];
+	}
+
+	/**
+	 * @param ordinal Frequency ordinal
+	 * @return the voltage of the frequency
+	 */
+	public double getVoltage(int ordinal) {
+		return this.voltages[ordinal];
+	}
+
+	/**
+	 * @param frequency Frequency in kHz
+	 * @return the ordinal of the frequency, or -1 if it is not configured
+	 */
+	public int getOrdinal(long frequency) {
+		int ordinal = Arrays.binarySearch(this.frequencies, frequency);
+		return ordinal < 0 ? -1 : ordinal;
+	}
+
+	/**
+	 * Add time spent at a frequency that may not be configured, such as one sampled from scaling_cur_freq
+	 * The time is split between the two nearest configured frequencies by linear interpolation,
+	 * or goes to the nearest configured frequency outside the configured range
+	 * @param frequency Frequency in kHz
+	 * @param time Time spent at the frequency
+	 * @param timeInFrequencies Array of time spent in each frequency, by frequency ordinal
+	 */
+	public void distribute(long frequency, double time, double[] timeInFrequencies) {
+		int max = this.getMaxOrdinal();
+		if (max < 0)
+			return;
+
+		int index = Arrays.binarySearch(this.frequencies, frequency);
+		if (index >= 0) {
+			timeInFrequencies[index] += time;
+			return;
+		}
+
+		int upper = -index - 1;
+		if (upper == 0) {
+			timeInFrequencies[0] += time;
+		} else if (upper > max) {
+			timeInFrequencies[max] += time;
+		} else {
+			double weight = (double) (frequency - this.frequencies[upper - 1]) / (this.frequencies[upper] - this.frequencies[upper - 1]);
+			timeInFrequencies[upper - 1] += time * (1 - weight);
+			timeInFrequencies[upper] += time * weight;
+		}
+	}
+
+	/**
+	 * @return the ordinal of the maximum frequency, or -1 if no frequency is configured
+	 */
+	public int getMaxOrdinal() {
+		return this.frequencies.length - 1;
+	}
+
+}
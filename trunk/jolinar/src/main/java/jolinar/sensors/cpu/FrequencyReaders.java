@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import jolinar.Main;
+
+import java.util.logging.Level;
+
+/**
+ * Selection of the source of CPU frequencies, probed once when sensors are created
+ * Sources are tried in order: cpufreq time_in_state statistics, scaling_cur_freq of each core,
+ * cpu MHz of /proc/cpuinfo, and finally utilisation only
+ */
+public final class FrequencyReaders {
+
+	/**
+	 * Last reported source, so that sensors created with the same source report it once
+	 */
+	private static String reportedSource;
+
+	private FrequencyReaders() {
+	}
+
+	/**
+	 * Create the reader of the first available source of CPU frequencies
+	 * @param frequencyModel The model of CPU frequencies
+	 * @return the frequency reader
+	 */
+	public static FrequencyReadersInterface create(FrequencyModel frequencyModel) {
+		return create(TimeInStateReader.DEFAULT_CPU_PATH, CurrentFrequencyReader.DEFAULT_CPUINFO_PATH, frequencyModel);
+	}
+
+	/**
+	 * Create the reader of the first available source of CPU frequencies
+	 * @param cpuPath Sysfs directory of CPUs
+	 * @param cpuinfoPath Path of the cpuinfo file
+	 * @param frequencyModel The model of CPU frequencies
+	 * @return the frequency reader
+	 */
+	public static FrequencyReadersInterface create(String cpuPath, String cpuinfoPath, FrequencyModel frequencyModel) {
+		TimeInStateReader timeInStateReader = new TimeInStateReader(cpuPath, frequencyModel);
+		if (timeInStateReader.isAvailable()) {
+			report("cpufreq time_in_state statistics");
+			return timeInStateReader;
+		}
+
+		CurrentFrequencyReader curFreqReader = new CurrentFrequencyReader(cpuPath, cpuinfoPath, CurrentFrequencyReader.Source.SCALING_CUR_FREQ, frequencyModel);
+		if (curFreqReader.isAvailable()) {
+			report("cpufreq scaling_cur_freq sampled on each cycle");
+			return curFreqReader;
+		}
+
+		CurrentFrequencyReader cpuinfoReader = new CurrentFrequencyReader(cpuPath, cpuinfoPath, CurrentFrequencyReader.Source.CPUINFO, frequencyModel);
+		if (cpuinfoReader.isAvailable()) {
+			report("cpu MHz of " + cpuinfoPath + " sampled on each cycle");
+			return cpuinfoReader;
+		}
+
+		report("none, CPU power only depends on utilisation, at the maximum frequency");
+		return new CurrentFrequencyReader(cpuPath, cpuinfoPath, CurrentFrequencyReader.Source.UTILISATION, frequencyModel);
+	}
+
+	/**
+	 * Report the selected source, unless it was already reported
+	 * @param source Description of the source
+	 */
+	private static synchronized void report(String source) {
+		if (!source.equals(reportedSource)) {
+			Main.LOGGER.log(Level.INFO, "CPU frequency source: " + source);
+			reportedSource = source;
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+public interface FrequencyReadersInterface {
+
+	/**
+	 * Read the CPU time spent in each frequency since the previous call, summed over all online cores
+	 * The first call only sets the baseline
+	 * @param timeInFrequencies Array filled with the time spent in each frequency, by frequency ordinal
+	 */
+	void read(double[] timeInFrequencies);
+
+	/**
+	 * Get the time spent in each frequency by a core in the last read
+	 * @param cpu CPU number
+	 * @return the time spent in each frequency, by frequency ordinal, or null if the core has no frequency data
+	 * Reused between reads
+	 */
+	double[] getCPUTimeInFrequencies(int cpu);
+
+}
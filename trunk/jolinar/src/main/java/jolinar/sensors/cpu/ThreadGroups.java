@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Groups of threads, matched by name patterns
+ * Threads matching no group are in a last group named "other"
+ */
+public final class ThreadGroups {
+
+	/**
+	 * Name of the group of unmatched threads
+	 */
+	public static final String OTHER = "other";
+
+	/**
+	 * Length of thread names in the kernel, longer names are truncated
+	 */
+	private static final int COMM_LENGTH = 15;
+
+	/**
+	 * Maximum number of thread names whose group is remembered
+	 */
+	private static final int MAX_CACHED_NAMES = 4096;
+
+	/**
+	 * Names of the groups, followed by OTHER
+	 */
+	private final String[] names;
+
+	/**
+	 * Patterns of each group, by group index
+	 */
+	private final Pattern[][] patterns;
+
+	/**
+	 * Patterns of each group matching truncated names, by group index
+	 */
+	private final Pattern[][] truncatedPatterns;
+
+	/**
+	 * Group index of already classified thread names
+	 */
+	private final Map<String, Integer> cache;
+
+	/**
+	 * Constructor
+	 * @param names Names of the groups
+	 * @param patterns Glob patterns of each group, where * matches any characters and ? matches one character
+	 */
+	public ThreadGroups(List<String> names, List<List<String>> patterns) {
+		this.names = new String[names.size() + 1];
+		this.patterns = new Pattern[names.size()][];
+		this.truncatedPatterns = new Pattern[names.size()][];
+		for (int i = 0; i < names.size(); i++) {
+			this.names[i] = names.get(i);
+			List<String> globs = patterns.get(i);
+			this.patterns[i] = new Pattern[globs.size()];
+			this.truncatedPatterns[i] = new Pattern[globs.size()];
+			for (int j = 0; j < globs.size(); j++) {
+				this.patterns[i][j] = compileGlob(globs.get(j));
+				this.truncatedPatterns[i][j] = compileTruncatedGlob(globs.get(j));
+			}
+		}
+		this.names[names.size()] = OTHER;
+		this.cache = new HashMap<>();
+	}
+
+	/**
+	 * Parse the thread-groups configuration value
+	 * @param threadGroups Groups, in the format name=pattern,pattern;name=pattern, such as GC=GC Thread#*,G1 *;JIT=C2 CompilerThread*
+	 * @return the thread groups, or null if no group is configured
+	 */
+	public static ThreadGroups parse(String threadGroups) {
+		List<String> names = new ArrayList<>();
+		List<List<String>> patterns = new ArrayList<>();
+		for (String group : threadGroups.split(";")) {
+			int equals = group.indexOf('=');
+			if (equals <= 0)
+				continue;
+			List<String> globs = new ArrayList<>();
+			for (String glob : group.substring(equals + 1).split(",")) {
+				if (!glob.trim().isEmpty())
+					globs.add(glob.trim());
+			}
+			names.add(group.substring(0, equals).trim());
+			patterns.add(globs);
+		}
+		return names.isEmpty() ? null : new ThreadGroups(names, patterns);
+	}
+
+	/**
+	 * @param glob Glob pattern
+	 * @return the equivalent regular expression
+	 */
+	private static Pattern compileGlob(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int literalStart = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > literalStart)
+					regex.append(Pattern.quote(glob.substring(literalStart, i)));
+				regex.append(c == '*' ? ".*" : ".");
+				literalStart = i + 1;
+			}
+		}
+		if (literalStart < glob.length())
+			regex.append(Pattern.quote(glob.substring(literalStart)));
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Compile the patterns matching names truncated inside a glob pattern
+	 * A truncated name matches if it matches the pattern cut right after one of its literal characters or ?,
+	 * so that it ends with the start of a literal part of the pattern: with *Worker*, thread-pool-Wor is
+	 * truncated from a matching name, but VM Periodic Tas is not, although a * could match any rest of it
+	 * @param glob Glob pattern
+	 * @return the regular expression matching any of the cut patterns
+	 */
+	private static Pattern compileTruncatedGlob(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*') {
+				prefix.append(".*");
+				continue;
+			}
+			prefix.append(c == '?' ? "." : Pattern.quote(String.valueOf(c)));
+			if (regex.length() > 0)
+				regex.append('|');
+			regex.append("(?:").append(prefix).append(')');
+		}
+		// A pattern of only * matches any name already
+		return regex.length() == 0 ? null : Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Get the group of a thread
+	 * The kernel truncates thread names, so truncated names match patterns cut inside a literal part,
+	 * see compileTruncatedGlob
+	 * @param threadName Name of the thread
+	 * @return the index of the group of the thread, the index of OTHER if it matches no group
+	 */
+	public int classify(String threadName) {
+		Integer cached = this.cache.get(threadName);
+		if (cached != null)
+			return cached;
+
+		int result = this.patterns.length;
+		boolean truncated = threadName.length() >= COMM_LENGTH;
+		search:
+		for (int i = 0; i < this.patterns.length; i++) {
+			for (int j = 0; j < this.patterns[i].length; j++) {
+				Pattern truncatedPattern = this.truncatedPatterns[i][j];
+				if (this.patterns[i][j].matcher(threadName).matches() || (truncated && truncatedPattern != null && truncatedPattern.matcher(threadName).matches())) {
+					result = i;
+					break search;
+				}
+			}
+		}
+
+		// Names of short-lived pool threads can be unique, keep the cache bounded
+		if (this.cache.size() >= MAX_CACHED_NAMES)
+			this.cache.clear();
+		this.cache.put(threadName, result);
+		return result;
+	}
+
+	/**
+	 * @return the number of groups, including OTHER
+	 */
+	public int size() {
+		return this.names.length;
+	}
+
+	/**
+	 * @param index Index of a group
+	 * @return the name of the group
+	 */
+	public String getName(int index) {
+		return this.names[index];
+	}
+
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.cpu;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+/**
+ * Reader of the CPU time spent in each frequency, from cpufreq time_in_state statistics
+ * All cores of a cpufreq policy share the same statistics, so each policy is read once
+ * and weighted by its number of online cores
+ * Policies whose statistics did not change since the previous cycle are not parsed again
+ * Policies are discovered again when CPUs are plugged or unplugged
+ * The deltas of the last read are also kept per policy, to get the frequency mix of a given core
+ * Statistics that cannot be read are not read again until CPUs are plugged or unplugged
+ * Linux-systems only
+ */
+public class TimeInStateReader implements FrequencyReadersInterface {
+
+	/**
+	 * Default sysfs directory of CPUs
+	 */
+	public static final String DEFAULT_CPU_PATH = "/sys/devices/system/cpu";
+
+	/**
+	 * A cpufreq policy and the last statistics read from it
+	 */
+	private static class Policy {
+
+		/**
+		 * Path to the time_in_state file of the policy
+		 */
+		String timeInStatePath;
+
+		/**
+		 * Number of online cores in policy
+		 */
+		int weight;
+
+		/**
+		 * Hash of the last read statistics
+		 */
+		long hash;
+
+		/**
+		 * Cumulative time spent in each frequency, by frequency ordinal
+		 */
+		long[] times;
+
+		/**
+		 * Time spent in each frequency in the last read, by frequency ordinal, not weighted
+		 */
+		double[] deltas;
+
+		/**
+		 * Check if the statistics have been read at least once
+		 */
+		boolean initialized;
+
+		/**
+		 * Check if a read failed, so that the policy is not read again until discovered again
+		 */
+		boolean warned;
+	}
+
+	/**
+	 * Sysfs directory of CPUs
+	 */
+	private String cpuPath;
+
+	/**
+	 * Path to the file listing online CPUs
+	 */
+	private String onlinePath;
+
+	/**
+	 * Model of the CPU frequencies, giving the ordinal of each frequency
+	 */
+	private FrequencyModel frequencyModel;
+
+	/**
+	 * Discovered policies
+	 */
+	private Policy[] policies;
+
+	/**
+	 * Policy of each CPU, by CPU number, null for CPUs without policy
+	 */
+	private Policy[] cpuPolicies;
+
+	/**
+	 * Hash of the online CPUs file when policies were discovered
+	 */
+	private long onlineHash;
+
+	/**
+	 * Check if policies have been discovered at least once
+	 */
+	private boolean discovered;
+
+	/**
+	 * Tokenizer reused to parse statistics on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param frequencyModel The model of CPU frequencies
+	 */
+	public TimeInStateReader(FrequencyModel frequencyModel) {
+		this(DEFAULT_CPU_PATH, frequencyModel);
+	}
+
+	/**
+	 * Constructor
+	 * @param cpuPath Sysfs directory of CPUs
+	 * @param frequencyModel The model of CPU frequencies
+	 */
+	public TimeInStateReader(String cpuPath, FrequencyModel frequencyModel) {
+		this.cpuPath = cpuPath;
+		this.onlinePath = cpuPath + "/online";
+		this.frequencyModel = frequencyModel;
+		this.tokenizer = new ProcTokenizer(512);
+		this.policies = new Policy[0];
+		this.cpuPolicies = new Policy[0];
+		this.discovered = false;
+	}
+
+	/**
+	 * Check if statistics of at least one cpufreq policy can be read
+	 * @return true if time_in_state statistics are available
+	 */
+	public boolean isAvailable() {
+		this.checkTopology();
+		for (Policy policy : this.policies) {
+			if (new File(policy.timeInStatePath).canRead())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Read the CPU time spent in each frequency since the previous call, summed over all online cores
+	 * Policies read for the first time only set their baseline
+	 * @param timeInFrequencies Array filled with the time spent in each frequency, by frequency ordinal
+	 */
+	@Override
+	public void read(double[] timeInFrequencies) {
+		Arrays.fill(timeInFrequencies, 0);
+		this.checkTopology();
+
+		for (Policy policy : this.policies) {
+			Arrays.fill(policy.deltas, 0);
+			if (policy.warned)
+				continue;
+			try {
+				this.tokenizer.load(policy.timeInStatePath);
+			} catch (IOException e) {
+				// Policy went offline, or has no statistics
+				Main.LOGGER.log(Level.INFO, "CPU frequency statistics unavailable: " + policy.timeInStatePath);
+				policy.warned = true;
+				continue;
+			}
+
+			long hash = this.tokenizer.contentHash();
+			if (policy.initialized && hash == policy.hash)
+				continue;
+
+			try {
+				this.parse(policy, timeInFrequencies);
+				policy.hash = hash;
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.WARNING, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Parse the loaded statistics of a policy, and add their weighted deltas
+	 * @param policy Policy whose statistics are loaded in tokenizer
+	 * @param timeInFrequencies Array of time spent in each frequency
+	 * @throws IOException if the statistics are malformed
+	 */
+	private void parse(Policy policy, double[] timeInFrequencies) throws IOException {
+		// Each line is a frequency and the time spent in it, such as: 2601000 1185
+		while (!this.tokenizer.isAtEndOfLine()) {
+			int ordinal = this.frequencyModel.getOrdinal(this.tokenizer.nextLong());
+			long timeFreq = this.tokenizer.nextLong();
+
+			if (ordinal >= 0) {
+				if (policy.initialized) {
+					policy.deltas[ordinal] = timeFreq - policy.times[ordinal];
+					timeInFrequencies[ordinal] += policy.weight * policy.deltas[ordinal];
+				}
+				policy.times[ordinal] = timeFreq;
+			}
+
+			if (!this.tokenizer.nextLine())
+				break;
+		}
+		policy.initialized = true;
+	}
+
+	/**
+	 * Discover policies again if the set of online CPUs changed
+	 */
+	private void checkTopology() {
+		long hash;
+		try {
+			this.tokenizer.load(this.onlinePath);
+			hash = this.tokenizer.contentHash();
+		} catch (IOException e) {
+			hash = 0;
+		}
+
+		if (!this.discovered || hash != this.onlineHash) {
+			if (this.discovered)
+				Main.LOGGER.log(Level.INFO, "Online CPUs changed, discovering cpufreq policies");
+			this.onlineHash = hash;
+			this.discovered = true;
+			this.discover();
+		}
+	}
+
+	/**
+	 * Discover cpufreq policies and their online cores
+	 * Falls back to per-core statistics on kernels without policy directories
+	 */
+	private void discover() {
+		List<Policy> result = new ArrayList<>();
+		TreeMap<Integer, Policy> cpus = new TreeMap<>();
+		File[] policyDirectories = new File(this.cpuPath + "/cpufreq").listFiles();
+
+		if (policyDirectories != null) {
+			Arrays.sort(policyDirectories);
+			for (File directory : policyDirectories) {
+				if (!directory.getName().startsWith("policy"))
+					continue;
+				// affected_cpus only lists online cores of the policy
+				List<Integer> affectedCPUs = readCPUList(directory.getPath() + "/affected_cpus");
+				if (affectedCPUs.size() > 0) {
+					Policy policy = this.createPolicy(directory.getPath() + "/stats/time_in_state", affectedCPUs.size());
+					result.add(policy);
+					for (int cpu : affectedCPUs) {
+						cpus.put(cpu, policy);
+					}
+				}
+			}
+		}
+
+		if (result.isEmpty()) {
+			for (int cpu : readCPUList(this.onlinePath)) {
+				Policy policy = this.createPolicy(this.cpuPath + "/cpu" + cpu + "/cpufreq/stats/time_in_state", 1);
+				result.add(policy);
+				cpus.put(cpu, policy);
+			}
+		}
+
+		this.policies = result.toArray(new Policy[result.size()]);
+
+		this.cpuPolicies = new Policy[cpus.isEmpty() ? 0 : cpus.lastKey() + 1];
+		for (Map.Entry<Integer, Policy> entry : cpus.entrySet()) {
+			this.cpuPolicies[entry.getKey()] = entry.getValue();
+		}
+		Main.LOGGER.log(Level.CONFIG, "Reading CPU frequency statistics from " + this.policies.length + " cpufreq policies");
+	}
+
+	/**
+	 * @param timeInStatePath Path to the time_in_state file of the policy
+	 * @param weight Number of online cores in policy
+	 * @return a new policy
+	 */
+	private Policy createPolicy(String timeInStatePath, int weight) {
+		Policy policy = new Policy();
+		policy.timeInStatePath = timeInStatePath;
+		policy.weight = weight;
+		policy.times = new long[this.frequencyModel.size()];
+		policy.deltas = new double[this.frequencyModel.size()];
+		return policy;
+	}
+
+	/**
+	 * Get the time spent in each frequency by a core in the last read
+	 * All cores of a policy share the statistics of the policy
+	 * @param cpu CPU number
+	 * @return the time spent in each frequency, by frequency ordinal, or null if the core has no statistics
+	 * Reused between reads
+	 */
+	@Override
+	public double[] getCPUTimeInFrequencies(int cpu) {
+		if (cpu < 0 || cpu >= this.cpuPolicies.length || this.cpuPolicies[cpu] == null)
+			return null;
+		return this.cpuPolicies[cpu].deltas;
+	}
+
+	/**
+	 * Read a CPU list file, such as online (0-3,6) or related_cpus (0 1 2 3)
+	 * @param path Path of the CPU list file
+	 * @return the listed CPUs, empty if the file cannot be read
+	 */
+	public static List<Integer> readCPUList(String path) {
+		try {
+			return parseCPUList(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII));
+		} catch (IOException | NumberFormatException e) {
+			return new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Parse a CPU list
+	 * @param cpuList CPU list, with ranges separated by commas or spaces
+	 * @return the listed CPUs
+	 */
+	public static List<Integer> parseCPUList(String cpuList) {
+		List<Integer> result = new ArrayList<>();
+		for (String range : cpuList.trim().split("[,\\s]+")) {
+			if (range.isEmpty())
+				continue;
+			int dash = range.indexOf('-');
+			int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+			int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+			for (int cpu = first; cpu <= last; cpu++) {
+				result.add(cpu);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.disk;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Disk sensor of a cgroup v2, such as a container or a systemd unit
+ * Bytes read and written by the cgroup are read per device from io.stat
+ * Stacked devices, such as device mapper and RAID devices, are skipped,
+ * as their I/O is also counted on the disks below them
+ */
+public class DiskSensorCgroup implements DiskSensorsInterface {
+
+	/**
+	 * Keys of the values used by the sensor
+	 */
+	private static final byte[] RBYTES = "rbytes=".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] WBYTES = "wbytes=".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Path to the io.stat file of the cgroup
+	 */
+	private String ioStatPath;
+
+	/**
+	 * Root of sysfs, where devices are found by number
+	 */
+	private String sysPath;
+
+	/**
+	 * Previous bytes read and written on each device, by device number
+	 */
+	private Map<String, long[]> previousReadWriteBytes;
+
+	/**
+	 * Check if each device is stacked over other devices, by device number
+	 */
+	private Map<String, Boolean> stackedDevices;
+
+	/**
+	 * Tokenizer reused to parse the io.stat file on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Check if monitoring has already started or not
+	 */
+	private boolean firstRun;
+
+	/**
+	 * Constructor
+	 * @param cgroupPath Directory of the cgroup
+	 */
+	public DiskSensorCgroup(String cgroupPath) {
+		this(cgroupPath, "/sys");
+	}
+
+	/**
+	 * Constructor
+	 * @param cgroupPath Directory of the cgroup
+	 * @param sysPath Root of sysfs, such as /sys
+	 */
+	public DiskSensorCgroup(String cgroupPath, String sysPath) {
+		this.ioStatPath = cgroupPath + "/io.stat";
+		this.sysPath = sysPath;
+		this.previousReadWriteBytes = new HashMap<>();
+		this.stackedDevices = new HashMap<>();
+		this.tokenizer = new ProcTokenizer(512);
+		this.firstRun = true;
+	}
+
+	/**
+	 * @param device Device number, such as 8:0
+	 * @return true if the device is stacked over other devices
+	 */
+	private boolean isStacked(String device) {
+		Boolean result = this.stackedDevices.get(device);
+		if (result == null) {
+			String[] slaves = new File(this.sysPath + "/dev/block/" + device + "/slaves").list();
+			result = slaves != null && slaves.length > 0;
+			this.stackedDevices.put(device, result);
+		}
+		return result;
+	}
+
+	@Override
+	public Double[] getProcesDiskReadWriteBytes() {
+		long readDiff = 0, writeDiff = 0;
+		try {
+			// Lines are similar to: 8:0 rbytes=1459200 wbytes=314773504 rios=192 wios=353 dbytes=0 dios=0
+			this.tokenizer.load(this.ioStatPath);
+			while (!this.tokenizer.isAtEnd()) {
+				if (!this.tokenizer.isAtEndOfLine()) {
+					String device = this.tokenizer.nextToken();
+					long readBytes = this.tokenizer.keyValue(RBYTES);
+					long writeBytes = this.tokenizer.keyValue(WBYTES);
+
+					if (!this.isStacked(device)) {
+						// Devices appear in the file on their first I/O, from zero
+						long[] previous = this.previousReadWriteBytes.get(device);
+						if (previous == null) {
+							previous = new long[2];
+							this.previousReadWriteBytes.put(device, previous);
+						}
+						readDiff += Math.max(readBytes - previous[0], 0);
+						writeDiff += Math.max(writeBytes - previous[1], 0);
+						previous[0] = readBytes;
+						previous[1] = writeBytes;
+					}
+				}
+				if (!this.tokenizer.nextLine())
+					break;
+			}
+		} catch (IOException e) {
+			// Cgroup removed, or a value is malformed
+			if (new File(this.ioStatPath).exists())
+				Main.LOGGER.log(Level.WARNING, e.getMessage());
+		}
+
+		// The first read is the baseline of counters accumulated before monitoring
+		if (this.firstRun) {
+			this.firstRun = false;
+			return new Double[] { 0.0, 0.0 };
+		}
+		return new Double[] { (double) readDiff, (double) writeDiff };
+	}
+
+}
@@ -11,15 +11,14 @@
 package jolinar.sensors.disk;
 
 import jolinar.Main;
+import jolinar.process.ProcessExitAware;
+import jolinar.process.ProcessMonitorsInterface;
+import jolinar.sensors.proc.ProcTokenizer;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
 import java.util.logging.Level;
 
-public class DiskSensorProc implements DiskSensorsInterface {
+public class DiskSensorProc implements DiskSensorsInterface, ProcessExitAware {
 
 	/**
 	 * Process PID to monitor
@@ -29,7 +28,7 @@ public class DiskSensorProc implements DiskSensorsInterface {
 	/**
 	 * Number of bytes read and written by PID to disk
 	 */
-	private Double readBytes, writeBytes;
+	private long readBytes, writeBytes;
 
 	/**
 	 * Path to the io file where disk data is stored
@@ -37,15 +36,37 @@ public class DiskSensorProc implements DiskSensorsInterface {
 	 */
 	private String diskIOPath;
 
+	/**
+	 * Tokenizer reused to parse the io file on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Bytes read and written by PID, reused between cycles
+	 */
+	private long[] readWriteBytes;
+
+	/**
+	 * Final bytes read and written by PID once it exited, null while it runs
+	 */
+	private long[] finalReadWriteBytes;
+
+	/**
+	 * Check if the monitored process exited
+	 */
+	private boolean exited;
+
 	/**
 	 * Constructor
 	 * @param pid Process PID to monitor
 	 */
 	public DiskSensorProc(int pid) {
 		this.pid = pid;
-		this.readBytes = 0.0;
-		this.writeBytes = 0.0;
+		this.readBytes = 0;
+		this.writeBytes = 0;
 		this.diskIOPath = "/proc/" + pid + "/io";
+		this.tokenizer = new ProcTokenizer(256);
+		this.readWriteBytes = new long[2];
 	}
 
 	@Override
@@ -53,13 +74,25 @@ public class DiskSensorProc implements DiskSensorsInterface {
 		Double[] results = new Double[2];
 
 		try {
-			List<String> allLines = Files.readAllLines(Paths.get(this.diskIOPath), StandardCharsets.UTF_8);
+			if (this.exited) {
+				// Process files are gone, use final counters when known
+				if (this.finalReadWriteBytes != null) {
+					this.readWriteBytes[0] = Math.max(this.finalReadWriteBytes[0], this.readBytes);
+					this.readWriteBytes[1] = Math.max(this.finalReadWriteBytes[1], this.writeBytes);
+				} else {
+					this.readWriteBytes[0] = this.readBytes;
+					this.readWriteBytes[1] = this.writeBytes;
+				}
+			} else {
+				this.tokenizer.load(this.diskIOPath);
+				this.tokenizer.ioReadWriteBytes(this.readWriteBytes);
+			}
 
-			results[0] = Double.valueOf(allLines.get(4).split(" ")[1]) - this.readBytes;
-			results[1] = Double.valueOf(allLines.get(5).split(" ")[1]) - Double.valueOf(allLines.get(6).split(" ")[1]) - this.writeBytes;
+			results[0] = (double) (this.readWriteBytes[0] - this.readBytes);
+			results[1] = (double) (this.readWriteBytes[1] - this.writeBytes);
 
-			this.readBytes = Double.valueOf(allLines.get(4).split(" ")[1]);
-			this.writeBytes = Double.valueOf(allLines.get(5).split(" ")[1]) - Double.valueOf(allLines.get(6).split(" ")[1]);
+			this.readBytes = this.readWriteBytes[0];
+			this.writeBytes = this.readWriteBytes[1];
 		} catch (IOException e) {
 			results[0] = 0.0;
 			results[1] = 0.0;
@@ -69,4 +102,10 @@ public class DiskSensorProc implements DiskSensorsInterface {
 		return results;
 	}
 
-}
\ No newline at end of file
+	@Override
+	public void processExited(ProcessMonitorsInterface monitor) {
+		this.finalReadWriteBytes = monitor.getFinalReadWriteBytes();
+		this.exited = true;
+	}
+
+}
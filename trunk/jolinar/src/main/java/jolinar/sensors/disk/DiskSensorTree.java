@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.disk;
+
+import jolinar.process.ProcessTree;
+import jolinar.process.TreeCollector;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk sensor of a tree of processes
+ * Bytes read and written by all running members are summed,
+ * and each member's share of the bytes is given to the tree, for the per-process breakdown
+ * The io counters of a process include the children it reaped, so the bytes already counted
+ * for an exited member are deducted from its parent, to be counted once
+ */
+public class DiskSensorTree implements DiskSensorsInterface {
+
+	/**
+	 * Tree of processes to monitor
+	 */
+	private ProcessTree tree;
+
+	/**
+	 * Previous bytes read and written by each member,
+	 * followed by the bytes read and written by its exited children, to deduct from its counters
+	 */
+	private Map<ProcessTree.Member, long[]> previousReadWriteBytes;
+
+	/**
+	 * Bytes read and written by each running member since the previous cycle, reused between cycles
+	 */
+	private long[] pidDiffs;
+
+	/**
+	 * Bytes read and written by a member, reused between cycles
+	 */
+	private long[] readWriteBytes;
+
+	/**
+	 * Tokenizer reused to parse io files on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param tree Tree of processes to monitor
+	 */
+	public DiskSensorTree(ProcessTree tree) {
+		this.tree = tree;
+		this.previousReadWriteBytes = new HashMap<>();
+		this.pidDiffs = new long[16];
+		this.readWriteBytes = new long[2];
+		this.tokenizer = new ProcTokenizer(256);
+	}
+
+	/**
+	 * Read the bytes read and written by a member into readWriteBytes
+	 * @param member Member of the tree
+	 * @return false if the bytes cannot be read
+	 */
+	private boolean readPIDBytes(ProcessTree.Member member) {
+		if (this.tree.getCollector() != null) {
+			this.readWriteBytes[0] = member.getSnapshot(TreeCollector.READ_BYTES);
+			this.readWriteBytes[1] = member.getSnapshot(TreeCollector.WRITE_BYTES);
+			return this.readWriteBytes[0] >= 0;
+		}
+		try {
+			this.tokenizer.load("/proc/" + member.getPid() + "/io");
+			this.tokenizer.ioReadWriteBytes(this.readWriteBytes);
+			return true;
+		} catch (IOException e) {
+			// Process exited since the last update of the tree, or is not readable
+			return false;
+		}
+	}
+
+	@Override
+	public Double[] getProcesDiskReadWriteBytes() {
+		List<ProcessTree.Member> members = this.tree.getLiveMembers();
+
+		// Forget exited members before reading counters, as their bytes show in the counters of their parent once reaped
+		Iterator<Map.Entry<ProcessTree.Member, long[]>> iterator = this.previousReadWriteBytes.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<ProcessTree.Member, long[]> entry = iterator.next();
+			if (!entry.getKey().isExited())
+				continue;
+			iterator.remove();
+
+			long[] parent = this.previousReadWriteBytes.get(this.tree.getLiveMember(entry.getKey().getParentPid()));
+			if (parent != null) {
+				long[] child = entry.getValue();
+				parent[2] += child[0] + child[2];
+				parent[3] += child[1] + child[3];
+			}
+		}
+
+		if (this.pidDiffs.length < members.size())
+			this.pidDiffs = new long[members.size() * 2];
+
+		long treeRead = 0, treeWrite = 0;
+		for (int i = 0; i < members.size(); i++) {
+			ProcessTree.Member member = members.get(i);
+			boolean read = this.readPIDBytes(member);
+
+			// Processes started after the tree was created are measured from zero, others from their first read
+			long[] previous = this.previousReadWriteBytes.get(member);
+			if (previous == null && !read && member.isInitial()) {
+				this.pidDiffs[i] = 0;
+				continue;
+			}
+			if (previous == null) {
+				previous = new long[4];
+				if (member.isInitial() && read) {
+					previous[0] = this.readWriteBytes[0];
+					previous[1] = this.readWriteBytes[1];
+				}
+				this.previousReadWriteBytes.put(member, previous);
+			}
+
+			long readDiff = 0, writeDiff = 0;
+			if (read) {
+				// Counters may drop below previous ones until the parent reaps an exited child
+				long readBytes = this.readWriteBytes[0] - previous[2];
+				long writeBytes = this.readWriteBytes[1] - previous[3];
+				readDiff = Math.max(readBytes - previous[0], 0);
+				writeDiff = Math.max(writeBytes - previous[1], 0);
+				previous[0] = Math.max(readBytes, previous[0]);
+				previous[1] = Math.max(writeBytes, previous[1]);
+			}
+			this.pidDiffs[i] = readDiff + writeDiff;
+			treeRead += readDiff;
+			treeWrite += writeDiff;
+		}
+
+		// Members share the disk power by the bytes they transferred
+		long treeDiff = treeRead + treeWrite;
+		for (int i = 0; i < members.size(); i++) {
+			members.get(i).setShare(ProcessTree.DISK, treeDiff > 0 ? (double) this.pidDiffs[i] / treeDiff : 0);
+		}
+
+		return new Double[] { (double) treeRead, (double) treeWrite };
+	}
+
+}
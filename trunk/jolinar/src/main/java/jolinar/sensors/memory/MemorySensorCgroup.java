@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.memory;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+/**
+ * Memory sensor of a cgroup v2, such as a container or a systemd unit
+ * The memory of the cgroup is its working set: memory.current, without the inactive page cache from memory.stat,
+ * which the kernel reclaims first, as resident set sizes do not count page cache either
+ */
+public class MemorySensorCgroup implements MemorySensorsInterface {
+
+	/**
+	 * Prefixes of the lines used by the sensor
+	 */
+	private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] INACTIVE_FILE = "inactive_file ".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Paths to the memory.current and memory.stat files of the cgroup
+	 */
+	private String currentPath, statPath;
+
+	/**
+	 * Total memory of the system, in bytes
+	 */
+	private long totalMemory;
+
+	/**
+	 * Tokenizer reused to parse memory files on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param cgroupPath Directory of the cgroup
+	 */
+	public MemorySensorCgroup(String cgroupPath) {
+		this.currentPath = cgroupPath + "/memory.current";
+		this.statPath = cgroupPath + "/memory.stat";
+		this.tokenizer = new ProcTokenizer(4096);
+
+		try {
+			// Line is similar to: MemTotal:        3923808 kB
+			this.tokenizer.load("/proc/meminfo");
+			if (this.tokenizer.seekLine(MEM_TOTAL))
+				this.totalMemory = this.tokenizer.nextLong() * 1024;
+		} catch (IOException e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+		}
+	}
+
+	@Override
+	public double getProcesMemoryPercentage() {
+		if (this.totalMemory == 0)
+			return 0;
+
+		long cgroupMemory;
+		try {
+			// File holds bytes, such as: 26963968
+			this.tokenizer.load(this.currentPath);
+			cgroupMemory = this.tokenizer.nextLong();
+
+			// Line is similar to: inactive_file 4096000
+			this.tokenizer.load(this.statPath);
+			if (this.tokenizer.seekLine(INACTIVE_FILE))
+				cgroupMemory -= this.tokenizer.nextLong();
+		} catch (IOException e) {
+			// Cgroup removed
+			return 0;
+		}
+
+		return Math.max((double) cgroupMemory, 0) / this.totalMemory;
+	}
+
+}
@@ -11,15 +11,21 @@
 package jolinar.sensors.memory;
 
 import jolinar.Main;
+import jolinar.process.ProcessExitAware;
+import jolinar.process.ProcessMonitorsInterface;
+import jolinar.sensors.proc.ProcTokenizer;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.List;
 import java.util.logging.Level;
 
-public class MemorySensorProc implements MemorySensorsInterface {
+public class MemorySensorProc implements MemorySensorsInterface, ProcessExitAware {
+
+	/**
+	 * Prefixes of the lines used by the sensor
+	 */
+	private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] VM_RSS = "VmRSS:".getBytes(StandardCharsets.US_ASCII);
 
 	/**
 	 * Process PID to monitor
@@ -41,7 +47,17 @@ public class MemorySensorProc implements MemorySensorsInterface {
 	/**
 	 * Total memory of the system
 	 */
-	private int totalMemory;
+	private long totalMemory;
+
+	/**
+	 * Tokenizer reused to parse the status file on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Check if the monitored process exited
+	 */
+	private boolean exited;
 
 	/**
 	 * Constructor
@@ -51,20 +67,17 @@ public class MemorySensorProc implements MemorySensorsInterface {
 		this.pid = pid;
 		this.totalMemoryIOPath = "/proc/meminfo";
 		this.pidMemoryIOPath = "/proc/" + pid + "/status";
+		this.tokenizer = new ProcTokenizer(2048);
 		this.populateMemorySensor();
 	}
 
 	private void populateMemorySensor() {
 		try {
-			List<String> allLines = Files.readAllLines(Paths.get(this.totalMemoryIOPath), StandardCharsets.UTF_8);
-			for (String line : allLines) {
-				// Check for total system memory
-				if (line.startsWith("MemTotal")) {
-					// Line is similar to: MemTotal:        3923808 kB
-					this.totalMemory = Integer.valueOf(line.split(":")[1].trim().split(" ")[0]);
-					break;
-				}
-			}
+			// Check for total system memory
+			// Line is similar to: MemTotal:        3923808 kB
+			this.tokenizer.load(this.totalMemoryIOPath);
+			if (this.tokenizer.seekLine(MEM_TOTAL))
+				this.totalMemory = this.tokenizer.nextLong();
 		} catch (IOException e) {
 			Main.LOGGER.log(Level.WARNING, e.getMessage());
 		}
@@ -72,21 +85,18 @@ public class MemorySensorProc implements MemorySensorsInterface {
 
 	@Override
 	public double getProcesMemoryPercentage() {
-		if (this.totalMemory == 0)
+		// Exited process does not hold memory anymore
+		if (this.totalMemory == 0 || this.exited)
 			return 0;
 
 		double pidMemory = 0;
 
 		try {
-			List<String> allLines = Files.readAllLines(Paths.get(this.pidMemoryIOPath), StandardCharsets.UTF_8);
-			for (String line : allLines) {
-				// Check for resident set size
-				if (line.startsWith("VmRSS")) {
-					// Line is similar to: VmRSS:	    6740 kB
-					pidMemory = Integer.valueOf(line.split(":")[1].trim().split(" ")[0]);
-					break;
-				}
-			}
+			// Check for resident set size
+			// Line is similar to: VmRSS:	    6740 kB
+			this.tokenizer.load(this.pidMemoryIOPath);
+			if (this.tokenizer.seekLine(VM_RSS))
+				pidMemory = this.tokenizer.nextLong();
 		} catch (IOException e) {
 			Main.LOGGER.log(Level.WARNING, e.getMessage());
 		}
@@ -94,4 +104,9 @@ public class MemorySensorProc implements MemorySensorsInterface {
 		return (pidMemory / this.totalMemory);
 	}
 
+	@Override
+	public void processExited(ProcessMonitorsInterface monitor) {
+		this.exited = true;
+	}
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.memory;
+
+import jolinar.Main;
+import jolinar.process.ProcessTree;
+import jolinar.process.TreeCollector;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Memory sensor of a tree of processes
+ * Resident set sizes of all running members are summed,
+ * and each member's share of the tree memory is given to the tree, for the per-process breakdown
+ * Pages shared between members are counted once per member, as in their resident set size
+ */
+public class MemorySensorTree implements MemorySensorsInterface {
+
+	/**
+	 * Prefixes of the lines used by the sensor
+	 */
+	private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] VM_RSS = "VmRSS:".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Tree of processes to monitor
+	 */
+	private ProcessTree tree;
+
+	/**
+	 * Total memory of the system
+	 */
+	private long totalMemory;
+
+	/**
+	 * Resident set size of each running member, reused between cycles
+	 */
+	private long[] pidMemories;
+
+	/**
+	 * Tokenizer reused to parse status files on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param tree Tree of processes to monitor
+	 */
+	public MemorySensorTree(ProcessTree tree) {
+		this.tree = tree;
+		this.pidMemories = new long[16];
+		this.tokenizer = new ProcTokenizer(2048);
+
+		try {
+			// Line is similar to: MemTotal:        3923808 kB
+			this.tokenizer.load("/proc/meminfo");
+			if (this.tokenizer.seekLine(MEM_TOTAL))
+				this.totalMemory = this.tokenizer.nextLong();
+		} catch (IOException e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+		}
+	}
+
+	/**
+	 * @param member Member of the tree
+	 * @return the resident set size of the member in kB, or 0 if it cannot be read
+	 */
+	private long getPIDMemory(ProcessTree.Member member) {
+		// Stale members keep the memory of the last tick they were read
+		if (this.tree.getCollector() != null)
+			return Math.max(member.getLastSnapshot(TreeCollector.MEMORY), 0);
+		try {
+			// Line is similar to: VmRSS:	    6740 kB
+			this.tokenizer.load("/proc/" + member.getPid() + "/status");
+			if (this.tokenizer.seekLine(VM_RSS))
+				return this.tokenizer.nextLong();
+		} catch (IOException e) {
+			// Process exited since the last update of the tree
+		}
+		return 0;
+	}
+
+	@Override
+	public double getProcesMemoryPercentage() {
+		List<ProcessTree.Member> members = this.tree.getLiveMembers();
+		if (this.pidMemories.length < members.size())
+			this.pidMemories = new long[members.size() * 2];
+
+		long treeMemory = 0;
+		for (int i = 0; i < members.size(); i++) {
+			long pidMemory = this.getPIDMemory(members.get(i));
+			this.pidMemories[i] = pidMemory;
+			treeMemory += pidMemory;
+		}
+
+		for (int i = 0; i < members.size(); i++) {
+			members.get(i).setShare(ProcessTree.MEMORY, treeMemory > 0 ? (double) this.pidMemories[i] / treeMemory : 0);
+		}
+
+		if (this.totalMemory == 0)
+			return 0;
+		return ((double) treeMemory) / this.totalMemory;
+	}
+
+}
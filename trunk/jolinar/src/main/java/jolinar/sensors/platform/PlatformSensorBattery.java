@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.platform;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Sensor of the power drawn by the whole system from its batteries, read from the power_supply sysfs tree
+ * Power is only measured while batteries discharge, as on AC power they measure charging instead
+ * Readings are integrated between two reads
+ */
+public class PlatformSensorBattery implements PlatformSensorsInterface {
+
+	/**
+	 * Default path of the power_supply sysfs tree
+	 */
+	public static final String DEFAULT_POWER_SUPPLY_PATH = "/sys/class/power_supply";
+
+	/**
+	 * Paths of the system batteries
+	 */
+	private List<String> batteryPaths;
+
+	/**
+	 * Integrator of power readings
+	 */
+	private PowerIntegrator integrator;
+
+	/**
+	 * Check if the missing discharge has already been logged
+	 */
+	private boolean notDischargingLogged;
+
+	/**
+	 * Tokenizer reused to parse readings on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param powerSupplyPath Path of the power_supply sysfs tree, such as /sys/class/power_supply
+	 */
+	public PlatformSensorBattery(String powerSupplyPath) {
+		this.batteryPaths = new ArrayList<>();
+		this.integrator = new PowerIntegrator();
+		this.tokenizer = new ProcTokenizer(64);
+
+		String[] supplies = new File(powerSupplyPath).list();
+		if (supplies == null)
+			return;
+		Arrays.sort(supplies);
+		for (String supply : supplies) {
+			String path = powerSupplyPath + "/" + supply;
+			// Batteries of peripherals, such as wireless mice, have a Device scope
+			if (readString(path + "/type").equals("Battery") && !readString(path + "/scope").equals("Device"))
+				this.batteryPaths.add(path);
+		}
+	}
+
+	/**
+	 * @param path Path of a sysfs file
+	 * @return the trimmed content of the file, empty if it cannot be read
+	 */
+	private static String readString(String path) {
+		try {
+			return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII).trim();
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * @return true if a system battery is discharging
+	 */
+	public boolean isAvailable() {
+		for (String batteryPath : this.batteryPaths) {
+			if (readString(batteryPath + "/status").equals("Discharging"))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Read the power drawn from a battery
+	 * @param batteryPath Path of the battery
+	 * @return the power in microwatts, or 0 if the battery does not discharge or cannot be read
+	 */
+	private double readPower(String batteryPath) {
+		if (!readString(batteryPath + "/status").equals("Discharging"))
+			return 0.0;
+
+		try {
+			// Some batteries only report current and voltage, in microamperes and microvolts
+			if (new File(batteryPath + "/power_now").exists()) {
+				this.tokenizer.load(batteryPath + "/power_now");
+				return Math.abs(this.tokenizer.nextLong());
+			}
+			this.tokenizer.load(batteryPath + "/current_now");
+			double current = Math.abs(this.tokenizer.nextLong());
+			this.tokenizer.load(batteryPath + "/voltage_now");
+			return current * this.tokenizer.nextLong() / 1000000.0;
+		} catch (IOException e) {
+			Main.LOGGER.log(Level.WARNING, e.getMessage());
+			return 0.0;
+		}
+	}
+
+	@Override
+	public double getEnergy() {
+		double power = 0.0;
+		for (String batteryPath : this.batteryPaths) {
+			power += this.readPower(batteryPath);
+		}
+
+		if (power == 0.0 && !this.notDischargingLogged) {
+			Main.LOGGER.log(Level.WARNING, "Batteries are not discharging, platform power is not measured on AC power");
+			this.notDischargingLogged = true;
+		}
+
+		return this.integrator.integrate(power / 1000000.0, System.nanoTime());
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.platform;
+
+import jolinar.Main;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Sensor of the power and energy channels of hwmon devices, such as amd_energy on AMD processors
+ * or power monitors of ARM boards
+ * Energy channels are read as counters, power channels are integrated between two reads
+ * Channels of CPU energy drivers are selected automatically, channels of other devices by their device name and label
+ */
+public class PlatformSensorHwmon implements PlatformSensorsInterface {
+
+	/**
+	 * Default path of the hwmon sysfs tree
+	 */
+	public static final String DEFAULT_HWMON_PATH = "/sys/class/hwmon";
+
+	/**
+	 * Channel input files, such as energy1_input in microjoules and power1_input in microwatts
+	 */
+	private static final Pattern ENERGY_PATTERN = Pattern.compile("energy\\d+_input");
+	private static final Pattern POWER_PATTERN = Pattern.compile("power\\d+_(input|average)");
+
+	/**
+	 * Drivers measuring the energy of CPUs, whose channels are selected automatically
+	 * Other devices, such as GPUs, power supplies, disks or board power monitors, measure more or other parts than
+	 * the CPU, and are only used when selected
+	 */
+	private static final List<String> CPU_DRIVERS = Arrays.asList("amd_energy", "zenergy", "zenpower", "fam15h_power");
+
+	/**
+	 * Labels of channels measuring a whole socket, preferred to the channels of its parts
+	 * such as Esocket0 over Ecore000 with amd_energy
+	 */
+	private static final Pattern TOTAL_LABEL_PATTERN = Pattern.compile("(?i).*(socket|package|pkg|total).*");
+
+	/**
+	 * A selected channel
+	 */
+	private static class Channel {
+
+		/**
+		 * Path of the input file
+		 */
+		private String path;
+
+		/**
+		 * Check if the channel is an energy counter, otherwise it is a power reading
+		 */
+		private boolean energy;
+
+		/**
+		 * Previous energy counter, in microjoules
+		 */
+		private long previousEnergy = -1;
+
+		/**
+		 * Integrator of power readings
+		 */
+		private PowerIntegrator integrator = new PowerIntegrator();
+
+		private Channel(String path, boolean energy) {
+			this.path = path;
+			this.energy = energy;
+		}
+	}
+
+	/**
+	 * Selected channels
+	 */
+	private List<Channel> channels;
+
+	/**
+	 * Tokenizer reused to parse inputs on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param hwmonPath Path of the hwmon sysfs tree, such as /sys/class/hwmon
+	 * @param selection Channels to use, as device names or device:label separated by commas, or empty to select the channels of CPU energy drivers
+	 * Channels without label are selected by device:input file, such as ina226:power1_input
+	 */
+	public PlatformSensorHwmon(String hwmonPath, String selection) {
+		this.tokenizer = new ProcTokenizer(64);
+		this.channels = new ArrayList<>();
+
+		List<String> selected = new ArrayList<>();
+		for (String channel : selection.split(",")) {
+			if (!channel.trim().isEmpty())
+				selected.add(channel.trim());
+		}
+
+		String[] devices = new File(hwmonPath).list();
+		if (devices == null)
+			return;
+		Arrays.sort(devices);
+		for (String device : devices) {
+			this.discover(hwmonPath + "/" + device, selected);
+		}
+	}
+
+	/**
+	 * Select the channels of a device
+	 * Automatically, only devices of CPU energy drivers are used, energy channels are preferred to power channels,
+	 * and channels of a whole socket to the others
+	 * @param devicePath Path of the device
+	 * @param selected Channels to use, or empty to select them automatically
+	 */
+	private void discover(String devicePath, List<String> selected) {
+		String[] files = new File(devicePath).list();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		String name = readString(devicePath + "/name");
+
+		List<String> energyInputs = new ArrayList<>(), powerInputs = new ArrayList<>();
+		for (String file : files) {
+			if (ENERGY_PATTERN.matcher(file).matches())
+				energyInputs.add(file);
+			// The average is only used for channels without instantaneous input
+			else if (POWER_PATTERN.matcher(file).matches() && (file.endsWith("_input") || !Arrays.asList(files).contains(file.replace("_average", "_input"))))
+				powerInputs.add(file);
+		}
+
+		List<String> inputs;
+		if (!selected.isEmpty()) {
+			inputs = new ArrayList<>();
+			for (String input : energyInputs.isEmpty() ? powerInputs : energyInputs) {
+				String label = readLabel(devicePath, input);
+				if (selected.contains(name) || selected.contains(name + ":" + (label.isEmpty() ? input : label)))
+					inputs.add(input);
+			}
+		} else if (!CPU_DRIVERS.contains(name)) {
+			if (!energyInputs.isEmpty() || !powerInputs.isEmpty())
+				Main.LOGGER.log(Level.CONFIG, "Ignoring hwmon device " + name + ", which does not measure CPU energy only, select its channels with hwmon-channels to use it");
+			return;
+		} else {
+			inputs = energyInputs.isEmpty() ? powerInputs : energyInputs;
+			List<String> totals = new ArrayList<>();
+			for (String input : inputs) {
+				if (TOTAL_LABEL_PATTERN.matcher(readLabel(devicePath, input)).matches())
+					totals.add(input);
+			}
+			if (!totals.isEmpty())
+				inputs = totals;
+		}
+
+		for (String input : inputs) {
+			File file = new File(devicePath + "/" + input);
+			if (!file.canRead())
+				continue;
+			this.channels.add(new Channel(file.getPath(), input.startsWith("energy")));
+			Main.LOGGER.log(Level.CONFIG, "Using hwmon channel " + file.getPath() + " of " + name);
+		}
+	}
+
+	/**
+	 * @param devicePath Path of a device
+	 * @param input Input file of a channel
+	 * @return the label of the channel, empty if it has no label
+	 */
+	private static String readLabel(String devicePath, String input) {
+		return readString(devicePath + "/" + input.substring(0, input.indexOf('_')) + "_label");
+	}
+
+	/**
+	 * @param path Path of a sysfs file
+	 * @return the trimmed content of the file, empty if it cannot be read
+	 */
+	private static String readString(String path) {
+		try {
+			return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII).trim();
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * @return true if at least one channel is selected
+	 */
+	public boolean isAvailable() {
+		return !this.channels.isEmpty();
+	}
+
+	@Override
+	public double getEnergy() {
+		double result = 0.0;
+		long time = System.nanoTime();
+
+		for (Channel channel : this.channels) {
+			long value;
+			try {
+				// Example of line: 48725620361
+				this.tokenizer.load(channel.path);
+				value = this.tokenizer.nextLong();
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.WARNING, e.getMessage());
+				continue;
+			}
+
+			if (channel.energy) {
+				// A lower counter was reset, such as when the driver is reloaded
+				if (channel.previousEnergy >= 0 && value >= channel.previousEnergy)
+					result += (value - channel.previousEnergy) / 1000000.0;
+				channel.previousEnergy = value;
+			} else {
+				result += channel.integrator.integrate(value / 1000000.0, time);
+			}
+		}
+
+		return result;
+	}
+
+}
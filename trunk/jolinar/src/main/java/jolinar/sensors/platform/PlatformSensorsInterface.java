@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.platform;
+
+/**
+ * Sensor of the energy consumed by a hardware component or by the whole platform,
+ * such as RAPL domains, hwmon power and energy channels, and batteries
+ */
+public interface PlatformSensorsInterface {
+
+	/**
+	 * Get the energy measured since the previous call
+	 * @return Energy in joules, 0 on the first call
+	 */
+	double getEnergy();
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.platform;
+
+/**
+ * Integrator of instantaneous power readings into energy, with the trapezoidal rule
+ * Power is assumed to change linearly between two readings
+ */
+class PowerIntegrator {
+
+	/**
+	 * Power of the previous reading, in watts
+	 */
+	private double previousPower;
+
+	/**
+	 * Time of the previous reading, in nanoseconds
+	 */
+	private long previousTime;
+
+	/**
+	 * Check if a reading has already been integrated or not
+	 */
+	private boolean firstRun = true;
+
+	/**
+	 * Integrate a power reading
+	 * @param power Power of the reading, in watts
+	 * @param time Time of the reading, in nanoseconds
+	 * @return the energy since the previous reading, in joules, 0 for the first reading
+	 */
+	double integrate(double power, long time) {
+		double result = 0.0;
+		if (!this.firstRun && time > this.previousTime)
+			result = (this.previousPower + power) / 2 * ((time - this.previousTime) / 1000000000.0);
+
+		this.previousPower = power;
+		this.previousTime = time;
+		this.firstRun = false;
+		return result;
+	}
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.proc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of open procfs and sysfs file handles
+ * Files stay open between monitoring cycles and are re-read from offset 0 with positional reads,
+ * which makes the kernel regenerate their content without an open and close on each cycle
+ * A handle that fails to read (process exited, CPU offline) is closed and reopened once,
+ * so callers only see an error when the file is really gone
+ */
+public final class ProcFileCache {
+
+	/**
+	 * Default maximum number of handles kept open
+	 */
+	private static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+	/**
+	 * Maximum number of pooled buffers per buffer size
+	 */
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	/**
+	 * Cache shared by all sensors
+	 */
+	private static final ProcFileCache DEFAULT = new ProcFileCache(DEFAULT_MAX_OPEN_FILES);
+
+	/**
+	 * Pool of direct buffers, by buffer capacity
+	 */
+	private static final Map<Integer, ArrayDeque<ByteBuffer>> BUFFER_POOL = new HashMap<>();
+
+	/**
+	 * Open handles by path, in least recently used order
+	 */
+	private final LinkedHashMap<String, FileChannel> channels;
+
+	/**
+	 * Maximum number of handles kept open
+	 */
+	private volatile int maxOpenFiles;
+
+	/**
+	 * Constructor
+	 * @param maxOpenFiles Maximum number of handles kept open, least recently used ones are closed first
+	 */
+	public ProcFileCache(int maxOpenFiles) {
+		this.maxOpenFiles = maxOpenFiles;
+		this.channels = new LinkedHashMap<String, FileChannel>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+				if (this.size() <= ProcFileCache.this.maxOpenFiles)
+					return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return the cache shared by all sensors
+	 */
+	public static ProcFileCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Read a file from offset 0 into buffer
+	 * Reading stops at end of file or when buffer is full, in which case the caller
+	 * should retry with a bigger buffer to get a consistent snapshot of the file
+	 * @param path Path of the file to read
+	 * @param buffer Buffer to fill, cleared before reading
+	 * @return the number of bytes read
+	 * @throws IOException if the file cannot be opened or read
+	 */
+	public int read(String path, ByteBuffer buffer) throws IOException {
+		FileChannel channel = this.getChannel(path);
+		try {
+			return readFully(channel, buffer);
+		} catch (IOException e) {
+			// Stale handle, reopen it once
+			this.invalidate(path, channel);
+			channel = this.getChannel(path);
+			try {
+				return readFully(channel, buffer);
+			} catch (IOException e1) {
+				this.invalidate(path, channel);
+				throw e1;
+			}
+		}
+	}
+
+	/**
+	 * Read a file from offset 0 into buffer, with a handle opened and closed for this read only
+	 * Used for files read once, or too many to be kept open without evicting the handles of other files
+	 * @param path Path of the file to read
+	 * @param buffer Buffer to fill, cleared before reading
+	 * @return the number of bytes read
+	 * @throws IOException if the file cannot be opened or read
+	 */
+	public static int readOnce(String path, ByteBuffer buffer) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			return readFully(channel, buffer);
+		}
+	}
+
+	/**
+	 * Read channel from offset 0 until end of file or buffer is full
+	 * @param channel Channel to read
+	 * @param buffer Buffer to fill
+	 * @return the number of bytes read
+	 * @throws IOException if the channel cannot be read
+	 */
+	private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		int total = 0, read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer, total)) > 0) {
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Get the open handle of a file, opening it if needed
+	 * @param path Path of the file
+	 * @return the open handle
+	 * @throws IOException if the file cannot be opened
+	 */
+	private FileChannel getChannel(String path) throws IOException {
+		synchronized (this.channels) {
+			FileChannel channel = this.channels.get(path);
+			if (channel == null) {
+				channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+				this.channels.put(path, channel);
+			}
+			return channel;
+		}
+	}
+
+	/**
+	 * Close a stale handle
+	 * @param path Path of the file
+	 * @param channel Handle to close, only removed from cache if still the cached one
+	 */
+	private void invalidate(String path, FileChannel channel) {
+		synchronized (this.channels) {
+			if (this.channels.get(path) == channel)
+				this.channels.remove(path);
+		}
+		closeQuietly(channel);
+	}
+
+	/**
+	 * Change the maximum number of handles kept open, closing the least recently used ones beyond it
+	 * @param maxOpenFiles Maximum number of handles kept open
+	 */
+	public void setMaxOpenFiles(int maxOpenFiles) {
+		synchronized (this.channels) {
+			this.maxOpenFiles = maxOpenFiles;
+			Iterator<FileChannel> it = this.channels.values().iterator();
+			while (this.channels.size() > maxOpenFiles && it.hasNext()) {
+				closeQuietly(it.next());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Close the handle of a file, if open
+	 * Used when the file is known to be gone, such as a file of an exited process
+	 * @param path Path of the file
+	 */
+	public void invalidate(String path) {
+		FileChannel channel;
+		synchronized (this.channels) {
+			channel = this.channels.remove(path);
+		}
+		if (channel != null)
+			closeQuietly(channel);
+	}
+
+	/**
+	 * Close all handles of files under a directory
+	 * Used when a monitored process exits, to release its handles right away
+	 * @param directory Directory path, such as /proc/1234/
+	 */
+	public void invalidateAll(String directory) {
+		synchronized (this.channels) {
+			Iterator<Map.Entry<String, FileChannel>> it = this.channels.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, FileChannel> entry = it.next();
+				if (entry.getKey().startsWith(directory)) {
+					closeQuietly(entry.getValue());
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Close all handles
+	 */
+	public void close() {
+		synchronized (this.channels) {
+			for (FileChannel channel : this.channels.values()) {
+				closeQuietly(channel);
+			}
+			this.channels.clear();
+		}
+	}
+
+	/**
+	 * Close channel, ignoring errors
+	 * @param channel Channel to close
+	 */
+	private static void closeQuietly(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing to do, handle is dropped anyway
+		}
+	}
+
+	/**
+	 * Get a direct buffer from the pool
+	 * @param capacity Capacity of the buffer
+	 * @return a pooled buffer, or a new one if none is available
+	 */
+	public static ByteBuffer acquireBuffer(int capacity) {
+		synchronized (BUFFER_POOL) {
+			ArrayDeque<ByteBuffer> buffers = BUFFER_POOL.get(capacity);
+			if (buffers != null && !buffers.isEmpty())
+				return buffers.pop();
+		}
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Give a buffer back to the pool
+	 * @param buffer Buffer acquired with acquireBuffer
+	 */
+	public static void releaseBuffer(ByteBuffer buffer) {
+		synchronized (BUFFER_POOL) {
+			ArrayDeque<ByteBuffer> buffers = BUFFER_POOL.get(buffer.capacity());
+			if (buffers == null) {
+				buffers = new ArrayDeque<>();
+				BUFFER_POOL.put(buffer.capacity(), buffers);
+			}
+			if (buffers.size() < MAX_POOLED_BUFFERS)
+				buffers.push(buffer);
+		}
+	}
+
+}
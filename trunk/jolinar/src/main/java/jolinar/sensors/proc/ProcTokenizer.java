@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.proc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level tokenizer for procfs and sysfs files
+ * The file is read into a reused buffer and parsed in place into primitive values,
+ * so that sensors can read their files on every monitoring cycle without creating garbage
+ * Files are read through a ProcFileCache, which keeps their handles open between cycles
+ * A tokenizer is not thread-safe, each sensor owns its own instance
+ */
+public class ProcTokenizer {
+
+	/**
+	 * Fields of /proc/[pid]/stat (1-based, as documented in proc(5))
+	 */
+	public static final int STAT_STATE = 3;
+	public static final int STAT_PPID = 4;
+	public static final int STAT_UTIME = 14;
+	public static final int STAT_STIME = 15;
+	public static final int STAT_CUTIME = 16;
+	public static final int STAT_CSTIME = 17;
+	public static final int STAT_STARTTIME = 22;
+	public static final int STAT_RSS = 24;
+	public static final int STAT_PROCESSOR = 39;
+
+	/**
+	 * Prefixes of the lines of /proc/[pid]/io
+	 */
+	private static final byte[] READ_BYTES = "read_bytes:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] WRITE_BYTES = "write_bytes:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CANCELLED_WRITE_BYTES = "cancelled_write_bytes:".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Default size of the read buffer, enough for most procfs files
+	 */
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Reused buffer holding the content of the last loaded file
+	 * Direct buffer from the ProcFileCache pool
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Cache of open file handles used to read files
+	 */
+	private ProcFileCache cache;
+
+	/**
+	 * Current parsing position and end of valid data in buffer
+	 */
+	private int position, limit;
+
+	/**
+	 * Path of the last loaded file, used in error messages
+	 */
+	private String path;
+
+	/**
+	 * Constructor
+	 */
+	public ProcTokenizer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity Initial size of the read buffer
+	 */
+	public ProcTokenizer(int capacity) {
+		this(capacity, ProcFileCache.getDefault());
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity Initial size of the read buffer
+	 * @param cache Cache of open file handles used to read files
+	 */
+	public ProcTokenizer(int capacity, ProcFileCache cache) {
+		this.buffer = ProcFileCache.acquireBuffer(capacity);
+		this.cache = cache;
+	}
+
+	/**
+	 * Read the whole file into the buffer and rewind parsing to its beginning
+	 * The buffer grows if the file does not fit in it
+	 * @param path Path of the file to read
+	 * @throws IOException if the file cannot be read
+	 */
+	public void load(String path) throws IOException {
+		this.load(path, true);
+	}
+
+	/**
+	 * Read the whole file into the buffer and rewind parsing to its beginning, without keeping it open in the cache
+	 * Used for files too many to be cached, such as the children files of all threads
+	 * @param path Path of the file to read
+	 * @throws IOException if the file cannot be read
+	 */
+	public void loadOnce(String path) throws IOException {
+		this.load(path, false);
+	}
+
+	/**
+	 * Read the whole file into the buffer and rewind parsing to its beginning
+	 * @param path Path of the file to read
+	 * @param cached Check if the file is read through the cache of open handles
+	 * @throws IOException if the file cannot be read
+	 */
+	private void load(String path, boolean cached) throws IOException {
+		this.path = path;
+		int read = cached ? this.cache.read(path, this.buffer) : ProcFileCache.readOnce(path, this.buffer);
+		while (read == this.buffer.capacity()) {
+			// File may be truncated, re-read it whole in a bigger buffer
+			this.grow();
+			read = cached ? this.cache.read(path, this.buffer) : ProcFileCache.readOnce(path, this.buffer);
+		}
+		this.position = 0;
+		this.limit = read;
+	}
+
+	/**
+	 * Double the size of the buffer
+	 */
+	private void grow() {
+		ByteBuffer bigger = ProcFileCache.acquireBuffer(this.buffer.capacity() * 2);
+		ProcFileCache.releaseBuffer(this.buffer);
+		this.buffer = bigger;
+	}
+
+	/**
+	 * Give the buffer back to the pool
+	 * The tokenizer must not be used afterwards
+	 */
+	public void release() {
+		ProcFileCache.releaseBuffer(this.buffer);
+		this.buffer = null;
+	}
+
+	/**
+	 * Hash the content of the loaded file
+	 * Used to detect files whose content did not change since the previous cycle, without parsing them
+	 * @return the 64-bit FNV-1a hash of the loaded file
+	 */
+	public long contentHash() {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < this.limit; i++) {
+			hash ^= this.buffer.get(i) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Move parsing back to the beginning of the loaded file
+	 */
+	public void rewind() {
+		this.position = 0;
+	}
+
+	/**
+	 * @return true if all loaded data has been parsed
+	 */
+	public boolean isAtEnd() {
+		return this.position >= this.limit;
+	}
+
+	/**
+	 * Skip spaces and tabs, but not new lines
+	 */
+	private void skipSpaces() {
+		while (this.position < this.limit) {
+			byte b = this.buffer.get(this.position);
+			if (b != ' ' && b != '\t')
+				break;
+			this.position++;
+		}
+	}
+
+	/**
+	 * @return true if there is no more token on the current line
+	 */
+	public boolean isAtEndOfLine() {
+		this.skipSpaces();
+		return this.position >= this.limit || this.buffer.get(this.position) == '\n';
+	}
+
+	/**
+	 * Move to the beginning of the next line
+	 * @return false if there is no next line
+	 */
+	public boolean nextLine() {
+		while (this.position < this.limit) {
+			if (this.buffer.get(this.position++) == '\n')
+				return this.position < this.limit;
+		}
+		return false;
+	}
+
+	/**
+	 * Skip the next token on the current line
+	 */
+	public void skipToken() {
+		this.skipSpaces();
+		this.skipTokenRemainder();
+	}
+
+	/**
+	 * Skip characters up to the end of the current token
+	 */
+	private void skipTokenRemainder() {
+		while (this.position < this.limit) {
+			byte b = this.buffer.get(this.position);
+			if (b == ' ' || b == '\t' || b == '\n')
+				break;
+			this.position++;
+		}
+	}
+
+	/**
+	 * Parse the next token as a long
+	 * Any non-digit characters directly following the digits (such as a unit) are skipped
+	 * @return the parsed value
+	 * @throws IOException if the next token is not a number
+	 */
+	public long nextLong() throws IOException {
+		this.skipSpaces();
+		boolean negative = false;
+		if (this.position < this.limit && this.buffer.get(this.position) == '-') {
+			negative = true;
+			this.position++;
+		}
+
+		int start = this.position;
+		long result = 0;
+		while (this.position < this.limit) {
+			byte b = this.buffer.get(this.position);
+			if (b < '0' || b > '9')
+				break;
+			result = result * 10 + (b - '0');
+			this.position++;
+		}
+
+		if (this.position == start)
+			throw new IOException("Malformed number in " + this.path + " at offset " + start);
+
+		this.skipTokenRemainder();
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Parse the next token as a string
+	 * @return the next token on the current line, empty if there is none
+	 */
+	public String nextToken() {
+		this.skipSpaces();
+		int start = this.position;
+		this.skipTokenRemainder();
+		byte[] token = new byte[this.position - start];
+		for (int i = 0; i < token.length; i++) {
+			token[i] = this.buffer.get(start + i);
+		}
+		return new String(token, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Parse the value of the next key=value token with the given key on the current line,
+	 * as in cgroup io.stat files: 8:0 rbytes=1459200 wbytes=314773504 rios=192 wios=353
+	 * Tokens before it are skipped, so keys must be parsed in the order of the line
+	 * @param key Key followed by '=', such as "rbytes="
+	 * @return the value, or 0 if the rest of the line has no token with the key
+	 * @throws IOException if the value is not a number
+	 */
+	public long keyValue(byte[] key) throws IOException {
+		while (!this.isAtEndOfLine()) {
+			if (this.startsWith(key)) {
+				this.position += key.length;
+				return this.nextLong();
+			}
+			this.skipTokenRemainder();
+		}
+		return 0;
+	}
+
+	/**
+	 * Sum the numbers on the current line
+	 * @param maxCount Maximum number of values to sum
+	 * @return the sum of at most maxCount values
+	 * @throws IOException if a token is not a number
+	 */
+	public long sumLine(int maxCount) throws IOException {
+		long result = 0;
+		for (int i = 0; i < maxCount && !this.isAtEndOfLine(); i++) {
+			result += this.nextLong();
+		}
+		return result;
+	}
+
+	/**
+	 * Move to the first line starting with prefix, positioned right after prefix
+	 * Search starts from the current line, or the next one if parsing is in the middle of a line
+	 * @param prefix Line prefix, such as "VmRSS:"
+	 * @return false if no line starts with prefix
+	 */
+	public boolean seekLine(byte[] prefix) {
+		if (this.position > 0 && this.buffer.get(this.position - 1) != '\n' && !this.nextLine())
+			return false;
+		do {
+			if (this.startsWith(prefix)) {
+				this.position += prefix.length;
+				return true;
+			}
+		} while (this.nextLine());
+		return false;
+	}
+
+	/**
+	 * @param prefix Bytes to compare
+	 * @return true if data at current position starts with prefix
+	 */
+	private boolean startsWith(byte[] prefix) {
+		if (this.limit - this.position < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (this.buffer.get(this.position + i) != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Move to a field of a /proc/[pid]/stat or /proc/[pid]/task/[tid]/stat file
+	 * The comm field (2) is enclosed in parentheses and can contain spaces and parentheses,
+	 * so fields are counted from the last closing parenthesis of the line
+	 * @param field Field number (1-based, as documented in proc(5)), starting at STAT_STATE
+	 * @throws IOException if the file does not contain the field
+	 */
+	public void seekStatField(int field) throws IOException {
+		this.position = this.commEnd() + 1;
+		for (int i = STAT_STATE; i < field; i++) {
+			this.skipToken();
+		}
+		if (this.isAtEndOfLine())
+			throw new IOException("Missing field " + field + " in " + this.path);
+	}
+
+	/**
+	 * @return the state (field 3) of a loaded /proc/[pid]/stat file
+	 * @throws IOException if the file does not contain the field
+	 */
+	public char statState() throws IOException {
+		this.seekStatField(STAT_STATE);
+		return (char) this.buffer.get(this.position);
+	}
+
+	/**
+	 * @return the command name (field 2) of a loaded /proc/[pid]/stat file
+	 * @throws IOException if the file does not contain the field
+	 */
+	public String statComm() throws IOException {
+		int start = this.indexOf((byte) '(');
+		int end = this.commEnd();
+		if (start < 0 || start > end)
+			throw new IOException("Missing command name in " + this.path);
+		byte[] comm = new byte[end - start - 1];
+		for (int i = 0; i < comm.length; i++) {
+			comm[i] = this.buffer.get(start + 1 + i);
+		}
+		return new String(comm, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse the bytes read from and written to disk of a loaded /proc/[pid]/io file
+	 * Written bytes that were truncated before reaching the disk are cancelled
+	 * @param readWriteBytes Array filled with the number of bytes read and written
+	 * long[0] = read
+	 * long[1] = write
+	 * @throws IOException if a value is malformed
+	 */
+	public void ioReadWriteBytes(long[] readWriteBytes) throws IOException {
+		this.position = 0;
+		long read = this.seekLine(READ_BYTES) ? this.nextLong() : 0;
+		long written = this.seekLine(WRITE_BYTES) ? this.nextLong() : 0;
+		long cancelled = this.seekLine(CANCELLED_WRITE_BYTES) ? this.nextLong() : 0;
+		readWriteBytes[0] = read;
+		readWriteBytes[1] = written - cancelled;
+	}
+
+	/**
+	 * @return the offset of the last closing parenthesis, which ends the comm field
+	 * @throws IOException if the file has no comm field
+	 */
+	private int commEnd() throws IOException {
+		for (int i = this.limit - 1; i >= 0; i--) {
+			if (this.buffer.get(i) == ')')
+				return i;
+		}
+		throw new IOException("Missing command name in " + this.path);
+	}
+
+	/**
+	 * @param b Byte to find
+	 * @return the offset of the first occurrence of b, or -1
+	 */
+	private int indexOf(byte b) {
+		for (int i = 0; i < this.limit; i++) {
+			if (this.buffer.get(i) == b)
+				return i;
+		}
+		return -1;
+	}
+
+}
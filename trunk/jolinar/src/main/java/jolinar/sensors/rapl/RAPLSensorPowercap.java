@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014, Inria, University Lille 1.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Affero General Public License v3.0
+ * which accompanies this distribution, and is available at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ *
+ * Author : Adel Noureddine
+ */
+
+package jolinar.sensors.rapl;
+
+import jolinar.Main;
+import jolinar.sensors.platform.PlatformSensorsInterface;
+import jolinar.sensors.proc.ProcTokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Sensor of the energy counters of a RAPL domain, read from the powercap sysfs tree
+ * Counters of all zones of the domain are summed, such as package-0 and package-1 on a two socket server
+ * Counters wrap around at their maximum energy range
+ */
+public class RAPLSensorPowercap implements PlatformSensorsInterface {
+
+	/**
+	 * Default path of the powercap sysfs tree
+	 */
+	public static final String DEFAULT_POWERCAP_PATH = "/sys/class/powercap";
+
+	/**
+	 * Names of RAPL domains
+	 * Package zones are named after their socket, such as package-0
+	 */
+	public static final String PACKAGE = "package";
+	public static final String CORE = "core";
+	public static final String DRAM = "dram";
+
+	/**
+	 * Names of RAPL zones and subzones, such as intel-rapl:0 and intel-rapl:0:2
+	 * intel-rapl-mmio zones are not matched, as they report the same package energy through another interface
+	 */
+	private static final Pattern ZONE_PATTERN = Pattern.compile("intel-rapl:\\d+(:\\d+)?");
+
+	/**
+	 * Paths to the energy counter of each zone of the domain
+	 */
+	private String[] energyPaths;
+
+	/**
+	 * Maximum energy range of each zone, in microjoules, after which its counter wraps around
+	 * 0 if unknown
+	 */
+	private long[] maxEnergyRanges;
+
+	/**
+	 * Previous energy counter of each zone, in microjoules
+	 * -1 until the zone is first read, so that a zone failing on the first reads takes its baseline when it is read
+	 */
+	private long[] previousEnergies;
+
+	/**
+	 * Tokenizer reused to parse energy counters on each monitoring cycle
+	 */
+	private ProcTokenizer tokenizer;
+
+	/**
+	 * Constructor
+	 * @param powercapPath Path of the powercap sysfs tree, such as /sys/class/powercap
+	 * @param domain Name of the RAPL domain (PACKAGE, CORE or DRAM)
+	 */
+	public RAPLSensorPowercap(String powercapPath, String domain) {
+		this.tokenizer = new ProcTokenizer(64);
+		this.discover(powercapPath, domain);
+	}
+
+	/**
+	 * Discover the readable zones of the domain
+	 * @param powercapPath Path of the powercap sysfs tree
+	 * @param domain Name of the RAPL domain
+	 */
+	private void discover(String powercapPath, String domain) {
+		List<String> paths = new ArrayList<>();
+		List<Long> ranges = new ArrayList<>();
+
+		String[] zones = new File(powercapPath).list();
+		if (zones == null)
+			zones = new String[0];
+		Arrays.sort(zones);
+
+		for (String zone : zones) {
+			if (!ZONE_PATTERN.matcher(zone).matches())
+				continue;
+
+			String zonePath = powercapPath + "/" + zone;
+			String name = readString(zonePath + "/name");
+			if (name == null || !(name.equals(domain) || name.startsWith(domain + "-")))
+				continue;
+
+			// Energy counters are only readable by root on recent kernels
+			File energy = new File(zonePath + "/energy_uj");
+			if (!energy.canRead()) {
+				Main.LOGGER.log(Level.WARNING, "RAPL counter not readable: " + energy.getPath());
+				continue;
+			}
+
+			String range = readString(zonePath + "/max_energy_range_uj");
+			try {
+				ranges.add(range == null ? 0 : Long.parseLong(range));
+			} catch (NumberFormatException e) {
+				ranges.add(0L);
+			}
+			paths.add(energy.getPath());
+		}
+
+		this.energyPaths = paths.toArray(new String[paths.size()]);
+		this.maxEnergyRanges = new long[ranges.size()];
+		for (int i = 0; i < this.maxEnergyRanges.length; i++) {
+			this.maxEnergyRanges[i] = ranges.get(i);
+		}
+		this.previousEnergies = new long[this.energyPaths.length];
+		Arrays.fill(this.previousEnergies, -1);
+	}
+
+	/**
+	 * @param path Path of a sysfs file
+	 * @return the trimmed content of the file, or null if it cannot be read
+	 */
+	private static String readString(String path) {
+		try {
+			return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.US_ASCII).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if at least one zone of the domain can be read
+	 */
+	public boolean isAvailable() {
+		return this.energyPaths.length > 0;
+	}
+
+	@Override
+	public double getEnergy() {
+		long result = 0;
+
+		for (int i = 0; i < this.energyPaths.length; i++) {
+			long energy;
+			try {
+				// Example of line: 48725620361
+				this.tokenizer.load(this.energyPaths[i]);
+				energy = this.tokenizer.nextLong();
+			} catch (IOException e) {
+				Main.LOGGER.log(Level.WARNING, e.getMessage());
+				continue;
+			}
+
+			if (this.previousEnergies[i] >= 0) {
+				// The counter wrapped around since the previous read, it cannot wrap twice between two samples
+				// as the range lasts minutes even at full power
+				long diff = energy - this.previousEnergies[i];
+				if (diff < 0)
+					diff = this.maxEnergyRanges[i] > 0 ? diff + this.maxEnergyRanges[i] : 0;
+				result += diff;
+			}
+			this.previousEnergies[i] = energy;
+		}
+
+		// Counters are in microjoules
+		return result / 1000000.0;
+	}
+
+}